@@ -17,9 +17,14 @@ group = "ca.stellardrift.permissionsex"
 version = "2.0-SNAPSHOT"
 description = project.property("pexDescription") as String
 
+val publishExcludes = ext["publishExcludes"].toString().split(',').toSet()
+
 subprojects {
+    val published = name !in publishExcludes
     apply(plugin="ca.stellardrift.opinionated.kotlin")
-    apply(plugin="ca.stellardrift.opinionated.publish")
+    if (published) {
+        apply(plugin="ca.stellardrift.opinionated.publish")
+    }
 
     repositories {
         mavenCentral()
@@ -50,15 +55,17 @@ subprojects {
         header = rootProject.file("LICENSE_HEADER")
     }
 
-    publishing {
-        repositories {
-            if (project.hasProperty("pexUsername") && project.hasProperty("pexPassword")) {
-                maven {
-                    name = "pex"
-                    url = java.net.URI("https://repo.glaremasters.me/repository/permissionsex")
-                    credentials {
-                        username = project.property("pexUsername").toString()
-                        password = project.property("pexPassword").toString()
+    if (published) {
+        publishing {
+            repositories {
+                if (project.hasProperty("pexUsername") && project.hasProperty("pexPassword")) {
+                    maven {
+                        name = "pex"
+                        url = java.net.URI("https://repo.glaremasters.me/repository/permissionsex")
+                        credentials {
+                            username = project.property("pexUsername").toString()
+                            password = project.property("pexPassword").toString()
+                        }
                     }
                 }
             }
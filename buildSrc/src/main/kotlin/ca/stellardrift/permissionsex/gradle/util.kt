@@ -31,6 +31,7 @@ enum class Versions(val version: String) {
     SLF4J("1.7.26"),
     ANTLR("4.7.2"),
     JUNIT("5.6.2"),
+    JMH("1.23"),
     KOTLINX_COROUTINES("1.3.5"),
     TEXT("3.0.4"),
     TEXT_ADAPTER("3.0.3");
@@ -64,6 +64,9 @@ internal val PROTOCOL_SPECIFIC_PROPS: Map<String, Properties> = {
     val mysqlProps = Properties()
     // Config options based on http://assets.en.oreilly.com/1/event/21/Connector_J%20Performance%20Gems%20Presentation.pdf
     mysqlProps.setProperty("useConfigs", "maxPerformance")
+    // Prepare statements on the server, and keep them cached per connection, including the long IN-list queries
+    mysqlProps.setProperty("useServerPrepStmts", "true")
+    mysqlProps.setProperty("prepStmtCacheSqlLimit", "2048")
     mapOf(
         "com.mysql.jdbc.Driver" to mysqlProps,
         "org.mariadb.jdbc.Driver" to mysqlProps
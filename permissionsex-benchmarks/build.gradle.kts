@@ -0,0 +1,56 @@
+import ca.stellardrift.permissionsex.gradle.Versions
+
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+plugins {
+    id("me.champeau.gradle.jmh") version "0.5.0"
+}
+
+dependencies {
+    jmh(project(":permissionsex-core"))
+    jmh("com.h2database:h2:1.4.199")
+    jmh("org.slf4j:slf4j-jdk14:${Versions.SLF4J}")
+}
+
+/*
+ * Benchmarks only need local resources -- an embedded H2 database and temporary files -- so once dependencies
+ * have been resolved they can be run with `./gradlew --offline :permissionsex-benchmarks:jmh`.
+ *
+ * Options:
+ *   -PjmhInclude=<regex>  only run matching benchmarks, for example -PjmhInclude=NodeTree
+ *   -PjmhGc               attach the GC profiler, reporting allocation rates per operation
+ *   -PjmhQuick            a single short fork, for checking that benchmarks work rather than measuring
+ */
+jmh {
+    jmhVersion = Versions.JMH.version
+    duplicateClassesStrategy = DuplicatesStrategy.EXCLUDE
+    resultFormat = "JSON"
+
+    (project.findProperty("jmhInclude") as String?)?.let {
+        include = listOf(it)
+    }
+    if (project.hasProperty("jmhGc")) {
+        profilers = listOf("gc")
+    }
+    if (project.hasProperty("jmhQuick")) {
+        fork = 1
+        warmupIterations = 1
+        iterations = 2
+    }
+}
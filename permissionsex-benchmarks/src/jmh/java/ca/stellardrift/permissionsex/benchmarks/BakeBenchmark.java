@@ -0,0 +1,93 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.subject.CalculatedSubject;
+import ca.stellardrift.permissionsex.subject.SubjectDataBaker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baking a user's data from synthetic inheritance graphs of varying depth and width.
+ *
+ * @see BenchmarkEngine#populateInheritance(int, int, int) for the shape of the graph
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BakeBenchmark {
+    private static final int PERMISSIONS_PER_GROUP = 32;
+
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    @Param({"1", "4", "16"})
+    public int width;
+
+    private BenchmarkEngine engine;
+    private CalculatedSubject user;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, PermissionsLoadingException {
+        this.engine = BenchmarkEngine.create(BenchmarkEngine.Backend.MEMORY);
+        this.user = this.engine.populateInheritance(this.depth, this.width, PERMISSIONS_PER_GROUP);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.engine.close();
+    }
+
+    // Baked data is package-private, so results are returned as Object to keep them from being optimized away
+
+    /**
+     * A bake where every inherited group's contribution has already been computed for another subject
+     */
+    @Benchmark
+    public Object bake() {
+        return SubjectDataBaker.inheritance().bake(this.user, PermissionsEx.GLOBAL_CONTEXT).join();
+    }
+
+    /**
+     * A bake starting from scratch, as after a reload
+     */
+    @Benchmark
+    public Object bakeCold() {
+        this.engine.getManager().getBakeContributions().invalidateAll();
+        return SubjectDataBaker.inheritance().bake(this.user, PermissionsEx.GLOBAL_CONTEXT).join();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.backend.file.FileDataStore;
+import ca.stellardrift.permissionsex.backend.memory.MemoryDataStore;
+import ca.stellardrift.permissionsex.backend.sql.SqlDataStore;
+import ca.stellardrift.permissionsex.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.subject.CalculatedSubject;
+import ca.stellardrift.permissionsex.subject.SubjectType;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A permissions engine for benchmarks, isolated in its own temporary directory.
+ */
+final class BenchmarkEngine {
+
+    /**
+     * The data stores benchmarks can run against
+     */
+    enum Backend {
+        MEMORY(dir -> new MemoryDataStore("benchmark")),
+        FILE(dir -> {
+            final ConfigurationNode config = SimpleConfigurationNode.root();
+            config.getNode("file").setValue("permissions.json");
+            config.getNode("auto-reload").setValue(false);
+            return FileDataStore.FACTORY.createDataStore("benchmark", config);
+        }),
+        SQL(dir -> {
+            final ConfigurationNode config = SimpleConfigurationNode.root();
+            config.getNode("url").setValue("jdbc:h2:file:" + dir.resolve("permissions").toAbsolutePath().toString().replace('\\', '/'));
+            return SqlDataStore.FACTORY.createDataStore("benchmark", config);
+        });
+
+        private final StoreFactory factory;
+
+        Backend(StoreFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    @FunctionalInterface
+    private interface StoreFactory {
+        DataStore create(Path directory) throws PermissionsLoadingException;
+    }
+
+    private final Path directory;
+    private final DataStore dataStore;
+    private final PermissionsEx<?> manager;
+
+    private BenchmarkEngine(Path directory, DataStore dataStore, PermissionsEx<?> manager) {
+        this.directory = directory;
+        this.dataStore = dataStore;
+        this.manager = manager;
+    }
+
+    static BenchmarkEngine create(Backend backend) throws IOException, PermissionsLoadingException {
+        final Path directory = Files.createTempDirectory("pex-benchmark");
+        final DataStore store = backend.factory.create(directory);
+        return new BenchmarkEngine(directory, store, new PermissionsEx<>(new Configuration(store), new BenchmarkImplementationInterface(directory)));
+    }
+
+    PermissionsEx<?> getManager() {
+        return this.manager;
+    }
+
+    DataStore getDataStore() {
+        return this.dataStore;
+    }
+
+    /**
+     * Populate the engine with a layered inheritance graph. Each of {@code depth} layers has {@code width} groups,
+     * and every group inherits from two groups in the layer below, so ancestors are shared the way they are on
+     * real servers. A single user inherits from every group in the top layer.
+     *
+     * @param depth The number of layers of groups
+     * @param width The number of groups in each layer
+     * @param permissionsPerGroup The number of permissions to give each group
+     * @return The user at the bottom of the graph
+     */
+    CalculatedSubject populateInheritance(int depth, int width, int permissionsPerGroup) {
+        final SubjectType groups = this.manager.getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        for (int layer = 0; layer < depth; ++layer) {
+            for (int i = 0; i < width; ++i) {
+                final Map<String, Integer> permissions = Permissions.values(layer * width + i, permissionsPerGroup);
+                final int parentLayer = layer + 1;
+                final int parentIdx = i;
+                groups.persistentData().update(groupName(layer, i), data -> {
+                    data = data.setPermissions(PermissionsEx.GLOBAL_CONTEXT, permissions);
+                    if (parentLayer < depth) {
+                        data = data.addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, groupName(parentLayer, parentIdx))
+                                .addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, groupName(parentLayer, (parentIdx + 1) % width));
+                    }
+                    return data;
+                }).join();
+            }
+        }
+
+        final CalculatedSubject user = this.manager.getSubjects(PermissionsEx.SUBJECTS_USER).get(UUID.nameUUIDFromBytes(new byte[0]).toString()).join();
+        user.data().update(data -> {
+            for (int i = 0; i < width; ++i) {
+                data = data.addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, groupName(0, i));
+            }
+            return data;
+        }).join();
+        return user;
+    }
+
+    private static String groupName(int layer, int index) {
+        return "layer" + layer + "-" + index;
+    }
+
+    /**
+     * Close the engine and delete every file it created.
+     *
+     * @throws IOException if files could not be deleted
+     */
+    void close() throws IOException {
+        this.manager.close();
+        Files.walkFileTree(this.directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static class Configuration implements PermissionsExConfiguration<EmptyPlatformConfiguration> {
+        private final DataStore store;
+
+        Configuration(DataStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public DataStore getDataStore(String name) {
+            return null;
+        }
+
+        @Override
+        public DataStore getDefaultDataStore() {
+            return this.store;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public List<String> getServerTags() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void validate() {
+        }
+
+        @Override
+        public EmptyPlatformConfiguration getPlatformConfig() {
+            return new EmptyPlatformConfiguration();
+        }
+
+        @Override
+        public PermissionsExConfiguration<EmptyPlatformConfiguration> reload() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.BaseDirectoryScope;
+import ca.stellardrift.permissionsex.ImplementationInterface;
+import ca.stellardrift.permissionsex.util.MinecraftProfile;
+import ca.stellardrift.permissionsex.util.command.CommandSpec;
+import org.h2.jdbcx.JdbcDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A platform for benchmarks. Everything runs on the calling thread, so measurements include the full cost of
+ * each operation, and only embedded H2 databases are supported, so nothing requires network access.
+ */
+class BenchmarkImplementationInterface implements ImplementationInterface {
+    private final Path baseDirectory;
+    private final Logger logger = LoggerFactory.getLogger("PermissionsEx Benchmarks");
+
+    BenchmarkImplementationInterface(Path baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    @Override
+    public Path getBaseDirectory(BaseDirectoryScope scope) {
+        return this.baseDirectory;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return this.logger;
+    }
+
+    @Override
+    public DataSource getDataSourceForURL(String url) {
+        if (!url.startsWith("jdbc:h2")) {
+            throw new IllegalArgumentException("Benchmarks only support embedded H2 databases");
+        }
+        final JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL(url);
+        return ds;
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return Runnable::run;
+    }
+
+    @Override
+    public void registerCommands(Supplier<Set<CommandSpec>> commandSupplier) {
+    }
+
+    @Override
+    public Set<CommandSpec> getImplementationCommands() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public String getVersion() {
+        return "benchmark";
+    }
+
+    @Override
+    public CompletableFuture<Integer> lookupMinecraftProfilesByName(Iterable<String> names, Function<MinecraftProfile, CompletableFuture<Void>> action) {
+        return CompletableFuture.completedFuture(0); // benchmark subjects are never converted
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and saving subject data directly through a data store, bypassing every cache in the engine.
+ * The file store writes to a temporary directory and the SQL store to an embedded H2 database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DataStoreBenchmark {
+    private static final int SUBJECT_COUNT = 64;
+
+    @Param({"FILE", "SQL"})
+    public String backend;
+
+    @Param({"64"})
+    public int permissionsPerSubject;
+
+    private BenchmarkEngine engine;
+    private DataStore store;
+    private final String[] identifiers = new String[SUBJECT_COUNT];
+    private final ImmutableSubjectData[] data = new ImmutableSubjectData[SUBJECT_COUNT];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, PermissionsLoadingException {
+        this.engine = BenchmarkEngine.create(BenchmarkEngine.Backend.valueOf(this.backend));
+        this.store = this.engine.getDataStore();
+        for (int i = 0; i < SUBJECT_COUNT; ++i) {
+            this.identifiers[i] = "subject" + i;
+            final ImmutableSubjectData empty = this.store.getData(PermissionsEx.SUBJECTS_GROUP, this.identifiers[i], null).join();
+            this.data[i] = this.store.setData(PermissionsEx.SUBJECTS_GROUP, this.identifiers[i],
+                    empty.setPermissions(PermissionsEx.GLOBAL_CONTEXT, Permissions.values(i, this.permissionsPerSubject))).join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.engine.close();
+    }
+
+    @Benchmark
+    public ImmutableSubjectData load() {
+        return this.store.getData(PermissionsEx.SUBJECTS_GROUP, this.identifiers[this.next++ % SUBJECT_COUNT], null).join();
+    }
+
+    /**
+     * Save a change of a single permission, the most common kind of write
+     */
+    @Benchmark
+    public ImmutableSubjectData save() {
+        final int idx = this.next++ % SUBJECT_COUNT;
+        final ImmutableSubjectData changed = this.data[idx].setPermission(PermissionsEx.GLOBAL_CONTEXT, "benchmark.toggle", (this.next & 1) == 0 ? 1 : -1);
+        this.data[idx] = this.store.setData(PermissionsEx.SUBJECTS_GROUP, this.identifiers[idx], changed).join();
+        return this.data[idx];
+    }
+}
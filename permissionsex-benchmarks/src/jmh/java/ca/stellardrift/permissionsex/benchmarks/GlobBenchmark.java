@@ -0,0 +1,81 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.util.glob.GlobNode;
+import ca.stellardrift.permissionsex.util.glob.GlobParseException;
+import ca.stellardrift.permissionsex.util.glob.Globs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and expanding glob expressions, as used in permission nodes and by commands.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GlobBenchmark {
+
+    @Param({
+            "worldedit.command.use",
+            "worldedit.{command,feature}.use",
+            "essentials.{home,warp.{public,private},spawn}.{set,use,delete}"
+    })
+    public String glob;
+
+    /**
+     * Parse without the shared parse cache
+     */
+    @Benchmark
+    public GlobNode parse() throws GlobParseException {
+        return Globs.parse(this.glob);
+    }
+
+    /**
+     * Parse without the shared parse cache, then expand every match
+     */
+    @Benchmark
+    public void parseAndExpand(Blackhole bh) throws GlobParseException {
+        for (String match : Globs.parse(this.glob)) {
+            bh.consume(match);
+        }
+    }
+
+    /**
+     * Expand through the shared parse cache, as most callers do
+     */
+    @Benchmark
+    public List<String> expandCached() {
+        return Globs.expand(this.glob);
+    }
+}
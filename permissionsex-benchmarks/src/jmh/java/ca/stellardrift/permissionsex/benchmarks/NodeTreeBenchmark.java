@@ -0,0 +1,83 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.util.NodeTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building, querying and modifying {@link NodeTree}s, which back every baked permission lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class NodeTreeBenchmark {
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private Map<String, Integer> values;
+    private NodeTree tree;
+    private String[] queries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        this.values = Permissions.values(42, this.size);
+        this.tree = NodeTree.of(this.values);
+        final List<String> queries = Permissions.queries(7, QUERY_COUNT);
+        this.queries = queries.toArray(new String[0]);
+    }
+
+    private String nextQuery() {
+        return this.queries[this.next++ & (QUERY_COUNT - 1)];
+    }
+
+    @Benchmark
+    public NodeTree of() {
+        return NodeTree.of(this.values);
+    }
+
+    @Benchmark
+    public int get() {
+        return this.tree.get(nextQuery());
+    }
+
+    @Benchmark
+    public NodeTree withValue() {
+        return this.tree.withValue(nextQuery(), 1);
+    }
+}
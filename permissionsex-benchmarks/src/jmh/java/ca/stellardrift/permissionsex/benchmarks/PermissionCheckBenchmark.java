@@ -0,0 +1,96 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.subject.CalculatedSubject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permission checks against a subject whose baked data is already cached, the path taken by nearly every
+ * check on a running server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PermissionCheckBenchmark {
+    private static final int QUERY_COUNT = 1024;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"4"})
+    public int width;
+
+    private BenchmarkEngine engine;
+    private CalculatedSubject user;
+    private String[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, PermissionsLoadingException {
+        this.engine = BenchmarkEngine.create(BenchmarkEngine.Backend.MEMORY);
+        this.user = this.engine.populateInheritance(this.depth, this.width, 32);
+        this.queries = Permissions.queries(7, QUERY_COUNT).toArray(new String[0]);
+        for (String query : this.queries) { // bake and fill the result memo
+            this.user.hasPermission(query);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.engine.close();
+    }
+
+    private String nextQuery() {
+        return this.queries[ThreadLocalRandom.current().nextInt(QUERY_COUNT)];
+    }
+
+    @Benchmark
+    public boolean hasPermission() {
+        return this.user.hasPermission(nextQuery());
+    }
+
+    /**
+     * Many threads checking the same subject at once, like a busy server with async chat and commands
+     */
+    @Benchmark
+    @Threads(4)
+    public boolean hasPermissionContended() {
+        return this.user.hasPermission(nextQuery());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates permission nodes shaped like those found on real servers: a plugin name, a category and an action,
+ * with a sprinkling of globs. Output only depends on the seed, so every run measures the same data.
+ */
+final class Permissions {
+    private static final String[] PLUGINS = {"worldedit", "essentials", "permissionsex", "worldguard", "luckyblocks", "chestshop", "mcmmo", "dynmap"};
+    private static final String[] CATEGORIES = {"command", "feature", "admin", "region", "kit", "spawn", "chat", "economy"};
+    private static final String[] ACTIONS = {"use", "create", "delete", "modify", "list", "info", "teleport", "bypass"};
+
+    private Permissions() {
+    }
+
+    /**
+     * Generate a random permission node
+     *
+     * @param random The source of randomness
+     * @return A literal permission node
+     */
+    static String node(SplittableRandom random) {
+        return PLUGINS[random.nextInt(PLUGINS.length)] + '.'
+                + CATEGORIES[random.nextInt(CATEGORIES.length)] + '.'
+                + ACTIONS[random.nextInt(ACTIONS.length)] + '.'
+                + random.nextInt(16);
+    }
+
+    /**
+     * Generate a glob matching a few actions in a random category
+     *
+     * @param random The source of randomness
+     * @return A glob permission node
+     */
+    static String glob(SplittableRandom random) {
+        return PLUGINS[random.nextInt(PLUGINS.length)] + '.'
+                + CATEGORIES[random.nextInt(CATEGORIES.length)] + ".{"
+                + ACTIONS[random.nextInt(ACTIONS.length)] + ','
+                + ACTIONS[random.nextInt(ACTIONS.length)] + "}";
+    }
+
+    /**
+     * Generate a map of permissions to values, about one in sixteen of which are globs
+     *
+     * @param seed The random seed
+     * @param count The number of permissions to generate
+     * @return A map of permissions to randomly positive or negative values
+     */
+    static Map<String, Integer> values(long seed, int count) {
+        final SplittableRandom random = new SplittableRandom(seed);
+        final Map<String, Integer> ret = new LinkedHashMap<>();
+        while (ret.size() < count) {
+            ret.put(random.nextInt(16) == 0 ? glob(random) : node(random), random.nextBoolean() ? 1 : -1);
+        }
+        return ret;
+    }
+
+    /**
+     * Generate literal permission nodes to query
+     *
+     * @param seed The random seed
+     * @param count The number of nodes
+     * @return A list of nodes, possibly with duplicates
+     */
+    static List<String> queries(long seed, int count) {
+        final SplittableRandom random = new SplittableRandom(seed);
+        final List<String> ret = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(node(random));
+        }
+        return ret;
+    }
+}
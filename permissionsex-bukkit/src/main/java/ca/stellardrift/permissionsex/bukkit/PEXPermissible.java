@@ -158,7 +158,7 @@ public class PEXPermissible extends PermissibleBase {
     public boolean isPermissionSet(@NotNull String name) {
         Preconditions.checkNotNull(name, "name");
         name = name.toLowerCase();
-        return getPermissionValue(subj.getActiveContexts(), name) != 0;
+        return getPermissionValue(subj.getActiveContextSnapshot(), name) != 0;
     }
 
     private int getPermissionValue(Set<ContextValue<?>> contexts, String permission) {
@@ -223,7 +223,7 @@ public class PEXPermissible extends PermissibleBase {
     public boolean hasPermission(String inName) {
         Preconditions.checkNotNull(inName, "inName");
         inName = inName.toLowerCase();
-        return getPermissionValue(subj.getActiveContexts(), inName) > 0;
+        return getPermissionValue(subj.getActiveContextSnapshot(), inName) > 0;
     }
 
     @Override
@@ -297,7 +297,7 @@ public class PEXPermissible extends PermissibleBase {
     @Override
     public Set<PermissionAttachmentInfo> getEffectivePermissions() {
         ImmutableSet.Builder<PermissionAttachmentInfo> ret = ImmutableSet.builder();
-        final Set<ContextValue<?>> activeContexts = subj.getActiveContexts();
+        final Set<ContextValue<?>> activeContexts = subj.getActiveContextSnapshot();
         ret.addAll(Iterables.transform(subj.getPermissions(activeContexts).asMap().entrySet(),
                 input -> new PermissionAttachmentInfo(player, input.getKey(), null, input.getValue() > 0)));
         for (Metapermission mPerm : METAPERMISSIONS) {
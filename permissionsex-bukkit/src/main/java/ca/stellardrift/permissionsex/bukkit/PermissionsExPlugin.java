@@ -24,6 +24,7 @@ import ca.stellardrift.permissionsex.config.FilePermissionsExConfiguration;
 import ca.stellardrift.permissionsex.logging.FormattedLogger;
 import ca.stellardrift.permissionsex.profile.ProfileKt;
 import ca.stellardrift.permissionsex.commands.CallbackController;
+import ca.stellardrift.permissionsex.subject.CalculatedSubject;
 import ca.stellardrift.permissionsex.subject.SubjectType;
 import ca.stellardrift.permissionsex.util.MinecraftProfile;
 import ca.stellardrift.permissionsex.util.command.CommandSpec;
@@ -39,8 +40,11 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
 import org.bukkit.permissions.Permissible;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.slf4j.Logger;
@@ -206,6 +210,33 @@ public class PermissionsExPlugin extends JavaPlugin implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.LOWEST)
+    private void onPlayerJoin(final PlayerJoinEvent event) {
+        invalidateActiveContexts(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    private void onPlayerChangedWorld(final PlayerChangedWorldEvent event) {
+        invalidateActiveContexts(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    private void onPlayerRespawn(final PlayerRespawnEvent event) {
+        invalidateActiveContexts(event.getPlayer());
+    }
+
+    /**
+     * Recalculate a player's active contexts the next time they are queried, after their world or connection changes,
+     * or they respawn.
+     *
+     * @param player The player whose contexts may have changed
+     */
+    private void invalidateActiveContexts(final Player player) {
+        final CalculatedSubject subject = getUserSubjects().getIfActive(player.getUniqueId().toString());
+        if (subject != null) {
+            subject.invalidateActiveContexts();
+        }
+    }
 
     @EventHandler(priority = EventPriority.MONITOR) // Happen last
     private void onPlayerQuit(PlayerQuitEvent event) {
@@ -33,6 +33,9 @@ import org.bukkit.plugin.ServicePriority
 
 // TODO: Make region parents work properly
 class WorldGuardRegionContext(private val plugin: WorldGuardPlugin) : SimpleContextDefinition("region") {
+    override val isVolatile: Boolean
+        get() = true // regions change as players move, without any event we can listen to
+
     override fun accumulateCurrentValues(subject: CalculatedSubject, consumer: (value: String) -> Unit) {
         subject.associatedObject.castMap<Player> {
             val wgPlayer = plugin.wrapPlayer(this)
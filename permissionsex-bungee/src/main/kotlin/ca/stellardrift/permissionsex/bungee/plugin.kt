@@ -36,6 +36,7 @@ import net.md_5.bungee.api.connection.ProxiedPlayer
 import net.md_5.bungee.api.event.LoginEvent
 import net.md_5.bungee.api.event.PermissionCheckEvent
 import net.md_5.bungee.api.event.PlayerDisconnectEvent
+import net.md_5.bungee.api.event.PostLoginEvent
 import net.md_5.bungee.api.plugin.Command
 import net.md_5.bungee.api.plugin.Listener
 import net.md_5.bungee.api.plugin.Plugin
@@ -123,6 +124,12 @@ class PermissionsExPlugin : Plugin(), Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.LOWEST)
+    fun refreshContexts(event: PostLoginEvent) {
+        // The subject was loaded before a player existed to provide connection contexts
+        manager.getSubjects(SUBJECTS_USER).getIfActive(event.player.uniqueId.toString())?.invalidateActiveContexts()
+    }
+
     @EventHandler(priority = EventPriority.HIGHEST)
     fun unloadPlayer(event: PlayerDisconnectEvent) {
         try {
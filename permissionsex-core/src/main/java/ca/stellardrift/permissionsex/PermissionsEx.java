@@ -24,20 +24,29 @@ import ca.stellardrift.permissionsex.backend.conversion.ConversionResult;
 import ca.stellardrift.permissionsex.backend.memory.MemoryDataStore;
 import ca.stellardrift.permissionsex.commands.CallbackController;
 import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.config.SubjectCacheConfiguration;
 import ca.stellardrift.permissionsex.context.*;
 import ca.stellardrift.permissionsex.data.*;
 import ca.stellardrift.permissionsex.exception.PEBKACException;
 import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.logging.AsyncPermissionCheckNotifier;
 import ca.stellardrift.permissionsex.logging.DebugPermissionCheckNotifier;
-import ca.stellardrift.permissionsex.logging.PermissionCheckNotifier;
 import ca.stellardrift.permissionsex.logging.RecordingPermissionCheckNotifier;
 import ca.stellardrift.permissionsex.logging.FormattedLogger;
+import ca.stellardrift.permissionsex.metrics.PermissionsExMetrics;
+import ca.stellardrift.permissionsex.subject.BakeContributionCache;
+import ca.stellardrift.permissionsex.subject.CacheWarmer;
 import ca.stellardrift.permissionsex.subject.CalculatedSubject;
+import ca.stellardrift.permissionsex.subject.InheritanceGraph;
+import ca.stellardrift.permissionsex.subject.SegmentMatchers;
 import ca.stellardrift.permissionsex.subject.SubjectType;
 import ca.stellardrift.permissionsex.subject.SubjectTypeDefinition;
 import ca.stellardrift.permissionsex.util.MinecraftProfile;
+import ca.stellardrift.permissionsex.util.PermissionResultMemo;
 import ca.stellardrift.permissionsex.util.Util;
+import ca.stellardrift.permissionsex.util.glob.Globs;
 import ca.stellardrift.permissionsex.util.command.CommandSpec;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -91,13 +100,19 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
     private final ImplementationInterface impl;
     private final MemoryDataStore transientData;
     private final RecordingPermissionCheckNotifier baseNotifier = new RecordingPermissionCheckNotifier();
-    private volatile PermissionCheckNotifier notifier = baseNotifier;
+    private final AsyncPermissionCheckNotifier notifier;
+    private final PermissionResultMemo.Statistics permissionMemoStatistics = new PermissionResultMemo.Statistics();
+    private final PermissionsExMetrics metrics = new PermissionsExMetrics();
     private final ConcurrentMap<String, ContextDefinition<?>> contextTypes = new ConcurrentHashMap<>();
 
     private final AtomicReference<State<PlatformConfigType>> state = new AtomicReference<>();
     private final ConcurrentMap<String, SubjectType> subjectTypeCache = new ConcurrentHashMap<>();
+    private final InheritanceGraph inheritanceGraph = new InheritanceGraph();
+    private final BakeContributionCache bakeContributions = new BakeContributionCache();
+    private final SegmentMatchers segmentMatchers = new SegmentMatchers();
     private RankLadderCache rankLadderCache;
     private volatile CompletableFuture<ContextInheritance> cachedInheritance;
+    private volatile CompletableFuture<ContextInheritanceClosure> cachedInheritanceClosure;
     private final CacheListenerHolder<Boolean, ContextInheritance> cachedInheritanceListeners = new CacheListenerHolder<>();
     private final CallbackController callbackController;
 
@@ -115,9 +130,12 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
     public PermissionsEx(final PermissionsExConfiguration<PlatformConfigType> config, ImplementationInterface impl) throws PermissionsLoadingException {
         this.impl = impl;
         this.logger = FormattedLogger.forLogger(impl.getLogger(), false);
+        this.notifier = new AsyncPermissionCheckNotifier("PermissionsEx Check Notifier", this.baseNotifier, this.logger);
         this.transientData = new MemoryDataStore("transient");
         this.transientData.initialize(this);
         this.callbackController = new CallbackController();
+        this.metrics.registerCache("bake-contributions", this.bakeContributions::stats);
+        this.metrics.registerCache("glob-parse", Globs::parseCacheStats);
         setDebugMode(config.isDebugEnabled());
         registerContextDefinition(ServerTagContextDefinition.INSTANCE);
         registerContextDefinition(BeforeTimeContextDefinition.INSTANCE);
@@ -221,7 +239,13 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
      */
     public SubjectType getSubjects(String type) {
         return subjectTypeCache.computeIfAbsent(type,
-                key -> new SubjectType(this, type, new SubjectCache(type, getState().activeDataStore), new SubjectCache(type, transientData)));
+                key -> {
+                    final State<PlatformConfigType> state = getState();
+                    final SubjectCacheConfiguration cacheConfig = state.config.getSubjectCache(type);
+                    final StatsCounter cacheStats = metrics.getCacheCounter(PermissionsExMetrics.CACHE_SUBJECT_DATA + '/' + type);
+                    return new SubjectType(this, type, new SubjectCache(type, state.activeDataStore, cacheStats, cacheConfig),
+                            new SubjectCache(type, transientData, cacheStats, cacheConfig));
+                });
     }
 
     /**
@@ -233,6 +257,33 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
         return Collections.unmodifiableCollection(subjectTypeCache.values());
     }
 
+    /**
+     * Get the index of which subjects the currently baked data of each calculated subject depends on.
+     *
+     * @return The inheritance graph
+     */
+    public InheritanceGraph getInheritanceGraph() {
+        return this.inheritanceGraph;
+    }
+
+    /**
+     * Get the cache of data inherited subjects contribute to bakes, shared between every subject that inherits from them.
+     *
+     * @return The contribution cache
+     */
+    public BakeContributionCache getBakeContributions() {
+        return this.bakeContributions;
+    }
+
+    /**
+     * Get the compiled matchers used to decide which segments of subject data apply in a set of contexts.
+     *
+     * @return The segment matchers
+     */
+    public SegmentMatchers getSegmentMatchers() {
+        return this.segmentMatchers;
+    }
+
     /**
      * Get all registered subject types in the active data store.
      * The set is an immutable copy of the backend data.
@@ -302,11 +353,13 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
     }
 
     /**
-     * Get the currently active notifier. This objet has callbacks triggered on every permission check
+     * Get the currently active notifier. This object has callbacks triggered on every permission check.
+     *
+     * Checks are passed on to the recording notifier, and the debug logger if enabled, on a background thread.
      *
      * @return The active notifier
      */
-    public PermissionCheckNotifier getNotifier() {
+    public AsyncPermissionCheckNotifier getNotifier() {
         return this.notifier;
     }
 
@@ -318,6 +371,24 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
         return this.baseNotifier;
     }
 
+    /**
+     * Get hit and miss counters for the permission result memos attached to every baked subject.
+     *
+     * @return The shared memo statistics
+     */
+    public PermissionResultMemo.Statistics getPermissionMemoStatistics() {
+        return this.permissionMemoStatistics;
+    }
+
+    /**
+     * Get the metrics collected by this engine, for example permission check rates, bake times and cache hit rates.
+     *
+     * @return The engine's metrics
+     */
+    public PermissionsExMetrics getMetrics() {
+        return this.metrics;
+    }
+
     // TODO: Proper thread-safety
 
     /**
@@ -326,7 +397,7 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
      * @return true if debug mode is enabled
      */
     public boolean hasDebugMode() {
-        return this.getNotifier() instanceof DebugPermissionCheckNotifier;
+        return this.notifier.getSink() instanceof DebugPermissionCheckNotifier;
     }
 
     /**
@@ -348,15 +419,9 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
      */
     public synchronized void setDebugMode(boolean debug, Pattern filterPattern) {
         if (debug) {
-            if (this.notifier instanceof DebugPermissionCheckNotifier) {
-                this.notifier = new DebugPermissionCheckNotifier(getLogger(), ((DebugPermissionCheckNotifier) this.notifier).getDelegate(), filterPattern == null ? null : perm -> filterPattern.matcher(perm).find());
-            } else {
-                this.notifier = new DebugPermissionCheckNotifier(getLogger(), this.notifier, filterPattern == null ? null : perm -> filterPattern.matcher(perm).find());
-            }
+            this.notifier.setSink(new DebugPermissionCheckNotifier(getLogger(), this.baseNotifier, filterPattern == null ? null : perm -> filterPattern.matcher(perm).find()));
         } else {
-            if (this.notifier instanceof DebugPermissionCheckNotifier) {
-                this.notifier = ((DebugPermissionCheckNotifier) this.notifier).getDelegate();
-            }
+            this.notifier.setSink(this.baseNotifier);
         }
     }
 
@@ -371,7 +436,6 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
             PermissionsExConfiguration<PlatformConfigType> config = getState().config.reload();
             config.validate();
             initialize(config);
-            getSubjects(SUBJECTS_GROUP).cacheAll();
         } catch (IOException e) {
             throw new PEBKACException(CONFIG_ERROR_LOAD.toComponent(e.getLocalizedMessage()));
         }
@@ -420,18 +484,22 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
             } catch (Exception e) {} // TODO maybe warn?
         }
 
-        this.rankLadderCache = new RankLadderCache(this.rankLadderCache, newState.activeDataStore);
-        this.subjectTypeCache.forEach((key, val) -> val.update(newState.activeDataStore));
+        this.rankLadderCache = new RankLadderCache(this.rankLadderCache, newState.activeDataStore, metrics.getCacheCounter(PermissionsExMetrics.CACHE_RANK_LADDERS));
+        this.subjectTypeCache.forEach((key, val) -> val.update(newState.activeDataStore, newState.config.getSubjectCache(key)));
         this.contextTypes.values().forEach(ctxDef -> {
             if (ctxDef instanceof PEXContextDefinition<?>) {
                 ((PEXContextDefinition<?>) ctxDef).update(newState.config);
             }
         });
-        getSubjects(SUBJECTS_GROUP).cacheAll();
+        invalidateActiveContexts();
+        this.bakeContributions.invalidateAll();
         if (this.cachedInheritance != null) {
             this.cachedInheritance = null;
+            this.cachedInheritanceClosure = null;
             getContextInheritance(null).thenAccept(inheritance -> this.cachedInheritanceListeners.call(true, inheritance));
         }
+        // Warm only once inheritance from the old data store is cleared, so subjects aren't baked with it
+        new CacheWarmer(this, newState.config.getWarmUp()).warmAll();
 
         // Migrate over legacy subject data
         newState.activeDataStore.moveData("system", SUBJECTS_DEFAULTS, SUBJECTS_DEFAULTS, SUBJECTS_DEFAULTS).thenRun(() -> {
@@ -457,6 +525,7 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
      */
     public void close() {
         State<PlatformConfigType> state = this.state.getAndSet(null);
+        this.notifier.close();
         state.activeDataStore.close();
     }
 
@@ -555,7 +624,9 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
      */
     public CompletableFuture<ContextInheritance> getContextInheritance(Consumer<ContextInheritance> listener) {
         if (this.cachedInheritance == null) {
-            this.cachedInheritance = getState().activeDataStore.getContextInheritance(this);
+            final CompletableFuture<ContextInheritance> inheritance = getState().activeDataStore.getContextInheritance(this);
+            this.cachedInheritanceClosure = inheritance.thenApply(ContextInheritanceClosure::new);
+            this.cachedInheritance = inheritance;
         }
         if (listener != null) {
             this.cachedInheritanceListeners.addListener(true, listener);
@@ -564,6 +635,21 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
 
     }
 
+    /**
+     * Get the transitive closure of the current context inheritance data. This is recalculated whenever
+     * context inheritance changes.
+     *
+     * @return A future providing the closure of the current context inheritance
+     */
+    public CompletableFuture<ContextInheritanceClosure> getContextInheritanceClosure() {
+        CompletableFuture<ContextInheritanceClosure> ret = this.cachedInheritanceClosure;
+        if (ret == null) {
+            getContextInheritance(null);
+            ret = this.cachedInheritanceClosure;
+        }
+        return ret;
+    }
+
     /**
      * Update the context inheritance when values have been changed
      *
@@ -581,7 +667,9 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
      */
     @Override
     public void accept(ContextInheritance newData) {
+        this.cachedInheritanceClosure = CompletableFuture.completedFuture(new ContextInheritanceClosure(newData));
         this.cachedInheritance = CompletableFuture.completedFuture(newData);
+        this.bakeContributions.invalidateAll();
         this.cachedInheritanceListeners.call(true, newData);
     }
 
@@ -610,10 +698,31 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
             ((PEXContextDefinition<T>) contextDefinition).update(getConfig());
         }
        ContextDefinition<?> possibleOut =  this.contextTypes.putIfAbsent(contextDefinition.getName(), contextDefinition);
+        final boolean registered;
         if (possibleOut instanceof FallbackContextDefinition) {
-            return this.contextTypes.replace(contextDefinition.getName(), possibleOut, contextDefinition);
+            registered = this.contextTypes.replace(contextDefinition.getName(), possibleOut, contextDefinition);
         } else {
-            return possibleOut == null;
+            registered = possibleOut == null;
+        }
+        if (registered) {
+            this.segmentMatchers.invalidateAll();
+            this.bakeContributions.invalidateAll(); // contributions depend on how segment contexts were matched
+            invalidateActiveContexts();
+        }
+        return registered;
+    }
+
+    /**
+     * Discard the active contexts of every loaded subject, so they are calculated again on next access.
+     *
+     * This should be called when a change affects the current values of a context definition for many subjects
+     * at once. Changes that only affect a single subject should use {@link CalculatedSubject#invalidateActiveContexts()}.
+     */
+    public void invalidateActiveContexts() {
+        for (SubjectType type : this.subjectTypeCache.values()) {
+            for (CalculatedSubject subject : type.getActiveSubjects()) {
+                subject.invalidateActiveContexts();
+            }
         }
     }
 
@@ -656,6 +765,7 @@ public class PermissionsEx<PlatformConfigType> implements ImplementationInterfac
             ret = this.contextTypes.putIfAbsent(definitionKey, fallback);
             if (ret == null) {
                 ret = fallback;
+                this.segmentMatchers.invalidateAll();
             }
         }
         return ret;
@@ -26,6 +26,7 @@ import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
 import ca.stellardrift.permissionsex.rank.RankLadder;
 import ca.stellardrift.permissionsex.util.ThrowingSupplier;
 import ca.stellardrift.permissionsex.util.Util;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
@@ -33,17 +34,23 @@ import com.google.common.util.concurrent.Futures;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.objectmapping.ObjectMapper;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Base implementation of a data store that provides common points for other data stores to hook into.
  */
 public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implements DataStore {
+    private static final int GET_ALL_BATCH_SIZE = 128;
     private PermissionsEx<?> manager;
     private final Factory<T> factory;
     private final String identifier;
@@ -81,7 +88,7 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
         Objects.requireNonNull(type, "type");
         Objects.requireNonNull(identifier, "identifier");
 
-        CompletableFuture<ImmutableSubjectData> ret = getDataInternal(type, identifier);
+        CompletableFuture<ImmutableSubjectData> ret = timed("get-data", () -> getDataInternal(type, identifier));
         ret.thenRun(() -> {
             if (listener != null) {
                 listeners.addListener(Maps.immutableEntry(type, identifier), listener);
@@ -90,13 +97,32 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
         return ret;
     }
 
+    @Override
+    public final CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatch(String type, Collection<String> identifiers, @Nullable Function<String, Consumer<ImmutableSubjectData>> listeners) {
+        Objects.requireNonNull(type, "type");
+        Objects.requireNonNull(identifiers, "identifiers");
+        if (identifiers.isEmpty()) {
+            return CompletableFuture.completedFuture(ImmutableMap.of());
+        }
+
+        CompletableFuture<Map<String, ImmutableSubjectData>> ret = timed("get-data-batch", () -> getDataBatchInternal(type, ImmutableSet.copyOf(identifiers)));
+        ret.thenRun(() -> {
+            if (listeners != null) {
+                for (String identifier : identifiers) {
+                    this.listeners.addListener(Maps.immutableEntry(type, identifier), listeners.apply(identifier));
+                }
+            }
+        });
+        return ret;
+    }
+
     @Override
     public final CompletableFuture<ImmutableSubjectData> setData(String type, String identifier, ImmutableSubjectData data) {
         Objects.requireNonNull(type, "type");
         Objects.requireNonNull(identifier, "identifier");
 
         final Map.Entry<String, String> lookupKey = Maps.immutableEntry(type, identifier);
-        return setDataInternal(type, identifier, data)
+        return timed("set-data", () -> setDataInternal(type, identifier, data))
                 .thenApply(newData -> {
                     if (newData != null) {
                         listeners.call(lookupKey, newData);
@@ -105,6 +131,19 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
                 });
     }
 
+    /**
+     * Record how long an operation takes to complete in the engine's metrics.
+     *
+     * @param operation The name of the operation
+     * @param action A function starting the operation
+     * @param <T> The result type
+     * @return The operation's result
+     */
+    private <T> CompletableFuture<T> timed(String operation, Supplier<CompletableFuture<T>> action) {
+        final PermissionsEx<?> manager = this.manager;
+        return manager == null ? action.get() : manager.getMetrics().timeDataStoreOperation(operation, action);
+    }
+
     protected <T> CompletableFuture<T> runAsync(ThrowingSupplier<T, ?> supplier) {
         return Util.asyncFailableFuture(supplier, getManager().getAsyncExecutor());
     }
@@ -129,24 +168,45 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
 
     protected abstract CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier);
 
+    /**
+     * Load the data of several subjects. The default implementation loads each subject individually.
+     *
+     * @param type The subject type
+     * @param identifiers The distinct identifiers to load
+     * @return A future completing with data for every identifier
+     */
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatchInternal(String type, Set<String> identifiers) {
+        final Map<String, CompletableFuture<ImmutableSubjectData>> futures = new HashMap<>();
+        for (String identifier : identifiers) {
+            futures.put(identifier, getDataInternal(type, identifier));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).thenApply(ignore -> {
+            final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+            futures.forEach((id, future) -> ret.put(id, future.join()));
+            return ret;
+        });
+    }
+
     protected abstract CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data);
 
     @Override
     public final Iterable<Map.Entry<String, ImmutableSubjectData>> getAll(final String type) {
         Objects.requireNonNull(type, "type");
-        return Iterables.transform(getAllIdentifiers(type),
-                input -> Maps.immutableEntry(input, Futures.getUnchecked(getData(type, input, null))));
+        return Iterables.concat(Iterables.transform(Iterables.partition(getAllIdentifiers(type), GET_ALL_BATCH_SIZE), batch -> {
+            final Map<String, ImmutableSubjectData> data = Futures.getUnchecked(getDataBatch(type, batch, null));
+            return Iterables.transform(batch, input -> Maps.immutableEntry(input, data.get(input)));
+        }));
     }
 
     @Override
     public final <T> CompletableFuture<T> performBulkOperation(final Function<DataStore, T> function) {
-        return Util.asyncFailableFuture(() -> performBulkOperationSync(function), getManager().getAsyncExecutor());
+        return timed("bulk-operation", () -> Util.asyncFailableFuture(() -> performBulkOperationSync(function), getManager().getAsyncExecutor()));
     }
 
     @Override
     public final CompletableFuture<RankLadder> getRankLadder(String ladderName, Consumer<RankLadder> listener) {
         Objects.requireNonNull(ladderName, "ladderName");
-        CompletableFuture<RankLadder> ladder = getRankLadderInternal(ladderName);
+        CompletableFuture<RankLadder> ladder = timed("get-rank-ladder", () -> getRankLadderInternal(ladderName));
         if (listener != null) {
             rankLadderListeners.addListener(ladderName.toLowerCase(), listener);
         }
@@ -155,7 +215,7 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
 
     @Override
     public final CompletableFuture<RankLadder> setRankLadder(final String identifier, RankLadder ladder) {
-        return setRankLadderInternal(identifier, ladder)
+        return timed("set-rank-ladder", () -> setRankLadderInternal(identifier, ladder))
                 .thenApply(newData -> {
                     if (newData != null) {
                         rankLadderListeners.call(identifier, newData);
@@ -170,7 +230,7 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
 
     @Override
     public final CompletableFuture<ContextInheritance> getContextInheritance(Consumer<ContextInheritance> listener) {
-        CompletableFuture<ContextInheritance> inheritance = getContextInheritanceInternal();
+        CompletableFuture<ContextInheritance> inheritance = timed("get-context-inheritance", this::getContextInheritanceInternal);
         if (listener != null) {
             contextInheritanceListeners.addListener(true, listener);
         }
@@ -180,7 +240,7 @@ public abstract class AbstractDataStore<T extends AbstractDataStore<T>> implemen
 
     @Override
     public final CompletableFuture<ContextInheritance> setContextInheritance(ContextInheritance contextInheritance) {
-        return setContextInheritanceInternal(contextInheritance)
+        return timed("set-context-inheritance", () -> setContextInheritanceInternal(contextInheritance))
                 .thenApply(newData -> {
                     if (newData != null) {
                         contextInheritanceListeners.call(true, newData);
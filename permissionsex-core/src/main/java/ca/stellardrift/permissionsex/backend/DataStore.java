@@ -27,6 +27,8 @@ import ca.stellardrift.permissionsex.util.Util;
 import ninja.leaping.configurate.ConfigurationNode;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -69,6 +71,40 @@ public interface DataStore {
      */
     CompletableFuture<ImmutableSubjectData> getData(String type, String identifier, @Nullable Consumer<ImmutableSubjectData> listener);
 
+    /**
+     * Loads the data of several subjects of one type at once. Implementations of this method do not need to perform any caching.
+     *
+     * @param type The type of subject to get
+     * @param identifiers The identifiers of the subjects to get
+     * @return A map from every requested identifier to its subject data
+     */
+    default CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatch(String type, Collection<String> identifiers) {
+        return getDataBatch(type, identifiers, null);
+    }
+
+    /**
+     * Loads the data of several subjects of one type at once. Implementations of this method do not need to perform any caching.
+     *
+     * <p>The default implementation requests each subject individually. Data stores that can fetch several
+     * subjects more cheaply than one at a time should override this method.</p>
+     *
+     * @param type The type of subject to get
+     * @param identifiers The identifiers of the subjects to get
+     * @param listeners A function providing the update listener for each subject, or null for no listeners
+     * @return A map from every requested identifier to its subject data
+     */
+    default CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatch(String type, Collection<String> identifiers, @Nullable Function<String, Consumer<ImmutableSubjectData>> listeners) {
+        final Map<String, CompletableFuture<ImmutableSubjectData>> futures = new HashMap<>();
+        for (String identifier : identifiers) {
+            futures.computeIfAbsent(identifier, id -> getData(type, id, listeners == null ? null : listeners.apply(id)));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).thenApply(ignore -> {
+            final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+            futures.forEach((id, future) -> ret.put(id, future.join()));
+            return ret;
+        });
+    }
+
     /**
      * Sets the data at the specified type and identifier.
      *
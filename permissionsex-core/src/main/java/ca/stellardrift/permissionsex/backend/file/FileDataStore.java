@@ -49,6 +49,7 @@ import ninja.leaping.configurate.yaml.YAMLConfigurationLoader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -245,6 +246,19 @@ public final class FileDataStore extends AbstractDataStore<FileDataStore> {
         }
     }
 
+    @Override
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatchInternal(String type, Set<String> identifiers) {
+        final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+        try {
+            for (String identifier : identifiers) {
+                ret.put(identifier, getDataSync(type, identifier));
+            }
+        } catch (PermissionsLoadingException e) {
+            return Util.failedFuture(e);
+        }
+        return completedFuture(ret);
+    }
+
     private ImmutableSubjectData getDataSync(String type, String identifier) throws PermissionsLoadingException {
         try {
             return FileSubjectData.fromNode(getSubjectsNode().getNode(type, identifier));
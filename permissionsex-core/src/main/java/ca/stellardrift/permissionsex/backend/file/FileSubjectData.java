@@ -19,15 +19,14 @@ package ca.stellardrift.permissionsex.backend.file;
 
 import ca.stellardrift.permissionsex.backend.Messages;
 import ca.stellardrift.permissionsex.backend.memory.MemorySubjectData;
+import ca.stellardrift.permissionsex.context.ContextSet;
 import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -43,7 +42,7 @@ public final class FileSubjectData extends MemorySubjectData {
                     throw new PermissionsLoadingException(Messages.FILE_LOAD_CONTEXT.toComponent());
                 }
                 Set<ContextValue<?>> contexts = contextsFrom(child);
-                DataEntry value = MAPPER.bindToNew().populate(child);
+                DataEntry value = MAPPER.bindToNew().populate(child).compact();
                 map.put(contexts, value);
             }
         }
@@ -64,10 +63,10 @@ public final class FileSubjectData extends MemorySubjectData {
     }
 
     private static Set<ContextValue<?>> contextsFrom(ConfigurationNode node) {
-        Set<ContextValue<?>> contexts = Collections.emptySet();
+        Set<ContextValue<?>> contexts = ContextSet.empty();
         ConfigurationNode contextsNode = node.getNode(KEY_CONTEXTS);
         if (contextsNode.hasMapChildren()) {
-            contexts = ImmutableSet.copyOf(Collections2.transform(contextsNode.getChildrenMap().entrySet(), ent -> {
+            contexts = ContextSet.of(Collections2.transform(contextsNode.getChildrenMap().entrySet(), ent -> {
                     return new ContextValue<>(ent.getKey().toString(), String.valueOf(ent.getValue().getValue()));
             }));
         }
@@ -0,0 +1,262 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.memory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map from strings, stored as parallel arrays rather than as a hash table of entry objects.
+ *
+ * Subject data holds the same permission and option names across thousands of subjects, so keys are interned in a
+ * pool shared by every map. Maps of up to {@value #INDEX_THRESHOLD} entries are searched in place, and larger maps add
+ * an open-addressed index of array positions. Iteration follows the order entries were provided in.
+ *
+ * @param <V> The value type
+ */
+abstract class CompactMap<V> extends AbstractMap<String, V> {
+    private static final int INDEX_THRESHOLD = 8;
+    private static final Interner<String> POOL = Interners.newWeakInterner();
+
+    private final String[] keys;
+    private final int[] index; // null when small enough to scan
+
+    private CompactMap(String[] keys) {
+        this.keys = keys;
+        this.index = keys.length > INDEX_THRESHOLD ? buildIndex(keys) : null;
+    }
+
+    /**
+     * Get the pooled instance of a string used as a key or value in subject data
+     *
+     * @param value The string
+     * @return An equal string, shared with every other user of the pool
+     */
+    static String intern(String value) {
+        return POOL.intern(value);
+    }
+
+    /**
+     * Create a compact copy of a permissions map.
+     *
+     * @param values The permissions, or null
+     * @return A compact map, or null if {@code values} was null
+     */
+    static @Nullable Map<String, Integer> permissions(@Nullable Map<String, Integer> values) {
+        if (values == null || values instanceof IntValued) {
+            return values;
+        }
+        final String[] keys = new String[values.size()];
+        final int[] ints = new int[keys.length];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                keys[i] = intern(entry.getKey());
+                ints[i++] = entry.getValue();
+            }
+        }
+        return i == keys.length ? new IntValued(keys, ints) : new IntValued(copyOf(keys, i), Arrays.copyOf(ints, i));
+    }
+
+    /**
+     * Create a compact copy of an options map. Option values are pooled as well, since values like rank names are
+     * shared by many subjects.
+     *
+     * @param values The options, or null
+     * @return A compact map, or null if {@code values} was null
+     */
+    static @Nullable Map<String, String> options(@Nullable Map<String, String> values) {
+        if (values == null || values instanceof StringValued) {
+            return values;
+        }
+        final String[] keys = new String[values.size()];
+        final String[] strings = new String[keys.length];
+        int i = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                keys[i] = intern(entry.getKey());
+                strings[i++] = intern(entry.getValue());
+            }
+        }
+        return i == keys.length ? new StringValued(keys, strings) : new StringValued(copyOf(keys, i), copyOf(strings, i));
+    }
+
+    /**
+     * Create an immutable copy of a list of parents, with each parent pooled.
+     *
+     * @param parents The parents, or null
+     * @return An immutable list, or null if {@code parents} was null
+     */
+    static @Nullable List<String> parents(@Nullable List<String> parents) {
+        if (parents == null) {
+            return null;
+        }
+        final ImmutableList.Builder<String> ret = ImmutableList.builder();
+        for (String parent : parents) {
+            if (parent != null) {
+                ret.add(intern(parent));
+            }
+        }
+        return ret.build();
+    }
+
+    private static String[] copyOf(String[] array, int length) {
+        return Arrays.copyOf(array, length);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int[] buildIndex(String[] keys) {
+        final int[] index = new int[Integer.highestOneBit((keys.length << 1) - 1) << 1]; // at most half full
+        final int mask = index.length - 1;
+        for (int i = 0; i < keys.length; ++i) {
+            int slot = spread(keys[i].hashCode()) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = i + 1; // 0 marks an empty slot
+        }
+        return index;
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        final int[] index = this.index;
+        if (index == null) {
+            for (int i = 0; i < this.keys.length; ++i) {
+                if (this.keys[i] == key || this.keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        final int mask = index.length - 1;
+        for (int slot = spread(key.hashCode()) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            final int i = index[slot] - 1;
+            if (this.keys[i] == key || this.keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    abstract V valueAt(int i);
+
+    @Override
+    public int size() {
+        return this.keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.keys.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        for (int i = 0; i < this.keys.length; ++i) {
+            action.accept(this.keys[i], valueAt(i));
+        }
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new Iterator<Entry<String, V>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final int i = this.next++;
+                        return new SimpleImmutableEntry<>(keys[i], valueAt(i));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    static final class IntValued extends CompactMap<Integer> {
+        private final int[] values;
+
+        IntValued(String[] keys, int[] values) {
+            super(keys);
+            this.values = values;
+        }
+
+        @Override
+        Integer valueAt(int i) {
+            return this.values[i];
+        }
+    }
+
+    static final class StringValued extends CompactMap<String> {
+        private final String[] values;
+
+        StringValued(String[] keys, String[] values) {
+            super(keys);
+            this.values = values;
+        }
+
+        @Override
+        String valueAt(int i) {
+            return this.values[i];
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.google.common.collect.Maps;
 import ninja.leaping.configurate.objectmapping.Setting;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -67,6 +68,19 @@ public class MemoryDataStore extends AbstractDataStore<MemoryDataStore> {
 
     @Override
     public CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
+        return completedFuture(getDataSync(type, identifier));
+    }
+
+    @Override
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatchInternal(String type, Set<String> identifiers) {
+        final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+        for (String identifier : identifiers) {
+            ret.put(identifier, getDataSync(type, identifier));
+        }
+        return completedFuture(ret);
+    }
+
+    private ImmutableSubjectData getDataSync(String type, String identifier) {
         final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
         ImmutableSubjectData ret = data.get(key);
         if (ret == null) {
@@ -78,7 +92,7 @@ public class MemoryDataStore extends AbstractDataStore<MemoryDataStore> {
                 }
             }
         }
-        return completedFuture(ret);
+        return ret;
     }
 
     @Override
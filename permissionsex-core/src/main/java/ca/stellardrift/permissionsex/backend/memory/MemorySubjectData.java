@@ -17,6 +17,7 @@
 
 package ca.stellardrift.permissionsex.backend.memory;
 
+import ca.stellardrift.permissionsex.context.ContextSet;
 import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.util.Util;
@@ -50,15 +51,27 @@ public class MemorySubjectData implements ImmutableSubjectData {
         @Nullable @Setting("permissions-default") private Integer defaultValue;
 
         private DataEntry(@Nullable Map<String, Integer> permissions, @Nullable Map<String, String> options, @Nullable List<String> parents, @Nullable Integer defaultValue) {
-            this.permissions = permissions;
-            this.options = options;
-            this.parents = parents;
+            this.permissions = CompactMap.permissions(permissions);
+            this.options = CompactMap.options(options);
+            this.parents = CompactMap.parents(parents);
             this.defaultValue = defaultValue;
         }
 
         private DataEntry() { // Objectmapper constructor
         }
 
+        /**
+         * Replace the mutable collections populated by the object mapper with compact, interned copies.
+         *
+         * @return this entry
+         */
+        public DataEntry compact() {
+            this.permissions = CompactMap.permissions(this.permissions);
+            this.options = CompactMap.options(this.options);
+            this.parents = CompactMap.parents(this.parents);
+            return this;
+        }
+
         public DataEntry withOption(String key, String value) {
             return new DataEntry(permissions, updateImmutable(options, key, value), parents, defaultValue);
         }
@@ -158,7 +171,7 @@ public class MemorySubjectData implements ImmutableSubjectData {
         if (val.isEmpty()) {
             val = null;
         }
-        return newData(updateImmutable(contexts, immutSet(key), val));
+        return newData(updateImmutable(contexts, ContextSet.of(key), val));
     }
 
     protected MemorySubjectData newData(Map<Set<ContextValue<?>>, DataEntry> contexts) {
@@ -183,10 +196,6 @@ public class MemorySubjectData implements ImmutableSubjectData {
         return res;
     }
 
-    private <E> ImmutableSet<E> immutSet(Set<E> set) {
-        return ImmutableSet.copyOf(set);
-    }
-
     @Override
     public Map<Set<ContextValue<?>>, Map<String, String>> getAllOptions() {
         return Maps.filterValues(Maps.transformValues(contexts,
@@ -227,8 +236,8 @@ public class MemorySubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<ContextValue<?>>, DataEntry> newValue = Maps.transformValues(this.contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutOptions());
+        Map<Set<ContextValue<?>>, DataEntry> newValue = ImmutableMap.copyOf(Maps.transformValues(this.contexts,
+                dataEntry -> dataEntry == null ? null : dataEntry.withoutOptions()));
         return newData(newValue);
     }
 
@@ -264,8 +273,8 @@ public class MemorySubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<ContextValue<?>>, DataEntry> newValue = Maps.transformValues(this.contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutPermissions());
+        Map<Set<ContextValue<?>>, DataEntry> newValue = ImmutableMap.copyOf(Maps.transformValues(this.contexts,
+                dataEntry -> dataEntry == null ? null : dataEntry.withoutPermissions()));
         return newData(newValue);
     }
 
@@ -326,8 +335,8 @@ public class MemorySubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<ContextValue<?>>, DataEntry> newValue = Maps.transformValues(this.contexts,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutParents());
+        Map<Set<ContextValue<?>>, DataEntry> newValue = ImmutableMap.copyOf(Maps.transformValues(this.contexts,
+                dataEntry -> dataEntry == null ? null : dataEntry.withoutParents()));
         return newData(newValue);
     }
 
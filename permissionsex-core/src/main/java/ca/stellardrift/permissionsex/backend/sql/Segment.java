@@ -20,8 +20,8 @@ package ca.stellardrift.permissionsex.backend.sql;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import ca.stellardrift.permissionsex.context.ContextSet;
 import ca.stellardrift.permissionsex.context.ContextValue;
-import ca.stellardrift.permissionsex.util.ThrowingBiConsumer;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -31,7 +31,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static ca.stellardrift.permissionsex.util.Util.appendImmutable;
 import static ca.stellardrift.permissionsex.util.Util.updateImmutable;
 
 class Segment {
@@ -41,16 +40,20 @@ class Segment {
     private final Map<String, String> options;
     private final List<SubjectRef> parents;
     private final Integer permissionDefault;
-    private final AtomicReference<ImmutableList<ThrowingBiConsumer<SqlDao, Segment, SQLException>>> updatesToPerform = new AtomicReference<>();
+    /**
+     * The state this segment was derived from, or null if there are no changes to write. Each state records only its
+     * immediate predecessor, so writing every state in order applies each change exactly once.
+     */
+    private final AtomicReference<Segment> persisted = new AtomicReference<>();
 
-    Segment(int id, Set<ContextValue<?>> contexts, Map<String, Integer> permissions, Map<String, String> options, List<SubjectRef> parents, Integer permissionDefault, ImmutableList<ThrowingBiConsumer<SqlDao, Segment, SQLException>> updates) {
+    Segment(int id, Set<ContextValue<?>> contexts, Map<String, Integer> permissions, Map<String, String> options, List<SubjectRef> parents, Integer permissionDefault, Segment persisted) {
         this.id = id;
-        this.contexts = ImmutableSet.copyOf(contexts);
+        this.contexts = ContextSet.of(contexts);
         this.permissions = permissions;
         this.options = options;
         this.parents = parents;
         this.permissionDefault = permissionDefault;
-        this.updatesToPerform.set(updates);
+        this.persisted.set(persisted);
     }
 
     static Segment empty(int id) {
@@ -61,8 +64,8 @@ class Segment {
         return new Segment(id, contexts, ImmutableMap.of(), ImmutableMap.of(), ImmutableList.of(), null, null);
     }
 
-    private Segment newWithUpdate(Map<String, Integer> permissions, Map<String, String> options, List<SubjectRef> parents, Integer permissionDefault, ThrowingBiConsumer<SqlDao, Segment, SQLException> updateFunc) {
-        return new Segment(this.id, this.contexts, permissions, options, parents, permissionDefault, appendImmutable(this.updatesToPerform.get(), updateFunc));
+    private Segment newWithUpdate(Map<String, Integer> permissions, Map<String, String> options, List<SubjectRef> parents, Integer permissionDefault) {
+        return new Segment(this.id, this.contexts, permissions, options, parents, permissionDefault, this);
     }
 
     static Segment unallocated() {
@@ -102,9 +105,7 @@ class Segment {
 
 
     public Segment withOption(String key, String value) {
-        return newWithUpdate(this.permissions, updateImmutable(this.options, key, value), this.parents, this.permissionDefault, (dao, seg) -> {
-            dao.setOption(seg, key, value);
-        });
+        return newWithUpdate(this.permissions, updateImmutable(this.options, key, value), this.parents, this.permissionDefault);
 
     }
 
@@ -115,24 +116,20 @@ class Segment {
 
         Map<String, String> newOptions = new HashMap<>(options);
         newOptions.remove(key);
-        return newWithUpdate(this.permissions, newOptions, this.parents, this.permissionDefault, (dao, seg) -> {
-            dao.clearOption(seg, key);
-        });
+        return newWithUpdate(this.permissions, newOptions, this.parents, this.permissionDefault);
     }
 
     public Segment withOptions(Map<String, String> values) {
         Map<String, String> immValues = values == null ? null : ImmutableMap.copyOf(values);
-        return newWithUpdate(permissions, immValues, parents, permissionDefault, (dao, seg) -> {
-            dao.setOptions(seg, immValues);
-        });
+        return newWithUpdate(permissions, immValues, parents, permissionDefault);
     }
 
     public Segment withoutOptions() {
-        return newWithUpdate(permissions, null, parents, permissionDefault, (dao, seg) -> dao.setOptions(seg, null));
+        return newWithUpdate(permissions, null, parents, permissionDefault);
     }
 
     public Segment withPermission(String permission, int value) {
-        return newWithUpdate(updateImmutable(permissions, permission, value), options, parents, permissionDefault, (dao, seg) -> dao.setPermission(seg, permission, value));
+        return newWithUpdate(updateImmutable(permissions, permission, value), options, parents, permissionDefault);
 
     }
 
@@ -143,20 +140,20 @@ class Segment {
 
         Map<String, Integer> newPermissions = new HashMap<>(permissions);
         newPermissions.remove(permission);
-        return newWithUpdate(newPermissions, options, parents, permissionDefault, (dao, seg) -> dao.clearPermission(seg, permission));
+        return newWithUpdate(newPermissions, options, parents, permissionDefault);
     }
 
     public Segment withPermissions(Map<String, Integer> values) {
         Map<String, Integer> immValues = values == null ? null : ImmutableMap.copyOf(values);
-        return newWithUpdate(immValues, options, parents, permissionDefault, (dao, seg) -> dao.setPermissions(seg, immValues));
+        return newWithUpdate(immValues, options, parents, permissionDefault);
     }
 
     public Segment withoutPermissions() {
-        return newWithUpdate(null, options, parents, permissionDefault, (dao, seg) -> dao.setPermissions(seg, null));
+        return newWithUpdate(null, options, parents, permissionDefault);
     }
 
     public Segment withDefaultValue(Integer permissionDefault) {
-        return newWithUpdate(permissions, options, parents, permissionDefault, (dao, seg) -> dao.setDefaultValue(seg, permissionDefault));
+        return newWithUpdate(permissions, options, parents, permissionDefault);
     }
 
     public Segment withAddedParent(SubjectRef parent) {
@@ -165,7 +162,7 @@ class Segment {
         if (this.parents != null) {
             parents.addAll(this.parents);
         }
-        return newWithUpdate(permissions, options, parents.build(), permissionDefault, (dao, seg) -> dao.addParent(seg, parent));
+        return newWithUpdate(permissions, options, parents.build(), permissionDefault);
     }
 
     public Segment withRemovedParent(SubjectRef parent) {
@@ -178,28 +175,38 @@ class Segment {
             return this;
         }
 
-        return newWithUpdate(permissions, options, newParents, permissionDefault, (dao, seg) -> dao.removeParent(seg, parent));
+        return newWithUpdate(permissions, options, newParents, permissionDefault);
     }
 
     public Segment withParents(List<SubjectRef> parents) {
         List<SubjectRef> immValues = parents == null ? null : ImmutableList.copyOf(parents);
-        return newWithUpdate(permissions, options, immValues, permissionDefault, (dao, seg) -> dao.setParents(seg, immValues));
+        return newWithUpdate(permissions, options, immValues, permissionDefault);
     }
 
     public Segment withoutParents() {
-        return newWithUpdate(permissions, options, null, permissionDefault, (dao, seg) -> dao.setParents(seg, null));
+        return newWithUpdate(permissions, options, null, permissionDefault);
     }
 
-    List<ThrowingBiConsumer<SqlDao, Segment, SQLException>> popUpdates() {
-        return this.updatesToPerform.getAndSet(null);
+    /**
+     * Take the state this segment was derived from, marking its changes as written.
+     *
+     * @return The previous state, or null if there are no changes to write
+     */
+    Segment popPersisted() {
+        return this.persisted.getAndSet(null);
     }
 
+    /**
+     * Write the change that produced this segment from the state it was derived from. That state must already be
+     * stored, so the updates of a chain of segments have to run in the order the segments were created.
+     *
+     * @param dao The dao to write with
+     * @throws SQLException if unable to write to the database
+     */
     void doUpdates(SqlDao dao) throws SQLException {
-        List<ThrowingBiConsumer<SqlDao, Segment, SQLException>> updateFuncs = popUpdates();
-        if (updateFuncs != null) {
-            for (ThrowingBiConsumer<SqlDao, Segment, SQLException> consumer : updateFuncs) {
-                consumer.accept(dao, this);
-            }
+        final Segment persisted = popPersisted();
+        if (persisted != null) {
+            dao.updateSegment(persisted, this);
         }
     }
 
@@ -0,0 +1,171 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.sql;
+
+import ca.stellardrift.permissionsex.backend.Messages;
+import ca.stellardrift.permissionsex.logging.FormattedLogger;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows the change log shared by every server using a database, reloading subjects, rank ladders and context
+ * inheritance modified by other servers.
+ *
+ * <p>Each poll is a single query on the change log's primary key. Ids are allocated when a change is inserted, but
+ * transactions may commit out of order, so entries up to {@link #LOOKBACK} ids behind the newest one seen are
+ * queried again, and any that were not seen before are still handled.</p>
+ */
+class SqlChangeTracker {
+    private static final long LOOKBACK = 256;
+    private static final long RETENTION = TimeUnit.HOURS.toMillis(1);
+    private static final long PRUNE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private final SqlDataStore store;
+    private final FormattedLogger logger;
+    private final String origin = UUID.randomUUID().toString();
+    private final ScheduledExecutorService executor;
+    private final Set<Long> seen = new HashSet<>();
+    private long highestSeen;
+    private long lastPrune;
+
+    SqlChangeTracker(SqlDataStore store, FormattedLogger logger, long interval) throws SQLException {
+        this.store = store;
+        this.logger = logger;
+        try (SqlDao dao = store.getDao()) {
+            // Mark entries within the lookback window as seen, so the first poll does not reload them
+            long highest = dao.getLatestChangeId();
+            for (SubjectChange change : dao.getChangesSince(Math.max(0, highest - LOOKBACK))) {
+                this.seen.add(change.getId());
+                highest = Math.max(highest, change.getId());
+            }
+            this.highestSeen = highest;
+        }
+        this.lastPrune = System.currentTimeMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread ret = new Thread(r, "PermissionsEx SQL change tracker (" + store.getName() + ")");
+            ret.setDaemon(true);
+            return ret;
+        });
+        this.executor.scheduleWithFixedDelay(() -> {
+            try {
+                pollNow().whenComplete((ignore, err) -> {
+                    if (err != null) {
+                        logError(err);
+                    }
+                });
+            } catch (SQLException | RuntimeException e) {
+                logError(e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void logError(Throwable err) {
+        if (err instanceof CompletionException && err.getCause() != null) {
+            err = err.getCause();
+        }
+        this.logger.warn(Messages.SQL_ERROR_POLLING_CHANGES.toComponent(), err);
+    }
+
+    /**
+     * Get the identifier recorded with changes made through this data store.
+     *
+     * @return The origin identifier
+     */
+    String getOrigin() {
+        return this.origin;
+    }
+
+    /**
+     * Check for changes immediately.
+     *
+     * @return A future completing once everything changed elsewhere has been reloaded
+     */
+    CompletableFuture<Void> poll() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return pollNow();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, this.executor).thenCompose(x -> x);
+    }
+
+    private CompletableFuture<Void> pollNow() throws SQLException {
+        final Map<String, Set<String>> changed = new HashMap<>();
+        final Set<String> changedLadders = new HashSet<>();
+        boolean inheritanceChanged = false;
+        try (SqlDao dao = this.store.getDao()) {
+            long highest = this.highestSeen;
+            for (SubjectChange change : dao.getChangesSince(Math.max(0, this.highestSeen - LOOKBACK))) {
+                if (!this.seen.add(change.getId())) {
+                    continue;
+                }
+                highest = Math.max(highest, change.getId());
+                if (this.origin.equals(change.getOrigin())) {
+                    continue;
+                }
+                switch (change.getKind()) {
+                    case SUBJECT:
+                        changed.computeIfAbsent(change.getType(), k -> new HashSet<>()).add(change.getIdentifier());
+                        break;
+                    case RANK_LADDER:
+                        changedLadders.add(change.getIdentifier());
+                        break;
+                    case CONTEXT_INHERITANCE:
+                        inheritanceChanged = true;
+                        break;
+                }
+            }
+            this.highestSeen = highest;
+            final long oldest = highest - LOOKBACK;
+            this.seen.removeIf(id -> id <= oldest);
+
+            final long now = System.currentTimeMillis();
+            if (now - this.lastPrune >= PRUNE_INTERVAL) {
+                dao.deleteChangesBefore(now - RETENTION);
+                this.lastPrune = now;
+            }
+        }
+
+        final CompletableFuture<?>[] reloads = new CompletableFuture<?>[changed.size() + 2];
+        int i = 0;
+        for (Map.Entry<String, Set<String>> type : changed.entrySet()) {
+            reloads[i++] = this.store.reloadSubjects(type.getKey(), type.getValue());
+        }
+        reloads[i++] = this.store.reloadRankLadders(changedLadders);
+        reloads[i] = inheritanceChanged ? this.store.reloadContextInheritance() : CompletableFuture.completedFuture(null);
+        return CompletableFuture.allOf(reloads);
+    }
+
+    /**
+     * Stop checking for changes.
+     */
+    void close() {
+        this.executor.shutdown();
+    }
+}
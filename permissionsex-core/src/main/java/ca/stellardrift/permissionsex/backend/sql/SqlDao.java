@@ -22,7 +22,11 @@ import ca.stellardrift.permissionsex.backend.sql.dao.LegacyMigration;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.rank.RankLadder;
 import ca.stellardrift.permissionsex.util.ThrowingSupplier;
@@ -38,15 +42,29 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Abstraction to communicate with the SQL database. Instances are not thread-safe -- it's best to create a new one for each operation on a single thread
  */
 public abstract class SqlDao implements AutoCloseable {
+    /**
+     * The largest number of values sent in a single {@code IN} list. Larger sets are split across several queries.
+     */
+    public static final int MAX_IN_LIST_SIZE = 128;
+    private static final int[] IN_LIST_SIZES = {1, 8, 32, MAX_IN_LIST_SIZE};
+    private static final ConcurrentMap<String, String[]> IN_LIST_QUERIES = new ConcurrentHashMap<>();
     private final Connection conn;
     private final SqlDataStore ds;
     int holdOpen, transactionLevel;
@@ -88,24 +106,29 @@ public abstract class SqlDao implements AutoCloseable {
         return "INSERT INTO {}subjects (type, identifier) VALUES (?, ?)";
     }
 
-    protected String getSelectContextsSegmentQuery() {
-        return "SELECT `key`, `value` FROM {}contexts WHERE segment=?";
+    protected String getSelectSubjectRefsTypeNamesQuery() {
+        return "SELECT id, identifier FROM {}subjects WHERE type=? AND identifier IN (?)";
+    }
+
+    protected String getSelectContextsSubjectQuery() {
+        return "SELECT c.segment, c.`key`, c.`value` FROM {}contexts AS c INNER JOIN {}segments AS s ON c.segment=s.id WHERE s.subject IN (?)";
     }
 
     protected String getSelectSegmentsSubjectQuery() {
-        return "SELECT id, perm_default FROM {}segments WHERE subject=?";
+        return "SELECT id, subject, perm_default FROM {}segments WHERE subject IN (?)";
     }
 
-    protected String getSelectPermissionsSegmentQuery() {
-        return "SELECT `key`, `value` FROM {}permissions WHERE segment=?";
+    protected String getSelectPermissionsSubjectQuery() {
+        return "SELECT p.segment, p.`key`, p.`value` FROM {}permissions AS p INNER JOIN {}segments AS s ON p.segment=s.id WHERE s.subject IN (?)";
     }
 
-    protected String getSelectOptionsSegmentQuery() {
-        return "SELECT `key`, `value` FROM {}options WHERE segment=?";
+    protected String getSelectOptionsSubjectQuery() {
+        return "SELECT o.segment, o.`key`, o.`value` FROM {}options AS o INNER JOIN {}segments AS s ON o.segment=s.id WHERE s.subject IN (?)";
     }
 
-    protected String getSelectInheritanceSegmentQuery() {
-        return "SELECT * FROM {}inheritance LEFT JOIN ({}subjects) on ({}inheritance.parent={}subjects.id) WHERE segment=?";
+    protected String getSelectInheritanceSubjectQuery() {
+        return "SELECT i.segment, p.id, p.type, p.identifier FROM {}inheritance AS i INNER JOIN {}segments AS s ON i.segment=s.id"
+                + " INNER JOIN {}subjects AS p ON i.parent=p.id WHERE s.subject IN (?)";
     }
 
     protected String getInsertSegmentQuery() {
@@ -212,6 +235,27 @@ public abstract class SqlDao implements AutoCloseable {
         return "SELECT DISTINCT `key` FROM {}contexts";
     }
 
+    protected String getCreateChangeLogTableQuery() {
+        return "CREATE TABLE {}changes (`id` bigint NOT NULL IDENTITY, `kind` varchar(32) NOT NULL, `type` varchar(255) NOT NULL, "
+                + "`identifier` varchar(255) NOT NULL, `origin` varchar(36) NOT NULL, `changed` bigint NOT NULL)";
+    }
+
+    protected String getInsertChangeQuery() {
+        return "INSERT INTO {}changes (`kind`, `type`, `identifier`, `origin`, `changed`) VALUES (?, ?, ?, ?, ?)";
+    }
+
+    protected String getSelectChangesSinceQuery() {
+        return "SELECT `id`, `kind`, `type`, `identifier`, `origin` FROM {}changes WHERE `id`>? ORDER BY `id` ASC";
+    }
+
+    protected String getSelectLatestChangeQuery() {
+        return "SELECT MAX(`id`) FROM {}changes";
+    }
+
+    protected String getDeleteChangesBeforeQuery() {
+        return "DELETE FROM {}changes WHERE `changed`<?";
+    }
+
     public PreparedStatement prepareStatement(String query) throws SQLException {
         return conn.prepareStatement(this.ds.insertPrefix(query));
     }
@@ -220,18 +264,85 @@ public abstract class SqlDao implements AutoCloseable {
         return conn.prepareStatement(this.ds.insertPrefix(query), params);
     }
 
+    /**
+     * Prepare a query whose single {@code IN (?)} list is expanded to hold {@code count} values.
+     *
+     * <p>Lists are padded up to one of a few fixed sizes, so only a handful of distinct queries are
+     * ever sent, which lets the driver's statement cache reuse them. Use
+     * {@link #setInList(PreparedStatement, int, List)} to fill the list.</p>
+     *
+     * @param query The query, containing one {@code IN (?)} list
+     * @param count The number of values, at most {@link #MAX_IN_LIST_SIZE}
+     * @return A new statement
+     * @throws SQLException if the statement could not be prepared
+     */
+    protected PreparedStatement prepareInListStatement(String query, int count) throws SQLException {
+        final String[] expanded = IN_LIST_QUERIES.computeIfAbsent(query, SqlDao::expandInLists);
+        return prepareStatement(expanded[inListSizeIndex(count)]);
+    }
+
+    private static String[] expandInLists(String query) {
+        final String[] ret = new String[IN_LIST_SIZES.length];
+        for (int i = 0; i < IN_LIST_SIZES.length; ++i) {
+            final StringBuilder params = new StringBuilder(IN_LIST_SIZES[i] * 3);
+            for (int j = 0; j < IN_LIST_SIZES[i]; ++j) {
+                if (j != 0) {
+                    params.append(", ");
+                }
+                params.append('?');
+            }
+            ret[i] = query.replace("IN (?)", "IN (" + params + ")");
+        }
+        return ret;
+    }
+
+    /**
+     * Fill an expanded {@code IN} list, repeating the last value in any padding slots.
+     *
+     * @param stmt The statement to fill
+     * @param firstIndex The parameter index of the first list element
+     * @param values The values to set
+     * @param <T> The value type
+     * @throws SQLException if unable to set a parameter
+     */
+    protected <T> void setInList(PreparedStatement stmt, int firstIndex, List<T> values) throws SQLException {
+        final int size = IN_LIST_SIZES[inListSizeIndex(values.size())];
+        for (int i = 0; i < size; ++i) {
+            stmt.setObject(firstIndex + i, values.get(Math.min(i, values.size() - 1)));
+        }
+    }
+
+    private static int inListSizeIndex(int count) {
+        for (int i = 0; i < IN_LIST_SIZES.length; ++i) {
+            if (count <= IN_LIST_SIZES[i]) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Too many values for one IN list: " + count + " > " + MAX_IN_LIST_SIZE);
+    }
+
     protected <T> T executeInTransaction(ThrowingSupplier<T, SQLException> func) throws SQLException {
-        transactionLevel++;
-        conn.setAutoCommit(false);
+        if (transactionLevel++ == 0) {
+            conn.setAutoCommit(false);
+        }
+        boolean success = false;
         try {
             T ret = func.supply();
-            if (--transactionLevel <= 0) {
-                conn.commit();
-            }
+            success = true;
             return ret;
         } finally {
-            if (transactionLevel <= 0) {
-                conn.setAutoCommit(true);
+            if (--transactionLevel <= 0) {
+                transactionLevel = 0;
+                try {
+                    // Roll back explicitly, since re-enabling auto-commit would commit a partial transaction
+                    if (success) {
+                        conn.commit();
+                    } else {
+                        conn.rollback();
+                    }
+                } finally {
+                    conn.setAutoCommit(true);
+                }
             }
         }
     }
@@ -347,66 +458,177 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
 
-    private Set<ContextValue<?>> getSegmentContexts(int segmentId) throws SQLException {
-        try (PreparedStatement stmt = prepareStatement(getSelectContextsSegmentQuery())) {
-            stmt.setInt(1, segmentId);
-            ImmutableSet.Builder<ContextValue<?>> res = ImmutableSet.builder();
+    /**
+     * Look up the references of several subjects of one type, without allocating any that do not exist yet.
+     *
+     * <p>Results are keyed by the identifiers as requested. Databases with case-insensitive collations may return
+     * rows whose identifier differs in case from the one asked for, so rows are matched back to requested identifiers
+     * ignoring case, preferring an exact match when there is one.</p>
+     *
+     * @param type The subject type
+     * @param names The identifiers to look up
+     * @return References for every identifier that has been allocated
+     * @throws SQLException if unable to read from the database
+     */
+    public Map<String, SubjectRef> getSubjectRefs(String type, Collection<String> names) throws SQLException {
+        final Map<String, SubjectRef> result = new HashMap<>();
+        for (List<String> batch : Iterables.partition(names, MAX_IN_LIST_SIZE)) {
+            final Map<String, List<String>> requested = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String name : batch) {
+                requested.computeIfAbsent(name, k -> new ArrayList<>(1)).add(name);
+            }
 
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                res.add(new ContextValue<>(rs.getString(1), rs.getString(2)));
+            try (PreparedStatement stmt = prepareInListStatement(getSelectSubjectRefsTypeNamesQuery(), batch.size())) {
+                stmt.setString(1, type);
+                setInList(stmt, 2, batch);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final int id = rs.getInt(1);
+                    final String stored = rs.getString(2);
+                    for (String name : requested.getOrDefault(stored, ImmutableList.of())) {
+                        if (name.equals(stored) || !result.containsKey(name)) {
+                            result.put(name, new SubjectRef(id, type, name));
+                        }
+                    }
+                }
             }
-            return res.build();
         }
+        return result;
     }
 
+    /**
+     * Get every segment of a subject.
+     *
+     * @param ref The subject to query
+     * @return The subject's segments
+     * @throws SQLException if unable to read from the database
+     */
     public List<Segment> getSegments(SubjectRef ref) throws SQLException {
-        ImmutableList.Builder<Segment> result = ImmutableList.builder();
-        try (PreparedStatement stmt = prepareStatement(getSelectSegmentsSubjectQuery())) {
-            stmt.setInt(1, getIdAllocating(ref));
-            ResultSet rs = stmt.executeQuery();
+        getIdAllocating(ref);
+        return getSegments(ImmutableList.of(ref)).get(ref);
+    }
 
+    /**
+     * Get every segment of several allocated subjects.
+     *
+     * <p>Rows for all of the subjects' segments are fetched together, one query per table for every
+     * {@link #MAX_IN_LIST_SIZE} subjects, and grouped by segment in memory, so the number of round trips does
+     * not grow with the number of segments.</p>
+     *
+     * @param refs The subjects to query
+     * @return The segments of each subject, including an empty list for subjects without segments
+     * @throws SQLException if unable to read from the database
+     */
+    public Map<SubjectRef, List<Segment>> getSegments(Collection<SubjectRef> refs) throws SQLException {
+        final Map<SubjectRef, List<Segment>> result = new HashMap<>();
+        for (List<SubjectRef> batch : Iterables.partition(refs, MAX_IN_LIST_SIZE)) {
+            // Several refs may share an id when identifiers differing only in case refer to one subject
+            final Map<Integer, List<SubjectRef>> byId = new HashMap<>();
+            for (SubjectRef ref : batch) {
+                byId.computeIfAbsent(ref.getId(), k -> new ArrayList<>(1)).add(ref);
+            }
+            final List<Integer> ids = ImmutableList.copyOf(byId.keySet());
+            for (Map.Entry<SubjectRef, List<Segment>> entry : getSegmentsBatch(byId, ids).entrySet()) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private Map<SubjectRef, List<Segment>> getSegmentsBatch(Map<Integer, List<SubjectRef>> subjects, List<Integer> ids) throws SQLException {
+        final Map<Integer, SegmentRows> segments = new LinkedHashMap<>();
+        try (PreparedStatement stmt = prepareInListStatement(getSelectSegmentsSubjectQuery(), ids.size())) {
+            setInList(stmt, 1, ids);
+            ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 final int id = rs.getInt(1);
-                Number permDef = (Number) rs.getObject(2);
-                Set<ContextValue<?>> contexts = getSegmentContexts(id);
-
-                ImmutableMap.Builder<String, Integer> permValues = ImmutableMap.builder();
-                ImmutableMap.Builder<String, String> optionValues = ImmutableMap.builder();
-                ImmutableList.Builder<SubjectRef> inheritanceValues = ImmutableList.builder();
-
-                try (PreparedStatement permStmt = prepareStatement(getSelectPermissionsSegmentQuery())) {
-                    permStmt.setInt(1, id);
+                segments.put(id, new SegmentRows(rs.getInt(2), (Number) rs.getObject(3)));
+            }
+        }
 
-                    ResultSet segmentRs = permStmt.executeQuery();
-                    while (segmentRs.next()) {
-                        permValues.put(segmentRs.getString(1), segmentRs.getInt(2));
+        if (!segments.isEmpty()) {
+            try (PreparedStatement stmt = prepareInListStatement(getSelectContextsSubjectQuery(), ids.size())) {
+                setInList(stmt, 1, ids);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final SegmentRows rows = segments.get(rs.getInt(1));
+                    if (rows != null) {
+                        rows.contexts.add(new ContextValue<>(rs.getString(2), rs.getString(3)));
                     }
                 }
+            }
 
-                try (PreparedStatement optStmt = prepareStatement(getSelectOptionsSegmentQuery())) {
-                    optStmt.setInt(1, id);
-
-                    ResultSet segmentRs = optStmt.executeQuery();
-                    while (segmentRs.next()) {
-                        optionValues.put(segmentRs.getString(1), segmentRs.getString(2));
+            try (PreparedStatement stmt = prepareInListStatement(getSelectPermissionsSubjectQuery(), ids.size())) {
+                setInList(stmt, 1, ids);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final SegmentRows rows = segments.get(rs.getInt(1));
+                    if (rows != null) {
+                        rows.permissions.put(rs.getString(2), rs.getInt(3));
                     }
                 }
+            }
 
-                try (PreparedStatement inheritStmt = prepareStatement(getSelectInheritanceSegmentQuery())) {
-                    inheritStmt.setInt(1, id);
+            try (PreparedStatement stmt = prepareInListStatement(getSelectOptionsSubjectQuery(), ids.size())) {
+                setInList(stmt, 1, ids);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final SegmentRows rows = segments.get(rs.getInt(1));
+                    if (rows != null) {
+                        rows.options.put(rs.getString(2), rs.getString(3));
+                    }
+                }
+            }
 
-                    ResultSet segmentRs = inheritStmt.executeQuery();
-                    while (segmentRs.next()) {
-                        inheritanceValues.add(new SubjectRef(segmentRs.getInt(3), segmentRs.getString(4), segmentRs.getString(5)));
+            try (PreparedStatement stmt = prepareInListStatement(getSelectInheritanceSubjectQuery(), ids.size())) {
+                setInList(stmt, 1, ids);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    final SegmentRows rows = segments.get(rs.getInt(1));
+                    if (rows != null) {
+                        rows.parents.add(new SubjectRef(rs.getInt(2), rs.getString(3), rs.getString(4)));
                     }
                 }
+            }
+        }
 
-                result.add(new Segment(id, contexts, permValues.build(), optionValues.build(), inheritanceValues.build(), permDef == null ? null : permDef.intValue(), null));
+        final Map<Integer, ImmutableList.Builder<Segment>> bySubject = new HashMap<>();
+        for (Integer id : ids) {
+            bySubject.put(id, ImmutableList.builder());
+        }
+        for (Map.Entry<Integer, SegmentRows> segment : segments.entrySet()) {
+            bySubject.get(segment.getValue().subject).add(segment.getValue().build(segment.getKey()));
+        }
 
+        final Map<SubjectRef, List<Segment>> result = new HashMap<>();
+        for (Map.Entry<Integer, ImmutableList.Builder<Segment>> subject : bySubject.entrySet()) {
+            final List<Segment> subjectSegments = subject.getValue().build();
+            for (SubjectRef ref : subjects.get(subject.getKey())) {
+                result.put(ref, subjectSegments);
             }
         }
-        return result.build();
+        return result;
+    }
+
+    /**
+     * Rows collected for one segment while loading subjects
+     */
+    private static final class SegmentRows {
+        private final ImmutableSet.Builder<ContextValue<?>> contexts = ImmutableSet.builder();
+        private final ImmutableMap.Builder<String, Integer> permissions = ImmutableMap.builder();
+        private final ImmutableMap.Builder<String, String> options = ImmutableMap.builder();
+        private final ImmutableList.Builder<SubjectRef> parents = ImmutableList.builder();
+        private final int subject;
+        private final Integer permissionDefault;
+
+        SegmentRows(int subject, Number permissionDefault) {
+            this.subject = subject;
+            this.permissionDefault = permissionDefault == null ? null : permissionDefault.intValue();
+        }
+
+        Segment build(int id) {
+            return new Segment(id, this.contexts.build(), this.permissions.build(), this.options.build(), this.parents.build(), this.permissionDefault, null);
+        }
     }
 
     public Segment addSegment(SubjectRef ref) throws SQLException { // TODO: Is this method useful?
@@ -418,15 +640,120 @@ public abstract class SqlDao implements AutoCloseable {
     public void updateFullSegment(SubjectRef ref, Segment segment) throws SQLException {
         executeInTransaction(() -> {
             allocateSegment(ref, segment);
-            setContexts(segment, segment.getContexts());
-            setOptions(segment, segment.getOptions());
-            setParents(segment, segment.getParents());
-            setPermissions(segment, segment.getPermissions());
-            setDefaultValue(segment, segment.getPermissionDefault());
+            segment.popPersisted();
+            // allocation stored the contexts and default value already
+            updateSegment(new Segment(segment.getId(), segment.getContexts(), ImmutableMap.of(), ImmutableMap.of(), ImmutableList.of(), segment.getPermissionDefault(), null), segment);
             return null;
         });
     }
 
+    /**
+     * Write the difference between two states of a segment. Only rows whose values changed are touched: changed and
+     * added entries are upserted, and removed entries are deleted, each kind in one batch. Parents are ordered by
+     * priority, so if the kept parents change order, the segment's parents are rewritten in full.
+     *
+     * @param from The state currently stored in the database
+     * @param to The state to store
+     * @throws SQLException if unable to write to the database
+     */
+    public void updateSegment(Segment from, Segment to) throws SQLException {
+        executeInTransaction(() -> {
+            final MapDifference<String, Integer> permissions = Maps.difference(nullToEmpty(from.getPermissions()), nullToEmpty(to.getPermissions()));
+            if (!permissions.areEqual()) {
+                writeEntries(to, getInsertPermissionUpdatingQuery(), getDeletePermissionKeyQuery(), permissions, PreparedStatement::setInt);
+            }
+
+            final MapDifference<String, String> options = Maps.difference(nullToEmpty(from.getOptions()), nullToEmpty(to.getOptions()));
+            if (!options.areEqual()) {
+                writeEntries(to, getInsertOptionUpdatingQuery(), getDeleteOptionKeyQuery(), options, PreparedStatement::setString);
+            }
+
+            final List<SubjectRef> oldParents = distinct(from.getParents());
+            final List<SubjectRef> newParents = distinct(to.getParents());
+            if (!oldParents.equals(newParents)) {
+                final Set<SubjectRef> newSet = ImmutableSet.copyOf(newParents);
+                final List<SubjectRef> retained = ImmutableList.copyOf(Iterables.filter(oldParents, newSet::contains));
+                if (newParents.subList(0, retained.size()).equals(retained)) {
+                    // Kept parents are still in order, so only removals and appended parents need writing
+                    final Set<SubjectRef> removed = Sets.difference(ImmutableSet.copyOf(oldParents), newSet);
+                    if (!removed.isEmpty()) {
+                        try (PreparedStatement del = prepareStatement(getDeleteInheritanceParentQuery())) {
+                            del.setInt(1, to.getId());
+                            for (SubjectRef parent : removed) {
+                                del.setInt(2, getIdAllocating(parent));
+                                del.addBatch();
+                            }
+                            del.executeBatch();
+                        }
+                    }
+
+                    final List<SubjectRef> added = newParents.subList(retained.size(), newParents.size());
+                    if (!added.isEmpty()) {
+                        try (PreparedStatement ins = prepareStatement(getInsertInheritanceQuery())) {
+                            ins.setInt(1, to.getId());
+                            for (SubjectRef parent : added) {
+                                ins.setInt(2, getIdAllocating(parent));
+                                ins.addBatch();
+                            }
+                            ins.executeBatch();
+                        }
+                    }
+                } else {
+                    // Parent order is priority, so a reorder rewrites the whole list in its new order
+                    setParents(to, newParents);
+                }
+            }
+
+            if (!Objects.equals(from.getPermissionDefault(), to.getPermissionDefault())) {
+                setDefaultValue(to, to.getPermissionDefault());
+            }
+            return null;
+        });
+    }
+
+    private <V> void writeEntries(Segment seg, String upsertQuery, String deleteQuery, MapDifference<String, V> diff, ValueSetter<V> setter) throws SQLException {
+        if (!diff.entriesOnlyOnLeft().isEmpty()) {
+            try (PreparedStatement del = prepareStatement(deleteQuery)) {
+                del.setInt(1, seg.getId());
+                for (String key : diff.entriesOnlyOnLeft().keySet()) {
+                    del.setString(2, key);
+                    del.addBatch();
+                }
+                del.executeBatch();
+            }
+        }
+
+        if (!diff.entriesOnlyOnRight().isEmpty() || !diff.entriesDiffering().isEmpty()) {
+            try (PreparedStatement ins = prepareStatement(upsertQuery)) {
+                ins.setInt(1, seg.getId());
+                for (Map.Entry<String, V> added : diff.entriesOnlyOnRight().entrySet()) {
+                    ins.setString(2, added.getKey());
+                    setter.set(ins, 3, added.getValue());
+                    ins.addBatch();
+                }
+                for (Map.Entry<String, MapDifference.ValueDifference<V>> changed : diff.entriesDiffering().entrySet()) {
+                    ins.setString(2, changed.getKey());
+                    setter.set(ins, 3, changed.getValue().rightValue());
+                    ins.addBatch();
+                }
+                ins.executeBatch();
+            }
+        }
+    }
+
+    private static <K, V> Map<K, V> nullToEmpty(Map<K, V> map) {
+        return map == null ? ImmutableMap.of() : map;
+    }
+
+    private static <T> List<T> distinct(List<T> list) {
+        return list == null ? ImmutableList.of() : ImmutableSet.copyOf(list).asList();
+    }
+
+    @FunctionalInterface
+    private interface ValueSetter<V> {
+        void set(PreparedStatement stmt, int index, V value) throws SQLException;
+    }
+
     public void setContexts(Segment seg, Set<ContextValue<?>> contexts) throws SQLException {
         // Update contexts
         executeInTransaction(() -> {
@@ -494,7 +821,8 @@ public abstract class SqlDao implements AutoCloseable {
     }
 
     public Set<String> getRegisteredTypes() throws SQLException {
-        try (ResultSet rs = prepareStatement(getSelectSubjectTypesQuery()).executeQuery()) {
+        try (PreparedStatement stmt = prepareStatement(getSelectSubjectTypesQuery());
+             ResultSet rs = stmt.executeQuery()) {
             ImmutableSet.Builder<String> ret = ImmutableSet.builder();
 
             while (rs.next()) {
@@ -849,6 +1177,89 @@ public abstract class SqlDao implements AutoCloseable {
         }
     }
 
+    /**
+     * Create the change log table if it does not exist yet.
+     *
+     * @throws SQLException if unable to create the table
+     */
+    public void initializeChangeLog() throws SQLException {
+        if (hasTable("changes")) {
+            return;
+        }
+        try (PreparedStatement stmt = prepareStatement(getCreateChangeLogTableQuery())) {
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Record that something has been modified, so other servers sharing the database can reload it.
+     *
+     * @param kind What was modified
+     * @param type The subject type, or an empty string for changes other than to a subject
+     * @param identifier The subject or rank ladder identifier, or an empty string for context inheritance
+     * @param origin The identifier of the data store instance making the change
+     * @throws SQLException if unable to write to the database
+     */
+    public void recordChange(SubjectChange.Kind kind, String type, String identifier, String origin) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getInsertChangeQuery())) {
+            stmt.setString(1, kind.getId());
+            stmt.setString(2, type);
+            stmt.setString(3, identifier);
+            stmt.setString(4, origin);
+            stmt.setLong(5, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Get every change recorded after a certain entry, oldest first. Entries of a kind this version does not know
+     * about are skipped.
+     *
+     * @param afterId The id of the last entry not to return
+     * @return The changes recorded since
+     * @throws SQLException if unable to read from the database
+     */
+    public List<SubjectChange> getChangesSince(long afterId) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectChangesSinceQuery())) {
+            stmt.setLong(1, afterId);
+            final ImmutableList.Builder<SubjectChange> ret = ImmutableList.builder();
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                final SubjectChange.Kind kind = SubjectChange.Kind.byId(rs.getString(2));
+                if (kind != null) {
+                    ret.add(new SubjectChange(rs.getLong(1), kind, rs.getString(3), rs.getString(4), rs.getString(5)));
+                }
+            }
+            return ret.build();
+        }
+    }
+
+    /**
+     * Get the id of the most recent entry in the change log.
+     *
+     * @return The latest id, or 0 if the change log is empty
+     * @throws SQLException if unable to read from the database
+     */
+    public long getLatestChangeId() throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getSelectLatestChangeQuery())) {
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Remove change log entries recorded before a certain time.
+     *
+     * @param time The time, in milliseconds since the epoch, of the oldest entry to keep
+     * @throws SQLException if unable to write to the database
+     */
+    public void deleteChangesBefore(long time) throws SQLException {
+        try (PreparedStatement stmt = prepareStatement(getDeleteChangesBeforeQuery())) {
+            stmt.setLong(1, time);
+            stmt.executeUpdate();
+        }
+    }
+
     public void setSchemaVersion(int version) throws SQLException {
         setGlobalParameter(SqlConstants.OPTION_SCHEMA_VERSION, Integer.toString(version));
     }
@@ -24,6 +24,7 @@ import ca.stellardrift.permissionsex.backend.sql.dao.SchemaMigration;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import org.jetbrains.annotations.Nullable;
 import ninja.leaping.configurate.objectmapping.Setting;
 import ca.stellardrift.permissionsex.backend.AbstractDataStore;
 import ca.stellardrift.permissionsex.backend.ConversionUtils;
@@ -40,6 +41,7 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -72,6 +74,15 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
     private String realPrefix;
     @Setting("aliases")
     private Map<String, String> legacyAliases;
+    @Setting(value = "write-behind-interval", comment = "Milliseconds to hold subject changes so they can be written together. 0 writes each change immediately")
+    private long writeBehindInterval = 0;
+    @Setting(value = "write-behind-batch-size", comment = "Number of waiting subjects that triggers an early write, and the most subjects written in one transaction")
+    private int writeBehindBatchSize = 64;
+    private volatile SqlWriteQueue writeQueue;
+    @Setting(value = "change-poll-interval", comment = "Milliseconds between checks for changes made by other servers sharing this database. "
+            + "0 disables change tracking. Every server sharing the database should enable it")
+    private long changePollInterval = 0;
+    private volatile SqlChangeTracker changeTracker;
 
     private final ConcurrentMap<String, String> queryPrefixCache = new ConcurrentHashMap<>();
     private final ThreadLocal<SqlDao> heldDao = new ThreadLocal<>();
@@ -120,15 +131,27 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
         }*/
 
 
+        if (this.writeBehindInterval > 0) {
+            this.writeQueue = new SqlWriteQueue(this, this.writeBehindInterval, this.writeBehindBatchSize);
+        }
+
+        boolean existed = true;
         if (autoInitialize) {
             try {
-                return initializeTables();
+                existed = initializeTables();
             } catch (SQLException e) {
                 throw new PermissionsLoadingException(Messages.SQL_ERROR_INITIALIZE_TABLES.toComponent(), e);
             }
-        } else {
-            return true;
         }
+
+        if (this.changePollInterval > 0) {
+            try {
+                this.changeTracker = new SqlChangeTracker(this, getManager().getLogger(), this.changePollInterval);
+            } catch (SQLException e) {
+                throw new PermissionsLoadingException(Messages.SQL_ERROR_INITIALIZE_TABLES.toComponent(), e);
+            }
+        }
+        return existed;
     }
 
     public boolean initializeTables() throws SQLException {
@@ -186,6 +209,10 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
 
     @Override
     protected CompletableFuture<ImmutableSubjectData> getDataInternal(String type, String identifier) {
+        final ImmutableSubjectData pending = this.writeQueue == null ? null : this.writeQueue.getPending(type, identifier);
+        if (pending != null) {
+            return CompletableFuture.completedFuture(pending);
+        }
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
                 Optional<SubjectRef> ref = dao.getSubjectRef(type, identifier);
@@ -200,8 +227,34 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
         });
     }
 
+    @Override
+    protected CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatchInternal(String type, Set<String> identifiers) {
+        return runAsync(() -> {
+            try (SqlDao dao = getDao()) {
+                final Map<String, SubjectRef> refs = dao.getSubjectRefs(type, identifiers);
+                final Map<SubjectRef, List<Segment>> segments = dao.getSegments(refs.values());
+                final Map<String, ImmutableSubjectData> ret = new HashMap<>();
+                for (String identifier : identifiers) {
+                    final ImmutableSubjectData pending = this.writeQueue == null ? null : this.writeQueue.getPending(type, identifier);
+                    final SubjectRef ref = refs.get(identifier);
+                    if (pending != null) {
+                        ret.put(identifier, pending);
+                    } else {
+                        ret.put(identifier, ref == null ? new SqlSubjectData(SubjectRef.unresolved(type, identifier)) : toSubjectData(ref, segments.get(ref)));
+                    }
+                }
+                return ret;
+            } catch (SQLException e) {
+                throw new PermissionsLoadingException(Messages.SQL_ERROR_LOADING_BATCH.toComponent(identifiers.size(), type), e);
+            }
+        });
+    }
+
     private SqlSubjectData getDataForRef(SqlDao dao, SubjectRef ref) throws SQLException {
-        List<Segment> segments = dao.getSegments(ref);
+        return toSubjectData(ref, dao.getSegments(ref));
+    }
+
+    private SqlSubjectData toSubjectData(SubjectRef ref, List<Segment> segments) {
         Map<Set<ContextValue<?>>, Segment> contexts = new HashMap<>();
         for (Segment segment : segments) {
             contexts.put(segment.getContexts(), segment);
@@ -213,29 +266,140 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
 
     @Override
     protected CompletableFuture<ImmutableSubjectData> setDataInternal(String type, String identifier, ImmutableSubjectData data) {
-        // Cases: update data for sql (easy), update of another type (get SQL data, do update)
-        SqlSubjectData sqlData;
-        if (data instanceof SqlSubjectData) {
-            sqlData = (SqlSubjectData) data;
-        } else {
-            return runAsync(() -> {
-                try (SqlDao dao = getDao()) {
-                    SubjectRef ref = dao.getOrCreateSubjectRef(type, identifier);
-                    SqlSubjectData newData = getDataForRef(dao, ref);
-                    newData = ConversionUtils.transfer(data, newData);
-                    newData.doUpdates(dao);
-                    return newData;
-                }
-            });
+        if (this.writeQueue != null) {
+            // Announce the change right away, so further changes build on it while it waits to be written
+            if (data != null) {
+                this.listeners.call(Maps.immutableEntry(type, identifier), data);
+            }
+            return this.writeQueue.enqueue(type, identifier, data);
         }
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
+                return writeData(dao, type, identifier, data);
+            }
+        });
+    }
+
+    /**
+     * Write subject data using an open dao.
+     *
+     * @param dao The dao to write with
+     * @param type The subject type
+     * @param identifier The subject identifier
+     * @param data The data to write, or null to remove the subject
+     * @return The data as stored, or null if the subject was removed
+     * @throws SQLException if unable to write to the database
+     */
+    ImmutableSubjectData writeData(SqlDao dao, String type, String identifier, @Nullable ImmutableSubjectData data) throws SQLException {
+        return dao.executeInTransaction(() -> {
+            final ImmutableSubjectData written;
+            // Cases: removal, update data for sql (easy), update of another type (get SQL data, do update)
+            if (data == null) {
+                dao.removeSubject(type, identifier);
+                written = null;
+            } else if (data instanceof SqlSubjectData) {
+                final SqlSubjectData sqlData = (SqlSubjectData) data;
                 sqlData.doUpdates(dao);
-                return sqlData;
+                written = sqlData;
+            } else {
+                SubjectRef ref = dao.getOrCreateSubjectRef(type, identifier);
+                SqlSubjectData newData = getDataForRef(dao, ref);
+                newData = ConversionUtils.transfer(data, newData);
+                newData.doUpdates(dao);
+                written = newData;
             }
+
+            recordChange(dao, SubjectChange.Kind.SUBJECT, type, identifier);
+            return written;
         });
     }
 
+    /**
+     * Add an entry to the change log, if changes are being tracked.
+     *
+     * @param dao The dao to write with, within the transaction making the change
+     * @param kind What was changed
+     * @param type The subject type, or an empty string
+     * @param identifier The subject or rank ladder identifier, or an empty string
+     * @throws SQLException if unable to write to the database
+     */
+    private void recordChange(SqlDao dao, SubjectChange.Kind kind, String type, String identifier) throws SQLException {
+        final SqlChangeTracker tracker = this.changeTracker;
+        if (tracker != null) {
+            dao.recordChange(kind, type, identifier, tracker.getOrigin());
+        }
+    }
+
+    /**
+     * Reload subjects from the database, and pass the new data to anybody listening for changes to them.
+     *
+     * @param type The subject type
+     * @param identifiers The identifiers of subjects to reload
+     * @return A future completing once listeners have been notified
+     */
+    CompletableFuture<Void> reloadSubjects(String type, Set<String> identifiers) {
+        final Set<String> loaded = new HashSet<>();
+        for (String identifier : identifiers) {
+            if (this.listeners.hasListeners(Maps.immutableEntry(type, identifier))) {
+                loaded.add(identifier);
+            }
+        }
+        if (loaded.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getDataBatchInternal(type, loaded).thenAccept(data -> {
+            for (Map.Entry<String, ImmutableSubjectData> ent : data.entrySet()) {
+                this.listeners.call(Maps.immutableEntry(type, ent.getKey()), ent.getValue());
+            }
+        });
+    }
+
+    /**
+     * Reload rank ladders from the database, and pass the new ladders to anybody listening for changes to them.
+     *
+     * @param ladders The names of ladders to reload
+     * @return A future completing once listeners have been notified
+     */
+    CompletableFuture<Void> reloadRankLadders(Set<String> ladders) {
+        final CompletableFuture<?>[] reloads = ladders.stream()
+                .map(ladder -> ladder.toLowerCase())
+                .filter(this.rankLadderListeners::hasListeners)
+                .map(ladder -> getRankLadderInternal(ladder).thenAccept(newLadder -> this.rankLadderListeners.call(ladder, newLadder)))
+                .toArray(CompletableFuture<?>[]::new);
+        return CompletableFuture.allOf(reloads);
+    }
+
+    /**
+     * Reload context inheritance from the database, and pass it to anybody listening for changes.
+     *
+     * @return A future completing once listeners have been notified
+     */
+    CompletableFuture<Void> reloadContextInheritance() {
+        if (!this.contextInheritanceListeners.hasListeners(true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getContextInheritanceInternal().thenAccept(inheritance -> this.contextInheritanceListeners.call(true, inheritance));
+    }
+
+    /**
+     * Check for changes made by other servers sharing the database right away, rather than waiting for the next poll.
+     *
+     * @return A future completing once everything changed elsewhere has been reloaded
+     */
+    public CompletableFuture<Void> pollChanges() {
+        final SqlChangeTracker tracker = this.changeTracker;
+        return tracker == null ? CompletableFuture.completedFuture(null) : tracker.poll();
+    }
+
+    /**
+     * Write any changes waiting in the write-behind queue.
+     *
+     * @return A future completing once every change queued before this call has been committed
+     */
+    public CompletableFuture<Void> flush() {
+        return this.writeQueue == null ? CompletableFuture.completedFuture(null) : this.writeQueue.flush();
+    }
+
     @Override
     public CompletableFuture<Boolean> isRegistered(String type, String identifier) {
         return runAsync(() -> {
@@ -299,8 +463,11 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
     protected CompletableFuture<RankLadder> setRankLadderInternal(String ladder, RankLadder newLadder) {
         return runAsync(() -> {
             try (SqlDao dao = getDao()) {
-                dao.setRankLadder(ladder, newLadder);
-                return dao.getRankLadder(ladder);
+                return dao.executeInTransaction(() -> {
+                    dao.setRankLadder(ladder, newLadder);
+                    recordChange(dao, SubjectChange.Kind.RANK_LADDER, "", ladder);
+                    return dao.getRankLadder(ladder);
+                });
             }
         });
     }
@@ -346,7 +513,11 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
                         }
                     }));
                 }
-                sqlInheritance.doUpdate(dao);
+                dao.executeInTransaction(() -> {
+                    sqlInheritance.doUpdate(dao);
+                    recordChange(dao, SubjectChange.Kind.CONTEXT_INHERITANCE, "", "");
+                    return null;
+                });
             }
             return inheritance;
         });
@@ -375,6 +546,14 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
 
     @Override
     public void close() {
+        if (this.writeQueue != null) {
+            this.writeQueue.close();
+            this.writeQueue = null;
+        }
+        if (this.changeTracker != null) {
+            this.changeTracker.close();
+            this.changeTracker = null;
+        }
         this.queryPrefixCache.clear();
     }
 
@@ -382,6 +561,26 @@ public final class SqlDataStore extends AbstractDataStore<SqlDataStore> {
         this.prefix = prefix;
     }
 
+    /**
+     * Configure the write-behind queue. Takes effect when the data store is initialized.
+     *
+     * @param interval Milliseconds to hold changes before writing, or 0 to write immediately
+     * @param batchSize The number of waiting subjects that triggers an early write
+     */
+    public void setWriteBehind(long interval, int batchSize) {
+        this.writeBehindInterval = interval;
+        this.writeBehindBatchSize = batchSize;
+    }
+
+    /**
+     * Configure how often to check for changes made by other servers. Takes effect when the data store is initialized.
+     *
+     * @param interval Milliseconds between checks, or 0 to disable change tracking
+     */
+    public void setChangePollInterval(long interval) {
+        this.changePollInterval = interval;
+    }
+
     public void setAutoInitialize(boolean autoInitialize) {
         this.autoInitialize = autoInitialize;
     }
@@ -19,16 +19,15 @@ package ca.stellardrift.permissionsex.backend.sql;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import ca.stellardrift.permissionsex.context.ContextSet;
 import ca.stellardrift.permissionsex.context.ContextValue;
 import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.util.ThrowingBiConsumer;
 import ca.stellardrift.permissionsex.util.Util;
 
 import java.sql.SQLException;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -59,31 +58,37 @@ class SqlSubjectData implements ImmutableSubjectData {
     }
 
     protected final SqlSubjectData newWithUpdated(Set<ContextValue<?>> key, Segment val) {
-        ThrowingBiConsumer<SqlDao, SqlSubjectData, SQLException> updateFunc;
-        if (val.isEmpty()) { // then remove segment
-            if (val.isUnallocated()) {
-                updateFunc = (dao, data) -> {};
-            } else {
-                updateFunc = (dao, data) -> dao.removeSegment(val);
-            }
-        } else if (val.isUnallocated()) { // create new segment
-            updateFunc = (dao, data) -> {
-                Segment seg = data.segments.get(key);
-                if (seg != null) {
-                    if (seg.isUnallocated()) {
-                        seg.popUpdates();
-                        dao.updateFullSegment(data.subject, seg);
-                    } else {
-                        seg.doUpdates(dao);
-                    }
+        return newWithUpdate(Util.updateImmutable(segments, ContextSet.of(key), val), (dao, data) -> writeSegment(dao, data, key, val));
+    }
+
+    /**
+     * Write one step of changes to the segment stored under a key.
+     *
+     * <p>Each segment only knows the state it was derived from, so every update writes exactly the step it was
+     * created for, and running the updates in order brings the database to the newest state. New segments are the
+     * exception: they are written in full from the newest state of the data being written, once.</p>
+     *
+     * @param dao The dao to write with
+     * @param data The data being written
+     * @param key The contexts of the segment
+     * @param step The segment as of this update
+     * @throws SQLException if unable to write to the database
+     */
+    private static void writeSegment(SqlDao dao, SqlSubjectData data, Set<ContextValue<?>> key, Segment step) throws SQLException {
+        final Segment latest = data.segments.get(key);
+        if (step.isUnallocated()) { // create new segment
+            if (latest != null && !latest.isEmpty()) {
+                if (latest.isUnallocated()) {
+                    dao.updateFullSegment(data.subject, latest);
+                } else {
+                    latest.doUpdates(dao);
                 }
-            };
-        } else { // just run updates
-            updateFunc = (dao, data) -> {
-                val.doUpdates(dao);
-            };
+            }
+        } else if (step.isEmpty() && (latest == null || latest.isEmpty())) { // then remove segment
+            dao.removeSegment(step);
+        } else { // just run updates, which clears the segment if it is only empty for now
+            step.doUpdates(dao);
         }
-        return newWithUpdate(Util.updateImmutable(segments, immutSet(key), val), updateFunc);
     }
 
     private Segment getSegmentOrNew(Set<ContextValue<?>> segments) {
@@ -94,10 +99,6 @@ class SqlSubjectData implements ImmutableSubjectData {
         return res;
     }
 
-    private <E> ImmutableSet<E> immutSet(Set<E> set) {
-        return ImmutableSet.copyOf(set);
-    }
-
     @Override
     public Map<Set<ContextValue<?>>, Map<String, String>> getAllOptions() {
         return Maps.filterValues(Maps.transformValues(segments,
@@ -138,22 +139,15 @@ class SqlSubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<ContextValue<?>>, Segment> newValue = Maps.transformValues(this.segments,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutOptions());
-        return newWithUpdate(newValue, createBulkUpdateFunc(newValue.keySet()));
+        Map<Set<ContextValue<?>>, Segment> newValue = ImmutableMap.copyOf(Maps.transformValues(this.segments,
+                dataEntry -> dataEntry == null ? null : dataEntry.withoutOptions()));
+        return newWithUpdate(newValue, createBulkUpdateFunc(newValue));
     }
 
-    private ThrowingBiConsumer<SqlDao, SqlSubjectData, SQLException> createBulkUpdateFunc(Collection<Set<ContextValue<?>>> keys) {
+    private ThrowingBiConsumer<SqlDao, SqlSubjectData, SQLException> createBulkUpdateFunc(Map<Set<ContextValue<?>>, Segment> segments) {
         return (dao, data) -> {
-            for (Set<ContextValue<?>> key : keys) {
-                Segment seg = data.segments.get(key);
-                if (seg != null) {
-                    if (seg.isEmpty()) {
-                        dao.removeSegment(seg);
-                    } else {
-                        seg.doUpdates(dao);
-                    }
-                }
+            for (Map.Entry<Set<ContextValue<?>>, Segment> seg : segments.entrySet()) {
+                writeSegment(dao, data, seg.getKey(), seg.getValue());
             }
         };
     }
@@ -190,9 +184,9 @@ class SqlSubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<ContextValue<?>>, Segment> newValue = Maps.transformValues(this.segments,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutPermissions());
-        return newWithUpdate(newValue, createBulkUpdateFunc(newValue.keySet()));
+        Map<Set<ContextValue<?>>, Segment> newValue = ImmutableMap.copyOf(Maps.transformValues(this.segments,
+                dataEntry -> dataEntry == null ? null : dataEntry.withoutPermissions()));
+        return newWithUpdate(newValue, createBulkUpdateFunc(newValue));
     }
 
     @Override
@@ -252,9 +246,9 @@ class SqlSubjectData implements ImmutableSubjectData {
             return this;
         }
 
-        Map<Set<ContextValue<?>>, Segment> newValue = Maps.transformValues(this.segments,
-                dataEntry -> dataEntry == null ? null : dataEntry.withoutParents());
-        return newWithUpdate(newValue, createBulkUpdateFunc(newValue.keySet()));
+        Map<Set<ContextValue<?>>, Segment> newValue = ImmutableMap.copyOf(Maps.transformValues(this.segments,
+                dataEntry -> dataEntry == null ? null : dataEntry.withoutParents()));
+        return newWithUpdate(newValue, createBulkUpdateFunc(newValue));
     }
 
     @Override
@@ -287,6 +281,29 @@ class SqlSubjectData implements ImmutableSubjectData {
                 dataEntry -> dataEntry == null ? null : dataEntry.getPermissionDefault()), v -> v != null);
     }
 
+    /**
+     * Check whether this data was derived from another, so that writing this data applies every update of the other.
+     *
+     * @param other The possible ancestor
+     * @return Whether the other's pending updates are all included in this data's updates
+     */
+    boolean includesUpdatesOf(SqlSubjectData other) {
+        final List<ThrowingBiConsumer<SqlDao, SqlSubjectData, SQLException>> mine = this.updatesToPerform.get(),
+                theirs = other.updatesToPerform.get();
+        if (theirs == null || theirs.isEmpty()) {
+            return true;
+        }
+        if (mine == null || mine.size() < theirs.size()) {
+            return false;
+        }
+        for (int i = 0; i < theirs.size(); ++i) {
+            if (mine.get(i) != theirs.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void doUpdates(SqlDao dao) throws SQLException {
         dao.executeInTransaction(() -> {
             List<ThrowingBiConsumer<SqlDao, SqlSubjectData, SQLException>> updates = this.updatesToPerform.getAndSet(null);
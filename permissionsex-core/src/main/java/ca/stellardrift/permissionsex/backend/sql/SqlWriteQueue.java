@@ -0,0 +1,272 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.sql;
+
+import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds subject changes briefly so that they can be written to the database together.
+ *
+ * <p>Successive changes to one subject are coalesced: when a queued {@link SqlSubjectData} is replaced by data derived
+ * from it, only the newer data is written, since it carries every update of the older one. Queued subjects are
+ * written in transactions of up to {@code batchSize} subjects, either after {@code interval} milliseconds or as soon
+ * as {@code batchSize} subjects are waiting. The future returned for each change completes once the transaction
+ * containing it has been committed.</p>
+ *
+ * <p>Changes remain visible through {@link #getPending(String, String)} until they have been committed. If a
+ * transaction fails, every change waiting for its subjects is dropped, their futures fail, and the subjects are
+ * reloaded from the database, since the data announced for them was never stored.</p>
+ */
+class SqlWriteQueue {
+    private final SqlDataStore store;
+    private final int batchSize;
+    private final ScheduledExecutorService executor;
+    private final Map<Map.Entry<String, String>, Deque<PendingWrite>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    private boolean closed;
+
+    SqlWriteQueue(SqlDataStore store, long interval, int batchSize) {
+        this.store = store;
+        this.batchSize = Math.max(1, batchSize);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread ret = new Thread(r, "PermissionsEx SQL writer (" + store.getName() + ")");
+            ret.setDaemon(true);
+            return ret;
+        });
+        this.executor.scheduleWithFixedDelay(this::flushNow, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue a change to a subject.
+     *
+     * @param type The subject type
+     * @param identifier The subject identifier
+     * @param data The new data
+     * @return A future completing with the data once it has been committed
+     */
+    CompletableFuture<ImmutableSubjectData> enqueue(String type, String identifier, @Nullable ImmutableSubjectData data) {
+        final PendingWrite write = new PendingWrite(data);
+        final boolean flush;
+        synchronized (this.pending) {
+            if (this.closed) {
+                final CompletableFuture<ImmutableSubjectData> ret = new CompletableFuture<>();
+                ret.completeExceptionally(new IllegalStateException("The write queue for " + this.store.getName() + " has been closed"));
+                return ret;
+            }
+            final Deque<PendingWrite> queue = this.pending.computeIfAbsent(Maps.immutableEntry(type, identifier), k -> new ArrayDeque<>());
+            final PendingWrite previous = queue.peekLast();
+            if (previous != null && !previous.writing && supersedes(data, previous.data)) {
+                previous.data = data;
+                previous.futures.add(write.futures.get(0));
+            } else {
+                queue.addLast(write);
+            }
+            flush = this.pending.size() >= this.batchSize && !this.flushScheduled;
+            if (flush) {
+                this.flushScheduled = true;
+            }
+        }
+        if (flush) {
+            this.executor.execute(this::flushNow);
+        }
+        return write.futures.get(0);
+    }
+
+    private static boolean supersedes(@Nullable ImmutableSubjectData newer, @Nullable ImmutableSubjectData older) {
+        return newer instanceof SqlSubjectData && older instanceof SqlSubjectData
+                && ((SqlSubjectData) newer).includesUpdatesOf((SqlSubjectData) older);
+    }
+
+    /**
+     * Get the most recent queued data for a subject, if it has not been committed yet.
+     *
+     * @param type The subject type
+     * @param identifier The subject identifier
+     * @return The queued data, or null if no change is waiting
+     */
+    @Nullable
+    ImmutableSubjectData getPending(String type, String identifier) {
+        synchronized (this.pending) {
+            final Deque<PendingWrite> queue = this.pending.get(Maps.immutableEntry(type, identifier));
+            return queue == null || queue.isEmpty() ? null : queue.peekLast().data;
+        }
+    }
+
+    /**
+     * Write every queued change.
+     *
+     * @return A future completing once all changes queued before this call have been committed
+     */
+    CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(this::flushNow, this.executor);
+    }
+
+    /**
+     * Write every queued change, then stop the writer thread. Changes queued afterwards fail immediately.
+     */
+    void close() {
+        synchronized (this.pending) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        try {
+            flush().get();
+        } catch (Exception ignore) {
+            // failures are reported through the futures of each change
+        }
+        this.executor.shutdown();
+    }
+
+    private void flushNow() {
+        final List<Map.Entry<Map.Entry<String, String>, List<PendingWrite>>> writes = new ArrayList<>();
+        synchronized (this.pending) {
+            this.flushScheduled = false;
+            for (Map.Entry<Map.Entry<String, String>, Deque<PendingWrite>> subject : this.pending.entrySet()) {
+                final List<PendingWrite> subjectWrites = new ArrayList<>(subject.getValue().size());
+                for (PendingWrite write : subject.getValue()) {
+                    if (!write.writing) {
+                        write.writing = true;
+                        subjectWrites.add(write);
+                    }
+                }
+                if (!subjectWrites.isEmpty()) {
+                    writes.add(Maps.immutableEntry(subject.getKey(), subjectWrites));
+                }
+            }
+        }
+
+        for (List<Map.Entry<Map.Entry<String, String>, List<PendingWrite>>> batch : Iterables.partition(writes, this.batchSize)) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<Map.Entry<Map.Entry<String, String>, List<PendingWrite>>> batch) {
+        final Map<Map.Entry<String, String>, ImmutableSubjectData> results = new LinkedHashMap<>();
+        try (SqlDao dao = this.store.getDao()) {
+            dao.executeInTransaction(() -> {
+                for (Map.Entry<Map.Entry<String, String>, List<PendingWrite>> subject : batch) {
+                    ImmutableSubjectData result = null;
+                    for (PendingWrite write : subject.getValue()) {
+                        result = this.store.writeData(dao, subject.getKey().getKey(), subject.getKey().getValue(), write.data);
+                    }
+                    results.put(subject.getKey(), result);
+                }
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            failBatch(batch, e);
+            return;
+        }
+
+        // Every future of a subject completes with its newest data, so that listeners notified on completion never
+        // see older data than what was announced when a later change was queued
+        final Map<Map.Entry<String, String>, ImmutableSubjectData> completions = new LinkedHashMap<>();
+        synchronized (this.pending) {
+            for (Map.Entry<Map.Entry<String, String>, List<PendingWrite>> subject : batch) {
+                final Deque<PendingWrite> queue = this.pending.get(subject.getKey());
+                if (queue != null) {
+                    queue.removeAll(subject.getValue());
+                    if (queue.isEmpty()) {
+                        this.pending.remove(subject.getKey());
+                    }
+                }
+                final ImmutableSubjectData queued = queue == null || queue.isEmpty() ? null : queue.peekLast().data;
+                completions.put(subject.getKey(), queued != null ? queued : results.get(subject.getKey()));
+            }
+        }
+        for (Map.Entry<Map.Entry<String, String>, List<PendingWrite>> subject : batch) {
+            final ImmutableSubjectData result = completions.get(subject.getKey());
+            for (PendingWrite write : subject.getValue()) {
+                write.futures.forEach(future -> future.complete(result));
+            }
+        }
+    }
+
+    /**
+     * Handle a transaction that was rolled back.
+     *
+     * <p>Writing consumes the updates carried by subject data, so the failed data cannot simply be written again, and
+     * changes queued after it were derived from it. Every change waiting for the affected subjects is dropped, and
+     * the subjects are reloaded from the database so that caches stop serving data that was never stored.</p>
+     */
+    private void failBatch(List<Map.Entry<Map.Entry<String, String>, List<PendingWrite>>> batch, Throwable error) {
+        final List<PendingWrite> failed = new ArrayList<>();
+        final Map<String, Set<String>> reload = new HashMap<>();
+        synchronized (this.pending) {
+            for (Map.Entry<Map.Entry<String, String>, List<PendingWrite>> subject : batch) {
+                final Deque<PendingWrite> queue = this.pending.remove(subject.getKey());
+                if (queue != null) {
+                    failed.addAll(queue);
+                }
+                reload.computeIfAbsent(subject.getKey().getKey(), k -> new HashSet<>()).add(subject.getKey().getValue());
+            }
+        }
+
+        // Fail the changes once their subjects have been reloaded, so callers see consistent data when handling the error
+        final CompletableFuture<?>[] reloads = new CompletableFuture<?>[reload.size()];
+        int i = 0;
+        for (Map.Entry<String, Set<String>> type : reload.entrySet()) {
+            reloads[i++] = this.store.reloadSubjects(type.getKey(), type.getValue());
+        }
+        CompletableFuture.allOf(reloads).whenComplete((ignore, reloadError) -> {
+            if (reloadError != null) {
+                error.addSuppressed(reloadError);
+            }
+            for (PendingWrite write : failed) {
+                write.futures.forEach(future -> future.completeExceptionally(error));
+            }
+        });
+    }
+
+    /**
+     * A change waiting to be written, and the futures of every change coalesced into it
+     */
+    private static final class PendingWrite {
+        @Nullable ImmutableSubjectData data;
+        final List<CompletableFuture<ImmutableSubjectData>> futures = new ArrayList<>(1);
+        /**
+         * Whether a transaction writing this change has started. Changes being written are not coalesced into.
+         */
+        boolean writing;
+
+        PendingWrite(@Nullable ImmutableSubjectData data) {
+            this.data = data;
+            this.futures.add(new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.sql;
+
+import com.google.common.base.MoreObjects;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An entry in the change log, recording that a subject, a rank ladder or the context inheritance was modified by one
+ * of the servers sharing a database
+ */
+public final class SubjectChange {
+    private final long id;
+    private final Kind kind;
+    private final String type, identifier, origin;
+
+    SubjectChange(long id, Kind kind, String type, String identifier, String origin) {
+        this.id = id;
+        this.kind = kind;
+        this.type = type;
+        this.identifier = identifier;
+        this.origin = origin;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the type of the subject changed.
+     *
+     * @return The subject type, or an empty string for changes of another {@link Kind}
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Get the identifier of the subject or rank ladder changed.
+     *
+     * @return The identifier, or an empty string for context inheritance changes
+     */
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    /**
+     * Get the identifier of the data store instance that made this change.
+     *
+     * @return The origin identifier
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", id)
+                .add("kind", kind)
+                .add("type", type)
+                .add("identifier", identifier)
+                .add("origin", origin)
+                .toString();
+    }
+
+    /**
+     * What a change log entry refers to
+     */
+    public enum Kind {
+        SUBJECT("subject"),
+        RANK_LADDER("rank-ladder"),
+        CONTEXT_INHERITANCE("context-inheritance");
+
+        private final String id;
+
+        Kind(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the value stored in the database for this kind.
+         *
+         * @return The stored identifier
+         */
+        public String getId() {
+            return this.id;
+        }
+
+        /**
+         * Get the kind stored in the database with a certain identifier.
+         *
+         * @param id The stored identifier
+         * @return The matching kind, or null if it was written by a newer version
+         */
+        public static @Nullable Kind byId(String id) {
+            for (Kind kind : values()) {
+                if (kind.id.equals(id)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+}
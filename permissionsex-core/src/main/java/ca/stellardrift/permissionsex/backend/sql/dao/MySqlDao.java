@@ -41,4 +41,10 @@ public class MySqlDao extends SqlDao {
     protected String getInsertPermissionUpdatingQuery() {
         return "INSERT INTO {}permissions (segment, `key`, `value`) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `value`=VALUES(`value`)";
     }
+
+    @Override
+    protected String getCreateChangeLogTableQuery() {
+        return "CREATE TABLE {}changes (`id` bigint NOT NULL AUTO_INCREMENT PRIMARY KEY, `kind` varchar(32) NOT NULL, `type` varchar(255) NOT NULL, "
+                + "`identifier` varchar(255) NOT NULL, `origin` varchar(36) NOT NULL, `changed` bigint NOT NULL) DEFAULT CHARSET=utf8";
+    }
 }
@@ -33,6 +33,7 @@ import ninja.leaping.configurate.objectmapping.serialize.TypeSerializers;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -57,6 +58,8 @@ public class FilePermissionsExConfiguration<T> implements PermissionsExConfigura
     @Setting("default-backend") private String defaultBackend;
     @Setting private boolean debug;
     @Setting("server-tags") private List<String> serverTags;
+    @Setting("warm-up") private WarmUpConfiguration warmUp = new WarmUpConfiguration();
+    @Setting("subject-caches") private Map<String, SubjectCacheConfiguration> subjectCaches = new HashMap<>();
 
     private final Class<T> platformConfigClass;
     private T platformConfig;
@@ -143,6 +146,17 @@ public class FilePermissionsExConfiguration<T> implements PermissionsExConfigura
         return Collections.unmodifiableList(serverTags);
     }
 
+    @Override
+    public WarmUpConfiguration getWarmUp() {
+        return warmUp;
+    }
+
+    @Override
+    public SubjectCacheConfiguration getSubjectCache(String type) {
+        final SubjectCacheConfiguration ret = subjectCaches == null ? null : subjectCaches.get(type);
+        return ret == null ? SubjectCacheConfiguration.defaultFor(type) : ret.withDefaults(SubjectCacheConfiguration.defaultFor(type));
+    }
+
     @Override
     public void validate() throws PEBKACException {
         if (backends.isEmpty()) {
@@ -37,6 +37,25 @@ public interface PermissionsExConfiguration<PlatformType> {
 
     void validate() throws PEBKACException;
 
+    /**
+     * Get options for loading subjects into cache when the engine starts
+     *
+     * @return The warm-up configuration
+     */
+    default WarmUpConfiguration getWarmUp() {
+        return new WarmUpConfiguration();
+    }
+
+    /**
+     * Get limits on the raw subject data cached for a subject type
+     *
+     * @param type The subject type
+     * @return The cache configuration
+     */
+    default SubjectCacheConfiguration getSubjectCache(String type) {
+        return SubjectCacheConfiguration.defaultFor(type);
+    }
+
     /**
      * Get a configuration containing options only applicable to one implementation of PermissionsEx
      *
@@ -0,0 +1,105 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.config;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ninja.leaping.configurate.objectmapping.Setting;
+import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
+
+/**
+ * Limits on the raw subject data cached for one subject type.
+ *
+ * Cached data is weighed by how many permissions, options, parents and segments it contains, so a few large groups
+ * don't count the same as a few near-empty users.
+ *
+ * Settings left out of the configuration are null until filled in from the type's defaults with
+ * {@link #withDefaults(SubjectCacheConfiguration)}.
+ */
+@ConfigSerializable
+public class SubjectCacheConfiguration {
+    private static final long DEFAULT_MAXIMUM_WEIGHT = 65536;
+
+    @Setting(comment = "Keep every loaded subject of this type in memory. Recommended for types every bake depends on, like groups")
+    private Boolean pinned;
+    @Setting(value = "maximum-weight", comment = "The maximum total weight of cached subjects, where each permission, option, parent and segment weighs 1")
+    private Long maximumWeight;
+    @Setting(value = "expire-after-access", comment = "Seconds after its last use that a subject's data is removed from cache, or 0 to keep it until evicted by weight")
+    private Long expireAfterAccess;
+
+    public SubjectCacheConfiguration() {
+    }
+
+    private SubjectCacheConfiguration(Boolean pinned, Long maximumWeight, Long expireAfterAccess) {
+        this.pinned = pinned;
+        this.maximumWeight = maximumWeight;
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+    /**
+     * Create the default cache configuration for a subject type. Groups, defaults and fallbacks are pinned, since
+     * nearly every bake reads them, while other types are bounded and expire when unused for 15 minutes.
+     *
+     * @param type The subject type
+     * @return A new configuration with defaults for the type
+     */
+    public static SubjectCacheConfiguration defaultFor(String type) {
+        switch (type) {
+            case PermissionsEx.SUBJECTS_GROUP:
+            case PermissionsEx.SUBJECTS_DEFAULTS:
+            case PermissionsEx.SUBJECTS_FALLBACK:
+                // keep a usable weight limit in case pinning is turned off for these types
+                return new SubjectCacheConfiguration(true, DEFAULT_MAXIMUM_WEIGHT, 0L);
+            default:
+                return new SubjectCacheConfiguration(false, DEFAULT_MAXIMUM_WEIGHT, 15 * 60L);
+        }
+    }
+
+    /**
+     * Create a copy of this configuration with any settings that were not configured taken from {@code defaults}.
+     *
+     * @param defaults The configuration to take missing settings from, usually {@link #defaultFor(String)}
+     * @return A configuration with every setting present
+     */
+    public SubjectCacheConfiguration withDefaults(SubjectCacheConfiguration defaults) {
+        return new SubjectCacheConfiguration(this.pinned == null ? defaults.pinned : this.pinned,
+                this.maximumWeight == null ? defaults.maximumWeight : this.maximumWeight,
+                this.expireAfterAccess == null ? defaults.expireAfterAccess : this.expireAfterAccess);
+    }
+
+    public boolean isPinned() {
+        return this.pinned;
+    }
+
+    /**
+     * Get the maximum total weight of cached subjects.
+     *
+     * @return The maximum weight, ignored if this type is pinned
+     */
+    public long getMaximumWeight() {
+        return this.maximumWeight;
+    }
+
+    /**
+     * Get how long a subject's data remains cached after it was last used.
+     *
+     * @return Seconds after access, or 0 if data does not expire
+     */
+    public long getExpireAfterAccess() {
+        return this.expireAfterAccess;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.config;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.configurate.objectmapping.Setting;
+import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options controlling which subjects are loaded into cache when the engine starts or is reloaded
+ */
+@ConfigSerializable
+public class WarmUpConfiguration {
+    /**
+     * A subject limit meaning every subject of a type should be loaded
+     */
+    public static final int UNLIMITED = -1;
+
+    @Setting(comment = "Whether to load subjects into cache on startup and reload, so early permission checks don't wait for the data store")
+    private boolean enabled = true;
+    @Setting(comment = "The number of subjects to load at once")
+    private int parallelism = 4;
+    @Setting(value = "subject-types", comment = "The maximum number of subjects of each type to load, or -1 to load every subject of that type")
+    private Map<String, Integer> subjectTypes = new HashMap<>(ImmutableMap.of(PermissionsEx.SUBJECTS_GROUP, UNLIMITED));
+    @Setting(value = "bake-contexts", comment = "Sets of contexts to calculate data in for each loaded subject, in addition to its own active contexts.\n"
+            + "Each set maps context types to values, for example [{world=world}, {world=world_nether}]")
+    private List<Map<String, String>> bakeContexts = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public int getParallelism() {
+        return Math.max(1, this.parallelism);
+    }
+
+    /**
+     * Get the subject types to warm, and how many subjects of each type to load.
+     *
+     * @return An unmodifiable map of subject type to subject limit
+     * @see #UNLIMITED
+     */
+    public Map<String, Integer> getSubjectTypes() {
+        return this.subjectTypes == null ? ImmutableMap.of() : Collections.unmodifiableMap(this.subjectTypes);
+    }
+
+    /**
+     * Get the extra context sets data should be baked in for each warmed subject
+     *
+     * @return The context sets
+     */
+    public List<Set<ContextValue<?>>> getBakeContexts() {
+        if (this.bakeContexts == null) {
+            return ImmutableList.of();
+        }
+        final ImmutableList.Builder<Set<ContextValue<?>>> ret = ImmutableList.builder();
+        for (Map<String, String> contexts : this.bakeContexts) {
+            final Set<ContextValue<?>> set = new HashSet<>();
+            contexts.forEach((key, value) -> set.add(new ContextValue<>(key, value)));
+            ret.add(ContextSet.of(set));
+        }
+        return ret.build();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.context;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * An immutable, canonical set of context values.
+ *
+ * Sets are interned on creation, so equal context sets are almost always the same instance and comparing them
+ * returns on identity. The hash code is calculated once, and follows the {@link Set} contract, so a context set
+ * can be used to look up map entries keyed by any other kind of set and vice versa. Values held are also interned,
+ * so equal context values share one instance and its parsed state.
+ *
+ * Sets of contexts are expected to be small, so membership checks are a scan rather than a hash lookup.
+ */
+public final class ContextSet extends AbstractSet<ContextValue<?>> {
+    private static final Interner<ContextSet> INTERNER = Interners.newWeakInterner();
+    private static final ContextSet EMPTY = INTERNER.intern(new ContextSet(new ContextValue<?>[0], 0));
+
+    private final ContextValue<?>[] values;
+    private final int hashCode;
+
+    private ContextSet(ContextValue<?>[] values, int hashCode) {
+        this.values = values;
+        this.hashCode = hashCode;
+    }
+
+    /**
+     * Get the empty context set
+     *
+     * @return The empty set
+     */
+    public static ContextSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Get the canonical context set holding the provided values
+     *
+     * @param values The context values
+     * @return An interned context set
+     */
+    public static ContextSet of(ContextValue<?>... values) {
+        return of(Arrays.asList(values));
+    }
+
+    /**
+     * Get the canonical context set holding the provided values. If the input is already a context set,
+     * it is returned as-is.
+     *
+     * @param values The context values
+     * @return An interned context set
+     */
+    public static ContextSet of(Collection<? extends ContextValue<?>> values) {
+        Preconditions.checkNotNull(values, "values");
+        if (values instanceof ContextSet) {
+            return (ContextSet) values;
+        } else if (values.isEmpty()) {
+            return EMPTY;
+        }
+
+        final ContextValue<?>[] interned = new ContextValue<?>[values.size()];
+        int size = 0;
+        int hashCode = 0;
+        nextValue: for (ContextValue<?> value : values) {
+            final ContextValue<?> canonical = ContextValue.intern(Preconditions.checkNotNull(value, "value"));
+            for (int i = 0; i < size; ++i) {
+                if (interned[i] == canonical) {
+                    continue nextValue;
+                }
+            }
+            interned[size++] = canonical;
+            hashCode += canonical.hashCode();
+        }
+        return INTERNER.intern(new ContextSet(size == interned.length ? interned : Arrays.copyOf(interned, size), hashCode));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof ContextValue<?>)) {
+            return false;
+        }
+        for (ContextValue<?> value : this.values) {
+            if (value == o) {
+                return true;
+            }
+        }
+        for (ContextValue<?> value : this.values) {
+            if (value.equals(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<ContextValue<?>> iterator() {
+        return Iterators.forArray(this.values);
+    }
+
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.values.length == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o instanceof ContextSet) {
+            final ContextSet other = (ContextSet) o;
+            if (this.hashCode != other.hashCode || this.values.length != other.values.length) {
+                return false;
+            }
+            for (ContextValue<?> value : other.values) {
+                if (!contains(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+}
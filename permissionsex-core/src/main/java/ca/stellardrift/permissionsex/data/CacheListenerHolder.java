@@ -63,6 +63,19 @@ public class CacheListenerHolder<Key, CacheType> {
         getListeners(key).remove(listener);
     }
 
+    /**
+     * Check whether anybody is listening for changes to a key, without registering the key.
+     *
+     * @param key The key to check
+     * @return Whether any listeners are registered
+     */
+    public boolean hasListeners(Key key) {
+        Preconditions.checkNotNull(key, "key");
+
+        final Set<Consumer<CacheType>> keyListeners = listeners.get(key);
+        return keyListeners != null && !keyListeners.isEmpty();
+    }
+
     public Iterable<Key> getAllKeys() {
         return Collections.unmodifiableSet(listeners.keySet());
     }
@@ -0,0 +1,100 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.data;
+
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * The transitive closure of a {@link ContextInheritance}: every context mapped to all contexts it inherits from,
+ * directly or indirectly. Context inheritance rarely changes, so this is calculated once for each inheritance
+ * object, and expanding a set of active contexts only takes a single lookup per context.
+ */
+public final class ContextInheritanceClosure {
+    private final ContextInheritance inheritance;
+    private final Map<ContextValue<?>, ContextSet> inherited;
+
+    public ContextInheritanceClosure(ContextInheritance inheritance) {
+        this.inheritance = Preconditions.checkNotNull(inheritance, "inheritance");
+        final ImmutableMap.Builder<ContextValue<?>, ContextSet> inherited = ImmutableMap.builder();
+        for (ContextValue<?> context : inheritance.getAllParents().keySet()) {
+            final Set<ContextValue<?>> ancestors = new LinkedHashSet<>();
+            final Queue<ContextValue<?>> inProgress = new ArrayDeque<>(inheritance.getParents(context));
+            ContextValue<?> next;
+            while ((next = inProgress.poll()) != null) {
+                if (!next.equals(context) && ancestors.add(next)) {
+                    inProgress.addAll(inheritance.getParents(next));
+                }
+            }
+            if (!ancestors.isEmpty()) {
+                inherited.put(ContextValue.intern(context), ContextSet.of(ancestors));
+            }
+        }
+        this.inherited = inherited.build();
+    }
+
+    /**
+     * Get the inheritance data this closure was calculated from
+     *
+     * @return The context inheritance
+     */
+    public ContextInheritance getInheritance() {
+        return this.inheritance;
+    }
+
+    /**
+     * Get every context a single context inherits from, not including itself
+     *
+     * @param context The context to query
+     * @return The inherited contexts, or an empty set
+     */
+    public ContextSet getInherited(ContextValue<?> context) {
+        final ContextSet ret = this.inherited.get(context);
+        return ret == null ? ContextSet.empty() : ret;
+    }
+
+    /**
+     * Add every inherited context to a set of contexts
+     *
+     * @param contexts The directly active contexts
+     * @return The contexts along with all they inherit from
+     */
+    public ContextSet expand(Set<ContextValue<?>> contexts) {
+        List<ContextValue<?>> ret = null;
+        for (ContextValue<?> context : contexts) {
+            final ContextSet parents = this.inherited.get(context);
+            if (parents != null) {
+                if (ret == null) {
+                    ret = new ArrayList<>(contexts);
+                }
+                ret.addAll(parents);
+            }
+        }
+        return ContextSet.of(ret == null ? contexts : ret);
+    }
+}
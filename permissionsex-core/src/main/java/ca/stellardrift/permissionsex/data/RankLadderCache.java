@@ -21,6 +21,7 @@ import ca.stellardrift.permissionsex.backend.DataStore;
 import ca.stellardrift.permissionsex.rank.RankLadder;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
 import com.google.common.base.Preconditions;
 
 import java.util.Map;
@@ -43,9 +44,14 @@ public class RankLadderCache {
     }
 
     public RankLadderCache(final RankLadderCache existing, final DataStore dataStore) {
+        this(existing, dataStore, StatsCounter.disabledStatsCounter());
+    }
+
+    public RankLadderCache(final RankLadderCache existing, final DataStore dataStore, final StatsCounter stats) {
         this.dataStore = dataStore;
         cache = Caffeine.newBuilder()
                 .maximumSize(256)
+                .recordStats(() -> stats)
                 .buildAsync(((key, executor) -> dataStore.getRankLadder(key, clearListener(key))));
         if (existing != null) {
             listeners = existing.listeners;
@@ -19,16 +19,28 @@ package ca.stellardrift.permissionsex.data;
 
 import ca.stellardrift.permissionsex.PermissionsEx;
 import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.config.SubjectCacheConfiguration;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -41,6 +53,8 @@ import java.util.function.Function;
 public class SubjectCache {
     private final String type;
     private DataStore dataStore;
+    private final StatsCounter stats;
+    private volatile SubjectCacheConfiguration config;
     private final AtomicReference<AsyncLoadingCache<String, ImmutableSubjectData>> cache = new AtomicReference<>();
     /**
      * Holds cache listeners to prevent them from being garbage-collected
@@ -50,8 +64,17 @@ public class SubjectCache {
     private final Map.Entry<String, String> defaultIdentifier;
 
     public SubjectCache(final String type, final DataStore dataStore) {
+        this(type, dataStore, StatsCounter.disabledStatsCounter());
+    }
+
+    public SubjectCache(final String type, final DataStore dataStore, final StatsCounter stats) {
+        this(type, dataStore, stats, SubjectCacheConfiguration.defaultFor(type));
+    }
+
+    public SubjectCache(final String type, final DataStore dataStore, final StatsCounter stats, final SubjectCacheConfiguration config) {
         this.type = type;
-        update(dataStore);
+        this.stats = stats;
+        update(dataStore, config);
         this.defaultIdentifier = Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, type);
         this.listeners = new CacheListenerHolder<>();
     }
@@ -62,10 +85,20 @@ public class SubjectCache {
      * @param newDataStore The new data store to use
      */
     public void update(DataStore newDataStore) {
+        update(newDataStore, this.config);
+    }
+
+    /**
+     * For internal use only. Replace the backing data store and cache limits while maintaining cache entries,
+     * ex. when the engine is reloaded.
+     *
+     * @param newDataStore The new data store to use
+     * @param config The new cache limits
+     */
+    public void update(DataStore newDataStore, SubjectCacheConfiguration config) {
         this.dataStore = newDataStore;
-        AsyncLoadingCache<String, ImmutableSubjectData> oldCache = this.cache.getAndSet(Caffeine.newBuilder()
-                        .maximumSize(512)
-                        .buildAsync(((key, executor) -> dataStore.getData(type, key, clearListener(key)))));
+        this.config = Objects.requireNonNull(config, "config");
+        AsyncLoadingCache<String, ImmutableSubjectData> oldCache = this.cache.getAndSet(buildCache(config));
         if (oldCache != null) {
             oldCache.synchronous().asMap().forEach((k, v) -> {
                     getData(k, null).thenAccept(data -> listeners.call(k, data));
@@ -74,6 +107,108 @@ public class SubjectCache {
         }
     }
 
+    private AsyncLoadingCache<String, ImmutableSubjectData> buildCache(SubjectCacheConfiguration config) {
+        final AsyncCacheLoader<String, ImmutableSubjectData> loader = new BatchingLoader();
+        final Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .recordStats(() -> this.stats);
+        if (config.isPinned()) {
+            return builder.buildAsync(loader);
+        }
+        if (config.getExpireAfterAccess() > 0) {
+            builder.expireAfterAccess(config.getExpireAfterAccess(), TimeUnit.SECONDS);
+        }
+        return builder.maximumWeight(config.getMaximumWeight())
+                .weigher(SubjectCache::weigh)
+                .buildAsync(loader);
+    }
+
+    /**
+     * Loads subject data from the data store, combining lookups that miss the cache at the same time into batches.
+     *
+     * <p>The first miss hands a flush task to the cache's executor, and every miss that arrives before the task runs
+     * joins its batch. When the engine is busy loading many subjects, such as while baking a deep inheritance tree or
+     * when many players join at once, this turns a burst of single loads into a few bulk loads.</p>
+     */
+    private final class BatchingLoader implements AsyncCacheLoader<String, ImmutableSubjectData> {
+        private final Map<String, CompletableFuture<ImmutableSubjectData>> pending = new HashMap<>();
+
+        @Override
+        public CompletableFuture<ImmutableSubjectData> asyncLoad(String key, Executor executor) {
+            final CompletableFuture<ImmutableSubjectData> ret;
+            final boolean schedule;
+            synchronized (this.pending) {
+                schedule = this.pending.isEmpty();
+                ret = this.pending.computeIfAbsent(key, k -> new CompletableFuture<>());
+            }
+            if (schedule) {
+                executor.execute(this::flush);
+            }
+            return ret;
+        }
+
+        @Override
+        public CompletableFuture<Map<String, ImmutableSubjectData>> asyncLoadAll(Iterable<? extends String> keys, Executor executor) {
+            return dataStore.getDataBatch(type, ImmutableSet.copyOf(keys), SubjectCache.this::clearListener);
+        }
+
+        private void flush() {
+            final Map<String, CompletableFuture<ImmutableSubjectData>> batch;
+            synchronized (this.pending) {
+                batch = new HashMap<>(this.pending);
+                this.pending.clear();
+            }
+
+            try {
+                if (batch.size() == 1) {
+                    final Map.Entry<String, CompletableFuture<ImmutableSubjectData>> single = batch.entrySet().iterator().next();
+                    dataStore.getData(type, single.getKey(), clearListener(single.getKey())).whenComplete((data, err) -> complete(batch, data == null ? null : ImmutableMap.of(single.getKey(), data), err));
+                } else {
+                    dataStore.getDataBatch(type, batch.keySet(), SubjectCache.this::clearListener).whenComplete((data, err) -> complete(batch, data, err));
+                }
+            } catch (RuntimeException e) {
+                complete(batch, null, e);
+            }
+        }
+
+        private void complete(Map<String, CompletableFuture<ImmutableSubjectData>> batch, @Nullable Map<String, ImmutableSubjectData> data, @Nullable Throwable err) {
+            for (Map.Entry<String, CompletableFuture<ImmutableSubjectData>> entry : batch.entrySet()) {
+                final ImmutableSubjectData result = data == null ? null : data.get(entry.getKey());
+                if (result != null) {
+                    entry.getValue().complete(result);
+                } else {
+                    entry.getValue().completeExceptionally(err != null ? err : new IllegalStateException("No data returned for " + type + ":" + entry.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimate how much memory subject data occupies, counting one for each permission, option, parent and segment.
+     *
+     * @param identifier The subject identifier
+     * @param data The subject's data
+     * @return The weight of the data
+     */
+    static int weigh(String identifier, ImmutableSubjectData data) {
+        final Set<Set<ContextValue<?>>> segments = new HashSet<>();
+        long weight = 1;
+        for (Map.Entry<Set<ContextValue<?>>, Map<String, Integer>> permissions : data.getAllPermissions().entrySet()) {
+            segments.add(permissions.getKey());
+            weight += permissions.getValue().size();
+        }
+        for (Map.Entry<Set<ContextValue<?>>, Map<String, String>> options : data.getAllOptions().entrySet()) {
+            segments.add(options.getKey());
+            weight += options.getValue().size();
+        }
+        for (Map.Entry<Set<ContextValue<?>>, List<Map.Entry<String, String>>> parents : data.getAllParents().entrySet()) {
+            segments.add(parents.getKey());
+            weight += parents.getValue().size();
+        }
+        segments.addAll(data.getAllDefaultValues().keySet());
+        weight += segments.size();
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
     /**
      * Get data for a given subject.
      * This will return a data object even if the subject is not registered -- the data object will just be empty.
@@ -97,6 +232,35 @@ public class SubjectCache {
         return ret;
     }
 
+    /**
+     * Get data for several subjects at once. Subjects that are not yet cached are loaded together.
+     *
+     * @param identifiers The identifiers of the subjects to query
+     * @return A future returning a map from each identifier to its data
+     */
+    public CompletableFuture<Map<String, ImmutableSubjectData>> getDataBatch(Collection<String> identifiers) {
+        Objects.requireNonNull(identifiers, "identifiers");
+
+        return cache.get().getAll(identifiers);
+    }
+
+    /**
+     * Get data for a given subject only if it has already been loaded, without triggering a load.
+     *
+     * @param identifier The identifier of the subject to query
+     * @return The loaded data, or null if it is not yet available
+     */
+    @Nullable
+    public ImmutableSubjectData getDataIfPresent(String identifier) {
+        Objects.requireNonNull(identifier, "identifier");
+
+        final CompletableFuture<ImmutableSubjectData> ret = cache.get().getIfPresent(identifier);
+        if (ret == null || !ret.isDone() || ret.isCompletedExceptionally()) {
+            return null;
+        }
+        return ret.join();
+    }
+
     /**
      * Get a reference to subject data for a given subject. The reference will update as changes are made to the backing
      * data store, and can always be used to query a specific subject's raw data.
@@ -171,9 +335,7 @@ public class SubjectCache {
      * Enter all subjects of this type into cache
      */
     public void cacheAll() {
-        for (String ident : dataStore.getAllIdentifiers(type)) {
-            cache.get().synchronous().refresh(ident);
-        }
+        getDataBatch(dataStore.getAllIdentifiers(type));
     }
 
     /**
@@ -214,6 +376,9 @@ public class SubjectCache {
      */
     private Consumer<ImmutableSubjectData> clearListener(final String name) {
         Consumer<ImmutableSubjectData> ret = newData -> {
+            if (getDataIfPresent(name) == newData) { // already announced, ex. by a data store that notifies before writing
+                return;
+            }
             cache.get().put(name, CompletableFuture.completedFuture(newData));
             listeners.call(name, newData);
         };
@@ -243,6 +408,15 @@ public class SubjectCache {
         return type;
     }
 
+    /**
+     * Get the data store subject data is loaded from
+     *
+     * @return The backing data store
+     */
+    public DataStore getDataStore() {
+        return this.dataStore;
+    }
+
     /**
      * Get a set of identifiers for all registered subjects of this type
      *
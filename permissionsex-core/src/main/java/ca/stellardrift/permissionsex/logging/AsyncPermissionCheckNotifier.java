@@ -0,0 +1,310 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.logging;
+
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static ca.stellardrift.permissionsex.logging.Messages.NOTIFIER_DROPPING;
+import static ca.stellardrift.permissionsex.logging.Messages.NOTIFIER_ERROR_SINK;
+
+/**
+ * A notifier that hands checks off to another notifier on a background thread.
+ *
+ * Checking threads only claim a slot in a fixed-size ring buffer and fill it in, so they never block
+ * on the notifiers doing the actual work, such as logging. Slots are allocated up front and reused, so checks do not
+ * allocate. If the consumer falls behind far enough that the buffer fills up, further events are dropped and counted
+ * rather than making checks wait. A warning is logged when events start being dropped, and again if drops start
+ * over after the consumer has caught up.
+ *
+ * Only the first exception thrown by each sink is logged, so a broken sink cannot flood the log.
+ *
+ * While events only go to a {@link RecordingPermissionCheckNotifier}, parent checks are not queued at all, since the
+ * recorder ignores them.
+ *
+ * The consumer thread is started when the first event is published, and stopped by {@link #close()}.
+ */
+public final class AsyncPermissionCheckNotifier implements PermissionCheckNotifier, AutoCloseable {
+    /**
+     * Number of slots in the ring buffer. Must be a power of two.
+     */
+    public static final int CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = 5_000_000L; // 5 ms
+
+    private final String threadName;
+    private final FormattedLogger logger;
+    private final Event[] events = new Event[CAPACITY];
+    /**
+     * The next sequence number to be claimed by a producer
+     */
+    private final AtomicLong claimed = new AtomicLong();
+    /**
+     * The next sequence number to be handled by the consumer
+     */
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    /**
+     * Set while events are being dropped, cleared once the consumer has emptied the buffer
+     */
+    private final AtomicBoolean dropping = new AtomicBoolean();
+    private volatile PermissionCheckNotifier sink;
+    /**
+     * Whether the sink only records checked keys, so it needs no contexts or parent checks
+     */
+    private volatile boolean recordingOnly;
+    /**
+     * Whether an exception thrown by the current sink has already been logged
+     */
+    private volatile boolean sinkFailureLogged;
+    private volatile Thread consumer;
+    /**
+     * Set while the consumer is waiting for new events, so producers know to wake it up
+     */
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    public AsyncPermissionCheckNotifier(String threadName, PermissionCheckNotifier sink, FormattedLogger logger) {
+        this.threadName = Preconditions.checkNotNull(threadName, "threadName");
+        this.logger = Preconditions.checkNotNull(logger, "logger");
+        for (int i = 0; i < CAPACITY; ++i) {
+            this.events[i] = new Event();
+        }
+        setSink(sink);
+    }
+
+    /**
+     * Get the notifier events are currently delivered to
+     *
+     * @return The current sink
+     */
+    public PermissionCheckNotifier getSink() {
+        return this.sink;
+    }
+
+    /**
+     * Change the notifier events are delivered to. Events already published but not yet handled will go to the
+     * new sink, though those published while only recording carry the caller's context set uncopied.
+     *
+     * @param sink The new sink
+     */
+    public void setSink(PermissionCheckNotifier sink) {
+        this.sink = Preconditions.checkNotNull(sink, "sink");
+        this.recordingOnly = sink instanceof RecordingPermissionCheckNotifier;
+        this.sinkFailureLogged = false;
+    }
+
+    /**
+     * Get the number of events discarded because the buffer was full
+     *
+     * @return The dropped event count
+     */
+    public long getDroppedEvents() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public void onPermissionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String permission, int value) {
+        publish(Event.PERMISSION, subject, contexts, permission, value, null);
+    }
+
+    @Override
+    public void onOptionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String option, String value) {
+        publish(Event.OPTION, subject, contexts, option, 0, value);
+    }
+
+    @Override
+    public void onParentCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, List<Map.Entry<String, String>> parents) {
+        if (!this.recordingOnly) {
+            publish(Event.PARENT, subject, contexts, null, 0, parents);
+        }
+    }
+
+    private void publish(int type, Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String key, int intValue, Object value) {
+        if (this.closed) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = this.claimed.get();
+            if (sequence - this.consumed.get() >= CAPACITY) {
+                this.dropped.increment();
+                if (!this.dropping.get() && this.dropping.compareAndSet(false, true)) {
+                    this.logger.warn(NOTIFIER_DROPPING.toComponent(this.threadName, this.dropped.sum()));
+                }
+                return;
+            }
+        } while (!this.claimed.compareAndSet(sequence, sequence + 1));
+
+        final Event event = this.events[(int) sequence & (CAPACITY - 1)];
+        event.type = type;
+        event.subject = subject;
+        // Active context snapshots are immutable, but sets passed in by callers may change after the check.
+        // The recorder never looks at contexts, so they are only copied when another sink will see them.
+        event.contexts = contexts instanceof ContextSet || this.recordingOnly ? contexts : ImmutableSet.copyOf(contexts);
+        event.key = key;
+        event.intValue = intValue;
+        event.value = value;
+        event.published = sequence; // publishes the fields written above
+
+        if (this.waiting) {
+            LockSupport.unpark(this.consumer);
+        } else if (this.consumer == null) {
+            startConsumer();
+        }
+    }
+
+    private synchronized void startConsumer() {
+        if (this.consumer == null && !this.closed) {
+            final Thread consumer = new Thread(this::consume, this.threadName);
+            consumer.setDaemon(true);
+            this.consumer = consumer;
+            consumer.start();
+        }
+    }
+
+    private void consume() {
+        long sequence = this.consumed.get();
+        while (true) {
+            final Event event = this.events[(int) sequence & (CAPACITY - 1)];
+            if (event.published != sequence) {
+                if (this.closed && sequence == this.claimed.get()) {
+                    return;
+                }
+                if (sequence == this.claimed.get()) { // nothing published, wait for a producer to wake us
+                    this.dropping.lazySet(false); // caught up, so warn again if drops start over
+                    this.waiting = true;
+                    if (sequence == this.claimed.get() && !this.closed) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    this.waiting = false;
+                } else { // a producer has claimed this slot, but not yet stored its event
+                    Thread.yield();
+                }
+                continue;
+            }
+            final int type = event.type;
+            final Map.Entry<String, String> subject = event.subject;
+            final Set<ContextValue<?>> contexts = event.contexts;
+            final String key = event.key;
+            final int intValue = event.intValue;
+            final Object value = event.value;
+            event.clear();
+            this.consumed.lazySet(++sequence); // the slot may be reused from here on
+            final PermissionCheckNotifier sink = this.sink;
+            try {
+                deliver(sink, type, subject, contexts, key, intValue, value);
+            } catch (RuntimeException e) {
+                // a misbehaving sink must not stop delivery of later events
+                if (!this.sinkFailureLogged) {
+                    this.sinkFailureLogged = true;
+                    this.logger.error(NOTIFIER_ERROR_SINK.toComponent(this.threadName, sink.getClass().getSimpleName()), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until every event published before this call has been delivered to the sink
+     */
+    public void flush() {
+        final long target = this.claimed.get();
+        while (this.consumed.get() < target) {
+            final Thread consumer = this.consumer;
+            if (consumer != null) {
+                if (!consumer.isAlive()) {
+                    return;
+                }
+                LockSupport.unpark(consumer);
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Stop accepting events, and wait for events already published to be delivered
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        final Thread consumer;
+        synchronized (this) {
+            consumer = this.consumer;
+        }
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join(1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void deliver(PermissionCheckNotifier sink, int type, Map.Entry<String, String> subject, Set<ContextValue<?>> contexts,
+                                String key, int intValue, Object value) {
+        switch (type) {
+            case Event.PERMISSION:
+                sink.onPermissionCheck(subject, contexts, key, intValue);
+                break;
+            case Event.OPTION:
+                sink.onOptionCheck(subject, contexts, key, (String) value);
+                break;
+            case Event.PARENT:
+                sink.onParentCheck(subject, contexts, (List<Map.Entry<String, String>>) value);
+                break;
+            default:
+                throw new IllegalStateException("Unknown event type " + type);
+        }
+    }
+
+    /**
+     * A slot in the ring buffer, holding a single check waiting to be delivered
+     */
+    private static final class Event {
+        static final int PERMISSION = 0, OPTION = 1, PARENT = 2;
+
+        /**
+         * The sequence number of the check currently held, written last by the producer
+         */
+        volatile long published = -1;
+        int type;
+        Map.Entry<String, String> subject;
+        Set<ContextValue<?>> contexts;
+        String key;
+        int intValue;
+        Object value;
+
+        void clear() {
+            this.subject = null;
+            this.contexts = null;
+            this.key = null;
+            this.value = null;
+        }
+    }
+}
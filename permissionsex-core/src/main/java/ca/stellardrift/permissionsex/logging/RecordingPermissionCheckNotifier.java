@@ -18,6 +18,7 @@
 package ca.stellardrift.permissionsex.logging;
 
 import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.collect.ImmutableSet;
 
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -28,7 +29,8 @@ import java.util.Set;
 /**
  * Notification delegate for permissions checks that tracks recent permission checks.
  *
- * Allows accessing currently known permissions
+ * Allows accessing currently known permissions. Checks may be recorded from any thread,
+ * and the known permissions and options are returned as snapshots.
  */
 public class RecordingPermissionCheckNotifier implements PermissionCheckNotifier {
     private static final int MAX_SIZE = 500;
@@ -48,13 +50,16 @@ public class RecordingPermissionCheckNotifier implements PermissionCheckNotifier
     }
     @Override
     public void onPermissionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String permission, int value) {
-        knownPermissions.add(permission);
-
+        synchronized (knownPermissions) {
+            knownPermissions.add(permission);
+        }
     }
 
     @Override
     public void onOptionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String option, String value) {
-        knownOptions.add(option);
+        synchronized (knownOptions) {
+            knownOptions.add(option);
+        }
     }
 
     @Override
@@ -62,10 +67,14 @@ public class RecordingPermissionCheckNotifier implements PermissionCheckNotifier
     }
 
     public Set<String> getKnownPermissions() {
-        return Collections.unmodifiableSet(knownPermissions);
+        synchronized (knownPermissions) {
+            return ImmutableSet.copyOf(knownPermissions);
+        }
     }
 
     public Set<String> getKnownOptions() {
-        return Collections.unmodifiableSet(knownOptions);
+        synchronized (knownOptions) {
+            return ImmutableSet.copyOf(knownOptions);
+        }
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of operation durations, in nanoseconds.
+ *
+ * Durations are sorted into buckets by powers of two, each backed by a striped counter, so recording
+ * never contends between threads. Percentiles are therefore approximate, reported as the upper bound of
+ * the bucket they fall in.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record a single operation
+     *
+     * @param nanos The duration of the operation, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) { // nanoTime is not monotonic on every platform
+            nanos = 0;
+        }
+        this.buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        this.count.increment();
+        this.totalNanos.add(nanos);
+        this.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * Record an operation that started at {@code startNanos} and has just finished
+     *
+     * @param startNanos The {@link System#nanoTime()} the operation started at
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Get the number of operations recorded
+     *
+     * @return The operation count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the mean duration of recorded operations
+     *
+     * @return The mean duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double getMeanNanos() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) this.totalNanos.sum() / count;
+    }
+
+    /**
+     * Get the longest duration recorded
+     *
+     * @return The maximum duration in nanoseconds
+     */
+    public long getMaxNanos() {
+        return this.maxNanos.get();
+    }
+
+    /**
+     * Get an upper bound for the duration that a fraction of operations completed within
+     *
+     * @param quantile The fraction of operations, between 0 and 1
+     * @return The approximate duration in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double quantile) {
+        Preconditions.checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between 0 and 1");
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = this.buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(total * quantile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= target) {
+                // bucket i holds durations in [2^(i - 1), 2^i)
+                return Math.min(i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{" +
+                "count=" + getCount() +
+                ", meanNanos=" + getMeanNanos() +
+                ", maxNanos=" + getMaxNanos() +
+                '}';
+    }
+}
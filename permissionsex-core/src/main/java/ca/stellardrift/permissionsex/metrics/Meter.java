@@ -0,0 +1,91 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and measures the rate they occur at.
+ *
+ * Marking an event only increments a striped counter. The rate is calculated when it is read, by comparing
+ * against the count at the previous reading.
+ */
+public final class Meter {
+    private static final long MIN_SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder count = new LongAdder();
+    private final long startTime = System.nanoTime();
+    private long lastSampleTime = startTime;
+    private long lastSampleCount;
+    private double lastRate = Double.NaN;
+
+    /**
+     * Record a single event
+     */
+    public void mark() {
+        this.count.increment();
+    }
+
+    /**
+     * Get the total number of events recorded
+     *
+     * @return The event count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the number of events per second, averaged over the time since the rate was last calculated.
+     * The rate is recalculated at most once a second, so frequent readings return the same value.
+     *
+     * @return Events per second
+     */
+    public synchronized double getRate() {
+        final long now = System.nanoTime();
+        final long elapsed = now - this.lastSampleTime;
+        if (elapsed >= MIN_SAMPLE_INTERVAL || Double.isNaN(this.lastRate)) {
+            final long count = getCount();
+            this.lastRate = elapsed == 0 ? 0 : (count - this.lastSampleCount) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            if (elapsed >= MIN_SAMPLE_INTERVAL) {
+                this.lastSampleTime = now;
+                this.lastSampleCount = count;
+            }
+        }
+        return this.lastRate;
+    }
+
+    /**
+     * Get the number of events per second, averaged since this meter was created
+     *
+     * @return Events per second
+     */
+    public double getMeanRate() {
+        final long elapsed = System.nanoTime() - this.startTime;
+        return elapsed == 0 ? 0 : getCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "Meter{" +
+                "count=" + getCount() +
+                ", meanRate=" + getMeanRate() +
+                '}';
+    }
+}
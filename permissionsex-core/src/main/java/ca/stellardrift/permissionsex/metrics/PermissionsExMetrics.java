@@ -0,0 +1,157 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.metrics;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Metrics collected by a single permissions engine.
+ *
+ * Every counter is striped, so recording metrics never contends between threads and they can stay enabled
+ * in production. Values are only summed up when read, through this class or the {@code /pex stats} command.
+ */
+public final class PermissionsExMetrics {
+    /**
+     * Loaded subjects, in each {@link ca.stellardrift.permissionsex.subject.SubjectType}
+     */
+    public static final String CACHE_SUBJECTS = "subjects";
+    /**
+     * Raw subject data, in each {@link ca.stellardrift.permissionsex.data.SubjectCache}. Counted separately for
+     * each subject type, under this name followed by {@code /} and the type.
+     */
+    public static final String CACHE_SUBJECT_DATA = "subject-data";
+    /**
+     * Baked data, in each {@link ca.stellardrift.permissionsex.subject.CalculatedSubject}
+     */
+    public static final String CACHE_BAKED_DATA = "baked-data";
+    /**
+     * Rank ladders, in the {@link ca.stellardrift.permissionsex.data.RankLadderCache}
+     */
+    public static final String CACHE_RANK_LADDERS = "rank-ladders";
+
+    private final Meter permissionChecks = new Meter();
+    private final LatencyHistogram bakes = new LatencyHistogram();
+    private final ConcurrentMap<String, StatsCounter> cacheCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Supplier<CacheStats>> caches = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> dataStoreOperations = new ConcurrentSkipListMap<>();
+
+    public PermissionsExMetrics() {
+    }
+
+    /**
+     * Get the meter marked on every permission check
+     *
+     * @return The permission check meter
+     */
+    public Meter getPermissionChecks() {
+        return this.permissionChecks;
+    }
+
+    /**
+     * Get the time taken by every bake of subject data
+     *
+     * @return The bake latency histogram
+     */
+    public LatencyHistogram getBakes() {
+        return this.bakes;
+    }
+
+    /**
+     * Get a statistics counter for a category of caches. Every cache sharing a name is counted together, so
+     * per-subject caches can be reported as a whole.
+     *
+     * @param name The cache category, for example {@link #CACHE_BAKED_DATA}
+     * @return A counter to pass to {@link com.github.benmanes.caffeine.cache.Caffeine#recordStats(Supplier)}
+     */
+    public StatsCounter getCacheCounter(String name) {
+        Preconditions.checkNotNull(name, "name");
+        return this.cacheCounters.computeIfAbsent(name, key -> {
+            final StatsCounter counter = new ConcurrentStatsCounter();
+            this.caches.putIfAbsent(key, counter::snapshot);
+            return counter;
+        });
+    }
+
+    /**
+     * Report statistics for a cache that keeps its own, for example an existing cache with
+     * {@link com.github.benmanes.caffeine.cache.Caffeine#recordStats()} enabled.
+     *
+     * @param name The name to report statistics under
+     * @param stats A function providing a current snapshot of statistics
+     */
+    public void registerCache(String name, Supplier<CacheStats> stats) {
+        this.caches.put(Preconditions.checkNotNull(name, "name"), Preconditions.checkNotNull(stats, "stats"));
+    }
+
+    /**
+     * Get current statistics for every known cache
+     *
+     * @return An immutable map of cache names to statistics, sorted by name
+     */
+    public Map<String, CacheStats> getCacheStats() {
+        final ImmutableMap.Builder<String, CacheStats> ret = ImmutableMap.builder();
+        this.caches.forEach((name, stats) -> ret.put(name, stats.get()));
+        return ret.build();
+    }
+
+    /**
+     * Get the latency histogram for a kind of data store operation
+     *
+     * @param operation The operation name
+     * @return The histogram for that operation
+     */
+    public LatencyHistogram getDataStoreOperation(String operation) {
+        return this.dataStoreOperations.computeIfAbsent(Preconditions.checkNotNull(operation, "operation"), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Get the latency histograms of every data store operation performed so far
+     *
+     * @return An immutable map of operation names to histograms, sorted by name
+     */
+    public Map<String, LatencyHistogram> getDataStoreOperations() {
+        return ImmutableMap.copyOf(this.dataStoreOperations);
+    }
+
+    /**
+     * Record the time between starting a data store operation and its completion
+     *
+     * @param operation The operation name
+     * @param action A function starting the operation
+     * @param <T> The result type
+     * @return The future returned by {@code action}
+     */
+    public <T> CompletableFuture<T> timeDataStoreOperation(String operation, Supplier<CompletableFuture<T>> action) {
+        final LatencyHistogram histogram = getDataStoreOperation(operation);
+        final long start = System.nanoTime();
+        final CompletableFuture<T> future = action.get();
+        future.whenComplete((result, error) -> histogram.recordSince(start));
+        return future;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.subject;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A cache of the flattened data each subject contributes to bakes of the subjects inheriting from it.
+ *
+ * Most users share the same few groups, so rather than walking each group's inheritance tree again for
+ * every user bake, the result of visiting a group in a given set of contexts is stored and merged into
+ * later bakes. Entries are dropped as soon as data for any subject they were calculated from changes.
+ */
+public final class BakeContributionCache {
+    private static final int MAXIMUM_SIZE = 2048;
+
+    private final Cache<Key, Contribution> contributions = Caffeine.newBuilder()
+            .maximumSize(MAXIMUM_SIZE)
+            .recordStats()
+            .build();
+
+    public BakeContributionCache() {
+    }
+
+    /**
+     * Get a contribution if one is cached and its time windows are still valid
+     *
+     * @param key The contribution to look up
+     * @param bakeTime The time of the current bake, in epoch milliseconds
+     * @return The cached contribution, or null
+     */
+    @Nullable
+    Contribution get(Key key, long bakeTime) {
+        final Contribution ret = this.contributions.getIfPresent(key);
+        if (ret != null && ret.validUntil <= bakeTime) {
+            this.contributions.asMap().remove(key, ret);
+            return null;
+        }
+        return ret;
+    }
+
+    /**
+     * Store a contribution, and arrange for it to be invalidated when any subject it depends on changes.
+     *
+     * <p>Listeners are registered first, then the data each dependency was read from is compared with what is
+     * currently cached. A change made while the contribution was being calculated is caught by the comparison, and
+     * any later change by the listeners, so a stale contribution is never stored.</p>
+     *
+     * @param pex The engine the contribution was calculated in
+     * @param key The key to store the contribution at
+     * @param contribution The calculated contribution
+     */
+    void put(PermissionsEx<?> pex, Key key, Contribution contribution) {
+        contribution.invalidator = data -> this.contributions.asMap().remove(key, contribution);
+        for (Map.Entry<String, String> dependency : contribution.dependencies) {
+            final SubjectType type = pex.getSubjects(dependency.getKey());
+            type.persistentData().addListener(dependency.getValue(), contribution.invalidator);
+            type.transientData().addListener(dependency.getValue(), contribution.invalidator);
+        }
+        for (Map.Entry<Map.Entry<String, String>, Map.Entry<ImmutableSubjectData, ImmutableSubjectData>> read : contribution.readData.entrySet()) {
+            final SubjectType type = pex.getSubjects(read.getKey().getKey());
+            if (type.persistentData().getDataIfPresent(read.getKey().getValue()) != read.getValue().getKey()
+                    || type.transientData().getDataIfPresent(read.getKey().getValue()) != read.getValue().getValue()) {
+                return;
+            }
+        }
+        this.contributions.put(key, contribution);
+    }
+
+    /**
+     * Discard every cached contribution, for example when context inheritance changes
+     */
+    public void invalidateAll() {
+        this.contributions.invalidateAll();
+    }
+
+    /**
+     * Get the approximate number of contributions currently cached
+     *
+     * @return The number of cached contributions
+     */
+    public long size() {
+        return this.contributions.estimatedSize();
+    }
+
+    /**
+     * Get hit, miss, and eviction statistics for this cache
+     *
+     * @return A snapshot of the cache statistics
+     */
+    public CacheStats stats() {
+        return this.contributions.stats();
+    }
+
+    /**
+     * Identifies a contribution: the subject visited, whether it was visited close enough to the base subject
+     * that non-inheritable permissions apply, and the raw contexts of the bake.
+     */
+    static final class Key {
+        private final Map.Entry<String, String> subject;
+        private final int inheritanceLevel;
+        private final ContextSet contexts;
+        private final int hashCode;
+
+        Key(Map.Entry<String, String> subject, int inheritanceLevel, ContextSet contexts) {
+            this.subject = subject;
+            this.inheritanceLevel = inheritanceLevel;
+            this.contexts = contexts;
+            this.hashCode = Objects.hash(subject, inheritanceLevel, contexts);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key that = (Key) o;
+            return this.hashCode == that.hashCode
+                    && this.inheritanceLevel == that.inheritanceLevel
+                    && this.subject.equals(that.subject)
+                    && this.contexts.equals(that.contexts);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+    /**
+     * The flattened result of visiting a subject and everything it inherits from.
+     *
+     * Each permission, option, and the default value have already been folded with the same rules used while
+     * visiting, so merging them into a bake with those rules again gives the same result as visiting would.
+     */
+    static final class Contribution {
+        final Map<String, Integer> permissions;
+        final List<Map.Entry<String, String>> parents;
+        final Map<String, String> options;
+        final int defaultValue;
+        final long validUntil;
+        final Set<Map.Entry<String, String>> dependencies;
+        /**
+         * The persistent and transient data each dependency was read from
+         */
+        final Map<Map.Entry<String, String>, Map.Entry<ImmutableSubjectData, ImmutableSubjectData>> readData;
+        /**
+         * Held here so listeners registered with subject caches live exactly as long as this contribution
+         */
+        Consumer<ImmutableSubjectData> invalidator;
+
+        Contribution(Map<String, Integer> permissions, List<Map.Entry<String, String>> parents, Map<String, String> options,
+                     int defaultValue, long validUntil, Set<Map.Entry<String, String>> dependencies,
+                     Map<Map.Entry<String, String>, Map.Entry<ImmutableSubjectData, ImmutableSubjectData>> readData) {
+            this.permissions = ImmutableMap.copyOf(permissions);
+            this.parents = ImmutableList.copyOf(parents);
+            this.options = ImmutableMap.copyOf(options);
+            this.defaultValue = defaultValue;
+            this.validUntil = validUntil;
+            this.dependencies = ImmutableSet.copyOf(dependencies);
+            this.readData = ImmutableMap.copyOf(readData);
+        }
+    }
+}
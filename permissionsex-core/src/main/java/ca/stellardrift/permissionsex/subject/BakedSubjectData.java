@@ -18,32 +18,75 @@
 package ca.stellardrift.permissionsex.subject;
 
 import ca.stellardrift.permissionsex.util.NodeTree;
+import ca.stellardrift.permissionsex.util.PermissionResultMemo;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents subject data that has had its hierarchy and contexts flattened
  */
 class BakedSubjectData {
     private final NodeTree permissions;
+    private final PermissionResultMemo.Statistics memoStatistics;
+    /**
+     * Created on the first permission query, since many bakes are replaced before any permission is checked
+     */
+    private volatile PermissionResultMemo permissionMemo;
     private final List<Map.Entry<String, String>> parents;
     private final Map<String, String> options;
+    private final long validUntil;
+    private final Set<Map.Entry<String, String>> dependencies;
 
-    public BakedSubjectData(NodeTree permissions, List<Map.Entry<String, String>> parents, Map<String, String> options) {
+    public BakedSubjectData(NodeTree permissions, List<Map.Entry<String, String>> parents, Map<String, String> options, PermissionResultMemo.Statistics memoStatistics) {
+        this(permissions, parents, options, memoStatistics, Long.MAX_VALUE, ImmutableSet.of());
+    }
+
+    /**
+     * Create a new baked data object
+     *
+     * @param permissions The calculated permissions
+     * @param parents The calculated parents
+     * @param options The calculated options
+     * @param memoStatistics Statistics to record permission memo usage in
+     * @param validUntil The {@link System#nanoTime()} at which a time window used in this bake opens or closes,
+     *                   or {@link Long#MAX_VALUE} if this data does not depend on the current time
+     * @param dependencies Every subject whose data was used in this bake
+     */
+    public BakedSubjectData(NodeTree permissions, List<Map.Entry<String, String>> parents, Map<String, String> options, PermissionResultMemo.Statistics memoStatistics, long validUntil, Set<Map.Entry<String, String>> dependencies) {
         Preconditions.checkNotNull(permissions, "permissions");
         Preconditions.checkNotNull(parents, "parents");
         Preconditions.checkNotNull(options, "options");
-        this.permissions = permissions;
+        this.permissions = permissions.compile();
+        this.memoStatistics = Preconditions.checkNotNull(memoStatistics, "memoStatistics");
         this.parents = parents;
         this.options = options;
+        this.validUntil = validUntil;
+        this.dependencies = Preconditions.checkNotNull(dependencies, "dependencies");
     }
 
     public NodeTree getPermissions() {
         return permissions;
     }
 
+    /**
+     * Get the value of a single permission, going through this data's result memo
+     *
+     * @param permission The permission to query
+     * @return The permission value
+     */
+    public int getPermission(String permission) {
+        PermissionResultMemo memo = this.permissionMemo;
+        if (memo == null) { // a racing thread may create its own memo, which only loses the results it stored
+            memo = new PermissionResultMemo(this.permissions, this.memoStatistics);
+            this.permissionMemo = memo;
+        }
+        return memo.get(permission);
+    }
+
     public List<Map.Entry<String, String>> getParents() {
         return parents;
     }
@@ -52,6 +95,24 @@ class BakedSubjectData {
         return options;
     }
 
+    /**
+     * Get the time at which this data should be re-baked because a time-based context window opens or closes
+     *
+     * @return A {@link System#nanoTime()} deadline, or {@link Long#MAX_VALUE} if this data does not expire
+     */
+    public long getValidUntil() {
+        return validUntil;
+    }
+
+    /**
+     * Get every subject whose data was used to calculate this baked data
+     *
+     * @return The subjects visited during the bake
+     */
+    public Set<Map.Entry<String, String>> getDependencies() {
+        return dependencies;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,193 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.subject;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.config.WarmUpConfiguration;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ca.stellardrift.permissionsex.subject.Messages.*;
+
+/**
+ * Loads subjects into cache ahead of time, and bakes their data in commonly used contexts.
+ *
+ * Subject data is fetched from the data store in batches, then subjects of each batch are baked a few at a time, as
+ * configured by {@link WarmUpConfiguration#getParallelism()}, so warming a large data store does not overwhelm it or
+ * starve other tasks on the async executor.
+ */
+public final class CacheWarmer {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final int PREFETCH_BATCH_SIZE = 128;
+
+    private final PermissionsEx<?> pex;
+    private final WarmUpConfiguration config;
+    private final List<Set<ContextValue<?>>> bakeContexts;
+
+    public CacheWarmer(PermissionsEx<?> pex, WarmUpConfiguration config) {
+        this.pex = pex;
+        this.config = config;
+        this.bakeContexts = config.getBakeContexts();
+    }
+
+    /**
+     * Warm every configured subject type, one type after another.
+     *
+     * @return A future completing with the total number of subjects loaded
+     */
+    public CompletableFuture<Integer> warmAll() {
+        if (!this.config.isEnabled()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        CompletableFuture<Integer> ret = CompletableFuture.completedFuture(0);
+        for (Map.Entry<String, Integer> type : this.config.getSubjectTypes().entrySet()) {
+            if (type.getValue() == 0) {
+                continue;
+            }
+            ret = ret.thenCompose(total -> warm(this.pex.getSubjects(type.getKey()), type.getValue())
+                    .handle((count, err) -> {
+                        if (err != null) {
+                            this.pex.getLogger().error(WARMUP_ERROR.toComponent(type.getKey()), err);
+                            return total;
+                        }
+                        return total + count;
+                    }));
+        }
+        return ret;
+    }
+
+    /**
+     * Load subjects of one type into cache.
+     *
+     * @param type The subject type
+     * @param limit The maximum number of subjects to load, or {@link WarmUpConfiguration#UNLIMITED}
+     * @return A future completing with the number of subjects loaded
+     */
+    public CompletableFuture<Integer> warm(SubjectType type, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            final Iterable<String> identifiers = Iterables.filter(type.getAllIdentifiers(), type.getTypeInfo()::isNameValid);
+            return ImmutableList.copyOf(limit < 0 ? identifiers : Iterables.limit(identifiers, limit));
+        }, this.pex.getAsyncExecutor()).thenCompose(identifiers -> {
+            if (identifiers.isEmpty()) {
+                return CompletableFuture.completedFuture(0);
+            }
+            final Progress progress = new Progress(type.getTypeInfo().getTypeName(), identifiers.size());
+            this.pex.getLogger().info(WARMUP_BEGIN.toComponent(progress.total, progress.type));
+            CompletableFuture<Void> batches = CompletableFuture.completedFuture(null);
+            for (List<String> batch : Lists.partition(identifiers, PREFETCH_BATCH_SIZE)) {
+                batches = batches.thenCompose(none -> warmBatch(type, batch, progress));
+            }
+            return batches.thenApply(none -> {
+                this.pex.getLogger().info(WARMUP_END.toComponent(progress.completed.get(), progress.type,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - progress.startTime)));
+                return progress.completed.get();
+            });
+        });
+    }
+
+    /**
+     * Fetch the data of a batch of subjects in one request, then bake each subject of the batch. A failed fetch is not
+     * reported here, since subjects that could not be fetched are loaded (and their errors logged) individually.
+     */
+    private CompletableFuture<Void> warmBatch(SubjectType type, List<String> batch, Progress progress) {
+        return type.persistentData().getDataBatch(batch)
+                .thenCombine(type.transientData().getDataBatch(batch), (persistent, transientData) -> null)
+                .handle((none, err) -> null)
+                .thenCompose(none -> {
+                    final Iterator<String> remaining = batch.iterator();
+                    final List<CompletableFuture<Void>> workers = new ArrayList<>(this.config.getParallelism());
+                    for (int i = 0; i < this.config.getParallelism(); ++i) {
+                        workers.add(work(type, remaining, progress));
+                    }
+                    return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0]));
+                });
+    }
+
+    /**
+     * Load subjects one by one until none remain. Subjects that load immediately are handled in a loop rather than by
+     * chaining futures, so warming a large type with a same-thread executor can't overflow the stack.
+     */
+    private CompletableFuture<Void> work(SubjectType type, Iterator<String> remaining, Progress progress) {
+        while (true) {
+            final String identifier;
+            synchronized (remaining) {
+                if (!remaining.hasNext()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                identifier = remaining.next();
+            }
+
+            final CompletableFuture<Void> result = warmSubject(type, identifier).handle((none, err) -> {
+                if (err != null) {
+                    this.pex.getLogger().warn(WARMUP_ERROR_SUBJECT.toComponent(progress.type, identifier), err);
+                } else {
+                    progress.increment(this.pex);
+                }
+                return null;
+            });
+            if (!result.isDone()) {
+                return result.thenCompose(none -> work(type, remaining, progress));
+            }
+        }
+    }
+
+    private CompletableFuture<Void> warmSubject(SubjectType type, String identifier) {
+        return type.get(identifier).thenCompose(subject -> {
+            final CompletableFuture<?>[] bakes = new CompletableFuture<?>[this.bakeContexts.size() + 1];
+            bakes[0] = subject.prebake(subject.getActiveContextSnapshot());
+            for (int i = 0; i < this.bakeContexts.size(); ++i) {
+                bakes[i + 1] = subject.prebake(this.bakeContexts.get(i));
+            }
+            return CompletableFuture.allOf(bakes);
+        });
+    }
+
+    private static final class Progress {
+        private final String type;
+        private final int total;
+        private final long startTime = System.nanoTime();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicLong lastReport = new AtomicLong(startTime);
+
+        Progress(String type, int total) {
+            this.type = type;
+            this.total = total;
+        }
+
+        void increment(PermissionsEx<?> pex) {
+            final int completed = this.completed.incrementAndGet();
+            final long last = this.lastReport.get();
+            final long now = System.nanoTime();
+            if (completed < this.total && now - last >= PROGRESS_INTERVAL && this.lastReport.compareAndSet(last, now)) {
+                pex.getLogger().info(WARMUP_PROGRESS.toComponent(completed, this.total, this.type));
+            }
+        }
+    }
+}
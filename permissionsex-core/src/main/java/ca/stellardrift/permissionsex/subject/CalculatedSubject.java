@@ -19,38 +19,54 @@ package ca.stellardrift.permissionsex.subject;
 
 import ca.stellardrift.permissionsex.PermissionsEx;
 import ca.stellardrift.permissionsex.context.ContextDefinition;
+import ca.stellardrift.permissionsex.context.ContextSet;
 import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.context.TimeContextDefinition;
 import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.data.SubjectDataReference;
 import ca.stellardrift.permissionsex.logging.PermissionCheckNotifier;
-import ca.stellardrift.permissionsex.util.CachingValue;
-import ca.stellardrift.permissionsex.util.CachingValues;
+import ca.stellardrift.permissionsex.metrics.PermissionsExMetrics;
 import ca.stellardrift.permissionsex.util.NodeTree;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableSet;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.SimpleConfigurationNode;
 
+import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
  * This is a holder that maintains the current subject data state
  */
 public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
+    private static final long BAKED_DATA_EXPIRY = TimeUnit.MINUTES.toNanos(1);
+    /**
+     * How far in the past a time context value may be while still being treated as the current time
+     */
+    private static final long CURRENT_TIME_TOLERANCE = 2000L;
+    /**
+     * How long active contexts are reused when a volatile context definition is registered, in milliseconds
+     */
+    private static final long VOLATILE_CONTEXTS_REFRESH = 50L;
+
     private final SubjectDataBaker baker;
     private final Map.Entry<String, String> identifier;
     private final SubjectType type;
     private SubjectDataReference ref, transientRef;
 
-    private final AsyncLoadingCache<Set<ContextValue<?>>, BakedSubjectData> data;
+    private final AsyncLoadingCache<ContextSet, BakedSubjectData> data;
     private final Set<Consumer<CalculatedSubject>> updateListeners = Collections.newSetFromMap(new ConcurrentHashMap<>());
-    private CachingValue<Set<ContextValue<?>>> activeContexts;
+    private final Object activeContextsLock = new Object();
+    private volatile boolean initialized;
+    private volatile ActiveContexts activeContexts;
+    private final AtomicReference<LastBake> lastBake = new AtomicReference<>(LastBake.empty());
 
     CalculatedSubject(SubjectDataBaker baker, Map.Entry<String, String> identifier, SubjectType type) {
         this.baker = Preconditions.checkNotNull(baker, "baker");
@@ -58,21 +74,55 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
         this.type = Preconditions.checkNotNull(type, "type");
         this.data = Caffeine.newBuilder()
                 .maximumSize(32)
-                .expireAfterAccess(1, TimeUnit.MINUTES)
+                .expireAfter(new Expiry<ContextSet, BakedSubjectData>() {
+                    @Override
+                    public long expireAfterCreate(ContextSet key, BakedSubjectData value, long currentTime) {
+                        return expiryFor(value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(ContextSet key, BakedSubjectData value, long currentTime, long currentDuration) {
+                        return expiryFor(value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(ContextSet key, BakedSubjectData value, long currentTime, long currentDuration) {
+                        return expiryFor(value, currentTime);
+                    }
+                })
                 .executor(type.getManager().getAsyncExecutor())
-                .buildAsync(((key, executor) -> this.baker.bake(CalculatedSubject.this, key)));
+                .recordStats(() -> type.getManager().getMetrics().getCacheCounter(PermissionsExMetrics.CACHE_BAKED_DATA))
+                .buildAsync(((key, executor) -> this.baker.bake(CalculatedSubject.this, key).thenApply(baked -> {
+                    getManager().getInheritanceGraph().addDependencies(this.identifier, baked.getDependencies());
+                    for (Map.Entry<String, String> dependency : baked.getDependencies()) {
+                        // Bakes may reuse shared contributions, so make sure we hear about changes to everything used
+                        final SubjectType dependencyType = getManager().getSubjects(dependency.getKey());
+                        dependencyType.persistentData().addListener(dependency.getValue(), this);
+                        dependencyType.transientData().addListener(dependency.getValue(), this);
+                    }
+                    return baked;
+                })));
+    }
+
+    /**
+     * Baked data expires after a minute without access, or as soon as a time window it depends on opens or closes.
+     *
+     * @param value The baked data
+     * @param currentTime The current {@link System#nanoTime()}
+     * @return The duration until expiry, in nanoseconds
+     */
+    private static long expiryFor(BakedSubjectData value, long currentTime) {
+        final long validUntil = value.getValidUntil();
+        if (validUntil == Long.MAX_VALUE) {
+            return BAKED_DATA_EXPIRY;
+        }
+        return Math.max(0, Math.min(BAKED_DATA_EXPIRY, validUntil - currentTime));
     }
 
     void initialize(SubjectDataReference persistentRef, SubjectDataReference transientRef) {
         this.ref = persistentRef;
         this.transientRef = transientRef;
-        this.activeContexts = CachingValues.cachedByTime(50L, () -> {
-            Set<ContextValue<?>> acc = new HashSet<>();
-            for (ContextDefinition<?> contextDefinition : getManager().getRegisteredContextTypes()) {
-                handleAccumulateSingle(contextDefinition, acc);
-            }
-            return acc;
-        });
+        this.initialized = true;
     }
 
     /**
@@ -105,7 +155,91 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      */
     private BakedSubjectData getData(Set<ContextValue<?>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
-        return data.synchronous().get(ImmutableSet.copyOf(contexts));
+        // Fast path: most queries use the same active context snapshot as the previous one
+        final LastBake last = this.lastBake.get();
+        if (last.contexts == contexts && last.isValid()) {
+            return last.data;
+        }
+        final BakedSubjectData ret = data.synchronous().get(bakeKey(contexts));
+        this.lastBake.compareAndSet(last, new LastBake(contexts, ret)); // lose to any invalidation since the lookup
+        return ret;
+    }
+
+    /**
+     * Bake data for a set of contexts ahead of time, so it is already cached when first queried.
+     *
+     * @param contexts The contexts to bake data in
+     * @return A future completing once data has been baked
+     */
+    CompletableFuture<Void> prebake(Set<ContextValue<?>> contexts) {
+        return this.data.get(bakeKey(Preconditions.checkNotNull(contexts, "contexts"))).thenApply(baked -> null);
+    }
+
+    /**
+     * The most recently queried baked data, along with the exact context set instance it was queried with
+     */
+    private static final class LastBake {
+        private final Set<ContextValue<?>> contexts;
+        private final BakedSubjectData data;
+
+        LastBake(Set<ContextValue<?>> contexts, BakedSubjectData data) {
+            this.contexts = contexts;
+            this.data = data;
+        }
+
+        /**
+         * Create a placeholder that matches no contexts. Each placeholder is distinct,
+         * so lookups in progress while data is invalidated will not overwrite it.
+         *
+         * @return A new empty placeholder
+         */
+        static LastBake empty() {
+            return new LastBake(null, null);
+        }
+
+        boolean isValid() {
+            final long validUntil = this.data.getValidUntil();
+            return validUntil == Long.MAX_VALUE || validUntil - System.nanoTime() > 0;
+        }
+    }
+
+    /**
+     * Create the key baked data is cached under. Time contexts holding the current time are replaced with a
+     * placeholder, so the key stays stable as time passes. Cached data instead expires when one of the time windows
+     * it depends on opens or closes.
+     *
+     * @param contexts The contexts being queried
+     * @return The cache key
+     */
+    private ContextSet bakeKey(Set<ContextValue<?>> contexts) {
+        List<ContextValue<?>> replaced = null;
+        long now = -1;
+        for (ContextValue<?> value : contexts) {
+            final ContextDefinition<?> def = getManager().getContextDefinition(value.getKey());
+            if (def instanceof TimeContextDefinition && !TimeContextDefinition.CURRENT_TIME_PLACEHOLDER.equals(value.getRawValue())) {
+                if (now == -1) {
+                    now = System.currentTimeMillis();
+                }
+                if (isCurrentTime((TimeContextDefinition) def, value, now)) {
+                    if (replaced == null) {
+                        replaced = new ArrayList<>(contexts);
+                    }
+                    replaced.remove(value);
+                    replaced.add(((TimeContextDefinition) def).getCurrentTimePlaceholder());
+                }
+            }
+        }
+        return ContextSet.of(replaced == null ? contexts : replaced);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isCurrentTime(TimeContextDefinition def, ContextValue<?> value, long now) {
+        try {
+            final long delta = now - ((ContextValue<ZonedDateTime>) value).getParsedValue(def).toInstant().toEpochMilli();
+            return delta >= 0 && delta < CURRENT_TIME_TOLERANCE;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
     }
 
     /**
@@ -114,7 +248,7 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return A node tree with the calculated permissions
      */
     public NodeTree getPermissions() {
-        return getData(getActiveContexts()).getPermissions();
+        return getData(getActiveContextSnapshot()).getPermissions();
     }
 
     /**
@@ -133,7 +267,7 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return A map of option keys to values
      */
     public Map<String, String> getOptions() {
-        return getOptions(getActiveContexts());
+        return getOptions(getActiveContextSnapshot());
     }
 
     /**
@@ -162,22 +296,88 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return The list of parents that apply to this subject
      */
     public List<Map.Entry<String, String>> getParents() {
-        return getParents(getActiveContexts());
+        return getParents(getActiveContextSnapshot());
     }
 
     /**
-     * Contexts that have been queried recently enough to still be cached
-     * @return A set of context sets that are in the lookup cache
+     * Get a modifiable copy of the contexts currently active for this subject, with time contexts set to the
+     * current time.
+     *
+     * @return A copy of the active contexts
+     * @see #getActiveContextSnapshot() to query active contexts without copying
      */
-    private Set<Set<ContextValue<?>>> getCachedContexts() {
-        return data.synchronous().asMap().keySet();
+    public Set<ContextValue<?>> getActiveContexts() {
+        return new HashSet<>(InheritanceSubjectDataBaker.resolveCurrentTime(getManager(), getActiveContextSnapshot(), System.currentTimeMillis()));
     }
 
-    public Set<ContextValue<?>> getActiveContexts() {
-        if (activeContexts == null) {
+    /**
+     * Get the contexts currently active for this subject.
+     *
+     * Active contexts are calculated once and then reused until they are invalidated with
+     * {@link #invalidateActiveContexts()}, so repeated calls return the same immutable instance. Time contexts are
+     * represented by their current time placeholder, which is resolved to the actual time whenever data is baked.
+     *
+     * @return The shared, immutable active contexts
+     */
+    public ContextSet getActiveContextSnapshot() {
+        if (!this.initialized) {
             throw new IllegalStateException("This subject has not yet been initialized! This is normally done before the future provided by PEX completes.");
         }
-        return new HashSet<>(activeContexts.get());
+        ActiveContexts ret = this.activeContexts;
+        if (ret == null || ret.isExpired()) {
+            synchronized (this.activeContextsLock) {
+                ret = this.activeContexts;
+                if (ret == null || ret.isExpired()) {
+                    ret = calculateActiveContexts();
+                    this.activeContexts = ret;
+                }
+            }
+        }
+        return ret.contexts;
+    }
+
+    /**
+     * Discard the current active contexts of this subject, so they are calculated again on next access.
+     *
+     * Implementations should call this whenever a value provided by one of their context definitions may have
+     * changed, for example when a player changes worlds or reconnects.
+     */
+    public void invalidateActiveContexts() {
+        synchronized (this.activeContextsLock) {
+            this.activeContexts = null;
+        }
+    }
+
+    private ActiveContexts calculateActiveContexts() {
+        final Set<ContextValue<?>> acc = new HashSet<>();
+        boolean hasVolatile = false;
+        for (ContextDefinition<?> contextDefinition : getManager().getRegisteredContextTypes()) {
+            if (contextDefinition instanceof TimeContextDefinition) {
+                acc.add(((TimeContextDefinition) contextDefinition).getCurrentTimePlaceholder());
+            } else {
+                hasVolatile |= contextDefinition.isVolatile();
+                handleAccumulateSingle(contextDefinition, acc);
+            }
+        }
+        return new ActiveContexts(ContextSet.of(acc),
+                hasVolatile ? System.currentTimeMillis() + VOLATILE_CONTEXTS_REFRESH : Long.MAX_VALUE);
+    }
+
+    /**
+     * A snapshot of the active contexts of a subject
+     */
+    private static final class ActiveContexts {
+        private final ContextSet contexts;
+        private final long validUntil;
+
+        ActiveContexts(ContextSet contexts, long validUntil) {
+            this.contexts = contexts;
+            this.validUntil = validUntil;
+        }
+
+        boolean isExpired() {
+            return this.validUntil != Long.MAX_VALUE && this.validUntil <= System.currentTimeMillis();
+        }
     }
 
     public CompletableFuture<Set<ContextValue<?>>> getUsedContextValues() {
@@ -207,7 +407,8 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return The permission value. &lt;0 evaluates to false, 0 is undefined, and &gt;0 evaluates to true.
      */
     public int getPermission(Set<ContextValue<?>> contexts, String permission) {
-        int ret = getPermissions(contexts).get(Preconditions.checkNotNull(permission, "permission"));
+        int ret = getData(contexts).getPermission(Preconditions.checkNotNull(permission, "permission"));
+        getManager().getMetrics().getPermissionChecks().mark();
         getManager().getNotifier().onPermissionCheck(getIdentifier(), contexts, permission, ret);
         return ret;
     }
@@ -223,7 +424,7 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return The permission value. &lt;0 evaluates to false, 0 is undefined, and &gt;0 evaluates to true.
      */
     public int getPermission(String permission) {
-        return getPermission(getActiveContexts(), permission);
+        return getPermission(getActiveContextSnapshot(), permission);
     }
 
     /**
@@ -265,7 +466,7 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return The option, if set
      */
     public Optional<String> getOption(String option) {
-        return getOption(getActiveContexts(), option);
+        return getOption(getActiveContextSnapshot(), option);
     }
 
     /**
@@ -294,7 +495,7 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      * @return The option, if set
      */
     public ConfigurationNode getOptionNode(String option) {
-        return getOptionNode(getActiveContexts(), option);
+        return getOptionNode(getActiveContextSnapshot(), option);
     }
 
     /**
@@ -357,19 +558,25 @@ public class CalculatedSubject implements Consumer<ImmutableSubjectData> {
      */
     @Override
     public void accept(ImmutableSubjectData newData) {
-        data.synchronous().invalidateAll();
-        getManager().getActiveSubjectTypes().stream()
-                .flatMap(type -> type.getActiveSubjects().stream())
-                .filter(subj -> {
-                    for (Set<ContextValue<?>> ent : subj.getCachedContexts()) {
-                        if (subj.getParents(ent).contains(this.identifier)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                })
-                .forEach(subj -> subj.data.synchronous().invalidateAll());
+        invalidateActiveContexts(); // contexts may be derived from subject data
+        invalidateBakedData();
+        for (Map.Entry<String, String> dependent : getManager().getInheritanceGraph().getDependents(this.identifier)) {
+            CalculatedSubject subj = getManager().getSubjects(dependent.getKey()).getIfActive(dependent.getValue());
+            if (subj != null) {
+                subj.invalidateBakedData();
+            }
+        }
         updateListeners.forEach(listener -> listener.accept(this));
     }
 
+    /**
+     * Discard all baked data for this subject, and forget which subjects it depended on
+     */
+    void invalidateBakedData() {
+        data.synchronous().invalidateAll();
+        getManager().getInheritanceGraph().clearDependencies(this.identifier);
+        // Reset last, so a lookup that started before invalidation cannot store stale data after the reset
+        this.lastBake.set(LastBake.empty());
+    }
+
 }
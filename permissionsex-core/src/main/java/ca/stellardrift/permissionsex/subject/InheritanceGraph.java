@@ -0,0 +1,98 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.subject;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index of which subjects each calculated subject's baked data was derived from, kept in both directions.
+ *
+ * Dependencies are recorded as bakes complete, and include every subject visited while baking -- parents
+ * at any depth, as well as default and fallback subjects. Because of this, the dependents of a subject
+ * are all of its transitive descendants, and a change to a subject only has to invalidate those.
+ */
+public final class InheritanceGraph {
+    private final ConcurrentMap<Map.Entry<String, String>, Set<Map.Entry<String, String>>> dependencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Map.Entry<String, String>, Set<Map.Entry<String, String>>> dependents = new ConcurrentHashMap<>();
+
+    public InheritanceGraph() {
+    }
+
+    /**
+     * Record that a subject's baked data was calculated using data from each of the provided subjects.
+     *
+     * @param subject The subject that was baked
+     * @param dependencies Every subject visited during the bake
+     */
+    void addDependencies(Map.Entry<String, String> subject, Collection<Map.Entry<String, String>> dependencies) {
+        Preconditions.checkNotNull(subject, "subject");
+        final Set<Map.Entry<String, String>> existing = this.dependencies.computeIfAbsent(subject, k -> ConcurrentHashMap.newKeySet());
+        for (Map.Entry<String, String> dependency : dependencies) {
+            if (!dependency.equals(subject) && existing.add(dependency)) {
+                this.dependents.computeIfAbsent(dependency, k -> ConcurrentHashMap.newKeySet()).add(subject);
+            }
+        }
+    }
+
+    /**
+     * Forget every dependency of a subject, for example once its baked data has been invalidated.
+     *
+     * @param subject The subject to remove dependencies of
+     */
+    void clearDependencies(Map.Entry<String, String> subject) {
+        Preconditions.checkNotNull(subject, "subject");
+        final Set<Map.Entry<String, String>> existing = this.dependencies.remove(subject);
+        if (existing != null) {
+            for (Map.Entry<String, String> dependency : existing) {
+                this.dependents.computeIfPresent(dependency, (k, v) -> {
+                    v.remove(subject);
+                    return v.isEmpty() ? null : v;
+                });
+            }
+        }
+    }
+
+    /**
+     * Get every subject whose currently baked data depends on the provided subject
+     *
+     * @param subject The subject to query
+     * @return An immutable copy of the dependent subjects
+     */
+    public Set<Map.Entry<String, String>> getDependents(Map.Entry<String, String> subject) {
+        final Set<Map.Entry<String, String>> ret = this.dependents.get(Preconditions.checkNotNull(subject, "subject"));
+        return ret == null ? ImmutableSet.of() : ImmutableSet.copyOf(ret);
+    }
+
+    /**
+     * Get every subject the currently baked data of the provided subject depends on
+     *
+     * @param subject The subject to query
+     * @return An immutable copy of the subjects depended on
+     */
+    public Set<Map.Entry<String, String>> getDependencies(Map.Entry<String, String> subject) {
+        final Set<Map.Entry<String, String>> ret = this.dependencies.get(Preconditions.checkNotNull(subject, "subject"));
+        return ret == null ? ImmutableSet.of() : ImmutableSet.copyOf(ret);
+    }
+}
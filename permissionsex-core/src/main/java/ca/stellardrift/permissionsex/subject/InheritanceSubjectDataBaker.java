@@ -18,16 +18,20 @@
 package ca.stellardrift.permissionsex.subject;
 
 import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.context.ContextDefinition;
+import ca.stellardrift.permissionsex.context.ContextSet;
 import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.context.TimeContextDefinition;
+import ca.stellardrift.permissionsex.data.ContextInheritanceClosure;
 import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
 import ca.stellardrift.permissionsex.util.NodeTree;
 import ca.stellardrift.permissionsex.util.Util;
-import ca.stellardrift.permissionsex.util.glob.GlobParseException;
-import ca.stellardrift.permissionsex.util.glob.Globs;
 import com.google.common.collect.*;
 
+import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static java.util.Map.Entry;
@@ -44,51 +48,103 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
 
     private static class BakeState {
         // Accumulators
-        private final Map<String, Integer> combinedPermissions = new HashMap<>();
+        /**
+         * Ordered by when each permission's current value was set, which decides ties between overlapping globs
+         */
+        private final Map<String, Integer> combinedPermissions = new LinkedHashMap<>();
         private final List<Entry<String, String>> parents = new ArrayList<>();
         private final Map<String, String> options = new HashMap<>();
         private int defaultValue;
+        private long validUntil = Long.MAX_VALUE;
+        private final Set<Entry<String, String>> dependencies = new HashSet<>();
+        /**
+         * The persistent and transient data each dependency was read from, to detect changes made during the bake
+         */
+        private final Map<Entry<String, String>, Entry<ImmutableSubjectData, ImmutableSubjectData>> readData = new HashMap<>();
+        private boolean circular;
 
         // State objects
         private final CalculatedSubject base;
         private final PermissionsEx<?> pex;
-        private final Set<ContextValue<?>> activeContexts;
+        private final ContextSet rawContexts;
+        private final ContextSet activeContexts;
+        private final long bakeTime;
+        private final boolean timeSensitive;
 
-        private BakeState(CalculatedSubject base, Set<ContextValue<?>> activeContexts) {
+        private BakeState(CalculatedSubject base, ContextSet rawContexts, ContextSet activeContexts, long bakeTime, boolean timeSensitive) {
             this.base = base;
+            this.rawContexts = rawContexts;
             this.activeContexts = activeContexts;
             this.pex = base.getManager();
+            this.bakeTime = bakeTime;
+            this.timeSensitive = timeSensitive;
+        }
+
+        /**
+         * Create a state with empty accumulators, to calculate the contribution of a single inherited subject
+         *
+         * @param parent The state of the bake the contribution is for
+         */
+        private BakeState(BakeState parent) {
+            this(parent.base, parent.rawContexts, parent.activeContexts, parent.bakeTime, parent.timeSensitive);
         }
     }
 
-    private static CompletableFuture<Set<ContextValue<?>>> processContexts(PermissionsEx<?> pex, Set<ContextValue<?>> rawContexts) {
-        return pex.getContextInheritance(null).thenApply(inheritance -> {
-            // Step one: calculate context inheritance
-            Queue<ContextValue<?>> inProgressContexts = new LinkedList<>(rawContexts);
-            Set<ContextValue<?>> contexts = new HashSet<>();
-            ContextValue<?> context;
-            while ((context = inProgressContexts.poll()) != null) {
-                if (contexts.add(context)) {
-                    inProgressContexts.addAll(inheritance.getParents(context));
+    /**
+     * Replace any placeholders for the current time with the actual time of this bake
+     *
+     * @param pex The permissions engine
+     * @param rawContexts The contexts being baked for
+     * @param bakeTime The current time, in epoch milliseconds
+     * @return The contexts with current time placeholders resolved, or the input contexts if there were none
+     */
+    static ContextSet resolveCurrentTime(PermissionsEx<?> pex, ContextSet rawContexts, long bakeTime) {
+        Set<ContextValue<?>> ret = null;
+        for (ContextValue<?> value : rawContexts) {
+            if (TimeContextDefinition.CURRENT_TIME_PLACEHOLDER.equals(value.getRawValue())) {
+                ContextDefinition<?> def = pex.getContextDefinition(value.getKey());
+                if (def instanceof TimeContextDefinition) {
+                    if (ret == null) {
+                        ret = new HashSet<>(rawContexts);
+                    }
+                    ret.remove(value);
+                    ret.add(((TimeContextDefinition) def).valueAt(bakeTime));
                 }
             }
+        }
+        return ret == null ? rawContexts : ContextSet.of(ret);
+    }
 
-            return ImmutableSet.copyOf(contexts);
-        });
+    private static CompletableFuture<ContextSet> processContexts(PermissionsEx<?> pex, Set<ContextValue<?>> rawContexts) {
+        return pex.getContextInheritanceClosure().thenApply(closure -> closure.expand(rawContexts));
     }
 
     @Override
-    public CompletableFuture<BakedSubjectData> bake(CalculatedSubject data, Set<ContextValue<?>> activeContexts) {
+    public CompletableFuture<BakedSubjectData> bake(CalculatedSubject data, Set<ContextValue<?>> queriedContexts) {
         final Map.Entry<String, String> subject = data.getIdentifier();
-        return processContexts(data.getManager(), activeContexts)
+        final ContextSet activeContexts = ContextSet.of(queriedContexts);
+        final long bakeTime = System.currentTimeMillis();
+        final long bakeTimeNanos = System.nanoTime();
+        final ContextSet resolvedContexts = resolveCurrentTime(data.getManager(), activeContexts, bakeTime);
+        final boolean timeSensitive = resolvedContexts != activeContexts;
+
+        // Fast path: when every input is already loaded, bake on the calling thread without building a chain of futures
+        final CompletableFuture<ContextInheritanceClosure> inheritance = data.getManager().getContextInheritanceClosure();
+        if (inheritance.isDone() && !inheritance.isCompletedExceptionally()) {
+            final BakeState state = new BakeState(data, activeContexts, inheritance.join().expand(resolvedContexts), bakeTime, timeSensitive);
+            if (bakeSync(state, data)) {
+                return CompletableFuture.completedFuture(createBakedData(state, bakeTimeNanos));
+            }
+        }
+
+        return processContexts(data.getManager(), resolvedContexts)
                 .thenCompose(processedContexts -> {
-                    final BakeState state = new BakeState(data, processedContexts);
+                    final BakeState state = new BakeState(data, activeContexts, processedContexts, bakeTime, timeSensitive);
 
                     final Multiset<Entry<String, String>> visitedSubjects = HashMultiset.create();
                     CompletableFuture<Void> ret = visitSubject(state, subject, visitedSubjects, 0);
 
-                    if (state.parents.isEmpty() && state.combinedPermissions.isEmpty() && state.options.isEmpty() && state.defaultValue == 0 && !(subject.getKey().equals(PermissionsEx.SUBJECTS_FALLBACK)
-                            && subject.getValue().equals(PermissionsEx.SUBJECTS_FALLBACK))) { // If we have no data, include the fallback subject
+                    if (shouldVisitFallback(state, subject)) { // If we have no data, include the fallback subject
                         ret = ret.thenCompose(none -> visitSubject(state, Maps.immutableEntry(PermissionsEx.SUBJECTS_FALLBACK, subject.getKey()), visitedSubjects, 0));
                     }
 
@@ -99,20 +155,180 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
                     }
                     return ret.thenApply(none -> state);
 
-                }).thenApply(state -> new BakedSubjectData(NodeTree.of(state.combinedPermissions, state.defaultValue), ImmutableList.copyOf(state.parents), ImmutableMap.copyOf(state.options)));
+                }).thenApply(state -> createBakedData(state, bakeTimeNanos));
     }
 
-    private CompletableFuture<Void> visitSubject(BakeState state, Map.Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
+    private static BakedSubjectData createBakedData(BakeState state, long bakeTimeNanos) {
+        state.pex.getMetrics().getBakes().recordSince(bakeTimeNanos);
+        return new BakedSubjectData(NodeTree.of(state.combinedPermissions, state.defaultValue), ImmutableList.copyOf(state.parents), ImmutableMap.copyOf(state.options), state.pex.getPermissionMemoStatistics(),
+                state.validUntil == Long.MAX_VALUE ? Long.MAX_VALUE : bakeTimeNanos + TimeUnit.MILLISECONDS.toNanos(state.validUntil - state.bakeTime),
+                ImmutableSet.copyOf(state.dependencies));
+    }
+
+    private static boolean shouldVisitFallback(BakeState state, Entry<String, String> subject) {
+        return state.parents.isEmpty() && state.combinedPermissions.isEmpty() && state.options.isEmpty() && state.defaultValue == 0
+                && !(subject.getKey().equals(PermissionsEx.SUBJECTS_FALLBACK) && subject.getValue().equals(PermissionsEx.SUBJECTS_FALLBACK));
+    }
+
+    private static boolean isCircular(BakeState state, Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects) {
         if (visitedSubjects.count(subject) > CIRCULAR_INHERITANCE_THRESHOLD) {
             state.pex.getLogger().warn(Messages.BAKER_ERROR_CIRCULAR_INHERITANCE.toComponent(state.base.getIdentifier(), subject));
+            state.circular = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Bake using only data that is already loaded, without waiting on any futures.
+     *
+     * @param state The bake state to populate
+     * @param data The subject being baked
+     * @return true if the bake completed, false if some data was not loaded and the state must be discarded
+     */
+    private boolean bakeSync(BakeState state, CalculatedSubject data) {
+        final Entry<String, String> subject = data.getIdentifier();
+        final Multiset<Entry<String, String>> visitedSubjects = HashMultiset.create();
+        if (!visitSubjectSync(state, subject, visitedSubjects, 0)) {
+            return false;
+        }
+
+        if (shouldVisitFallback(state, subject)
+                && !visitSubjectSync(state, Maps.immutableEntry(PermissionsEx.SUBJECTS_FALLBACK, subject.getKey()), visitedSubjects, 0)) {
+            return false;
+        }
+
+        Entry<String, String> defIdentifier = data.data().getCache().getDefaultIdentifier();
+        if (!subject.equals(defIdentifier)) {
+            return visitSubjectSync(state, defIdentifier, visitedSubjects, 1)
+                    && visitSubjectSync(state, Maps.immutableEntry(PermissionsEx.SUBJECTS_DEFAULTS, PermissionsEx.SUBJECTS_DEFAULTS), visitedSubjects, 2);
+        }
+        return true;
+    }
+
+    private boolean visitSubjectSync(BakeState state, Map.Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
+        if (isCircular(state, subject, visitedSubjects)) {
+            return true;
+        }
+        if (inheritanceLevel == 0) {
+            return visitSubjectDataSync(state, subject, visitedSubjects, inheritanceLevel);
+        }
+
+        final BakeContributionCache.Key key = contributionKey(state, subject, inheritanceLevel);
+        final BakeContributionCache.Contribution cached = state.pex.getBakeContributions().get(key, state.bakeTime);
+        if (cached != null) {
+            mergeContribution(state, cached);
+            return true;
+        }
+
+        final BakeState contributionState = new BakeState(state);
+        if (!visitSubjectDataSync(contributionState, subject, visitedSubjects, inheritanceLevel)) {
+            return false;
+        }
+        completeContribution(state, contributionState, key);
+        return true;
+    }
+
+    private boolean visitSubjectDataSync(BakeState state, Map.Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
+        SubjectType type = state.pex.getSubjects(subject.getKey());
+        final ImmutableSubjectData persistent = type.persistentData().getDataIfPresent(subject.getValue());
+        final ImmutableSubjectData transientData = type.transientData().getDataIfPresent(subject.getValue());
+        if (persistent == null || transientData == null) {
+            return false;
+        }
+        visitedSubjects.add(subject);
+        state.dependencies.add(subject);
+        state.readData.put(subject, Maps.immutableEntry(persistent, transientData));
+
+        final boolean transientFirst = type.getTypeInfo().transientHasPriority();
+        for (Set<ContextValue<?>> combo : processContexts(persistent, transientData, state)) {
+            if (!visitSubjectSingleSync(state, transientFirst ? transientData : persistent, combo, visitedSubjects, inheritanceLevel)
+                    || !visitSubjectSingleSync(state, transientFirst ? persistent : transientData, combo, visitedSubjects, inheritanceLevel)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean visitSubjectSingleSync(BakeState state, ImmutableSubjectData data, Set<ContextValue<?>> activeCombo, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
+        visitSingle(state, data, activeCombo, inheritanceLevel);
+        for (Entry<String, String> parent : data.getParents(activeCombo)) {
+            if (!visitSubjectSync(state, parent, visitedSubjects, inheritanceLevel + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CompletableFuture<Void> visitSubject(BakeState state, Map.Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
+        if (isCircular(state, subject, visitedSubjects)) {
             return Util.emptyFuture();
         }
+        if (inheritanceLevel == 0) {
+            return visitSubjectData(state, subject, visitedSubjects, inheritanceLevel);
+        }
+
+        final BakeContributionCache.Key key = contributionKey(state, subject, inheritanceLevel);
+        final BakeContributionCache.Contribution cached = state.pex.getBakeContributions().get(key, state.bakeTime);
+        if (cached != null) {
+            mergeContribution(state, cached);
+            return Util.emptyFuture();
+        }
+
+        final BakeState contributionState = new BakeState(state);
+        return visitSubjectData(contributionState, subject, visitedSubjects, inheritanceLevel)
+                .thenRun(() -> completeContribution(state, contributionState, key));
+    }
+
+    /**
+     * Inherited subjects contribute the same data to every bake in the same contexts, so that is shared between bakes.
+     * Non-inheritable permissions are only visible to the first two levels, so deeper levels can share a contribution.
+     */
+    private static BakeContributionCache.Key contributionKey(BakeState state, Map.Entry<String, String> subject, int inheritanceLevel) {
+        return new BakeContributionCache.Key(subject, Math.min(inheritanceLevel, 2), state.rawContexts);
+    }
+
+    private void completeContribution(BakeState state, BakeState contributionState, BakeContributionCache.Key key) {
+        final BakeContributionCache.Contribution contribution = new BakeContributionCache.Contribution(contributionState.combinedPermissions,
+                contributionState.parents, contributionState.options, contributionState.defaultValue, contributionState.validUntil, contributionState.dependencies,
+                contributionState.readData);
+        if (contributionState.circular) { // Truncated by circular inheritance, so only valid for this bake
+            state.circular = true;
+        } else {
+            state.pex.getBakeContributions().put(state.pex, key, contribution);
+        }
+        mergeContribution(state, contribution);
+    }
+
+    private void mergeContribution(BakeState state, BakeContributionCache.Contribution contribution) {
+        for (Map.Entry<String, Integer> ent : contribution.permissions.entrySet()) {
+            putPermIfNecessary(state, ent.getKey(), ent.getValue());
+        }
+        state.parents.addAll(contribution.parents);
+        for (Map.Entry<String, String> ent : contribution.options.entrySet()) {
+            state.options.putIfAbsent(ent.getKey(), ent.getValue());
+        }
+        if (Math.abs(contribution.defaultValue) > Math.abs(state.defaultValue)) {
+            state.defaultValue = contribution.defaultValue;
+        }
+        if (contribution.validUntil < state.validUntil) {
+            state.validUntil = contribution.validUntil;
+        }
+        state.dependencies.addAll(contribution.dependencies);
+        state.readData.putAll(contribution.readData);
+    }
+
+    private CompletableFuture<Void> visitSubjectData(BakeState state, Map.Entry<String, String> subject, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
         visitedSubjects.add(subject);
+        state.dependencies.add(subject);
         SubjectType type = state.pex.getSubjects(subject.getKey());
         return type.persistentData().getData(subject.getValue(), state.base).thenCombine(type.transientData().getData(subject.getValue(), state.base), (persistent, transientData) -> {
             CompletableFuture<Void> ret = Util.emptyFuture();
+            synchronized (state.readData) {
+                state.readData.put(subject, Maps.immutableEntry(persistent, transientData));
+            }
 
-            for (Set<ContextValue<?>> combo : processContexts(persistent.getActiveContexts(), transientData.getActiveContexts(), state)) {
+            for (Set<ContextValue<?>> combo : processContexts(persistent, transientData, state)) {
                 if (type.getTypeInfo().transientHasPriority()) {
                     ret = visitSubjectSingle(state, transientData, ret, combo, visitedSubjects, inheritanceLevel);
                     ret = visitSubjectSingle(state, persistent, ret, combo, visitedSubjects, inheritanceLevel);
@@ -125,11 +341,11 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
         }).thenCompose(res -> res);
     }
 
-    private List<Set<ContextValue<?>>> processContexts(Set<Set<ContextValue<?>>> possibilities, Set<Set<ContextValue<?>>> transientPossibilities, BakeState state) {
-        List<Set<ContextValue<?>>> ret = new LinkedList<>();
-        Set<Set<ContextValue<?>>> seen = new HashSet<>(possibilities.size());
-        processSingleDataContexts(ret, seen, possibilities, state);
-        processSingleDataContexts(ret, seen, transientPossibilities, state);
+    private List<Set<ContextValue<?>>> processContexts(ImmutableSubjectData persistent, ImmutableSubjectData transientData, BakeState state) {
+        List<Set<ContextValue<?>>> ret = new ArrayList<>();
+        Set<Set<ContextValue<?>>> seen = new HashSet<>();
+        processSingleDataContexts(ret, seen, persistent, state);
+        processSingleDataContexts(ret, seen, transientData, state);
         ret.sort(Comparator.<Set<ContextValue<?>>>comparingInt(Set::size).reversed());
         return ret;
     }
@@ -139,42 +355,53 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
      * every context matches at least one of the active contexts provided for the query
      *
      * @param accum Accumulator of context sets
-     * @param possibilities The possible contexts provided by the subject data
+     * @param data The subject data providing possible contexts
      * @param state The bake state
      */
-    private void processSingleDataContexts(List<Set<ContextValue<?>>> accum, Set<Set<ContextValue<?>>> seen, Set<Set<ContextValue<?>>> possibilities, BakeState state) {
-        nextSegment: for (Set<ContextValue<?>> segmentContexts : possibilities) {
-            if (seen.contains(segmentContexts)) {
+    private void processSingleDataContexts(List<Set<ContextValue<?>>> accum, Set<Set<ContextValue<?>>> seen, ImmutableSubjectData data, BakeState state) {
+        final SegmentMatchers.Compiled matchers = state.pex.getSegmentMatchers().get(state.pex, data);
+        final long activeExact = matchers.activeExact(state.activeContexts);
+        for (int i = 0; i < matchers.size(); ++i) {
+            final ContextSet segmentContexts = matchers.segment(i);
+            if (!seen.add(segmentContexts)) {
                 continue;
             }
-            seen.add(segmentContexts);
-
-            for (ContextValue<?> value : segmentContexts) {
-                boolean matched = false;
-                for (ContextValue<?> possibility : state.activeContexts) {
-                    if (checkSingleContextMatch(value, possibility, state.pex)) {
-                        matched = true;
-                        break;
-                    }
-                }
 
-                if (!matched) {
-                    continue nextSegment;
+            if (state.timeSensitive) {
+                for (ContextValue<?> value : segmentContexts) {
+                    updateValidity(value, state);
                 }
             }
-            accum.add(segmentContexts);
+
+            if (matchers.matches(i, activeExact, state.activeContexts)) {
+                accum.add(segmentContexts);
+            }
         }
     }
 
 
+    /**
+     * If a segment context is time-based, shorten the validity of the baked data to when its time window opens or closes.
+     *
+     * @param value The segment context
+     * @param state The bake state
+     */
     @SuppressWarnings("unchecked")
-    private <T> boolean checkSingleContextMatch(ContextValue<T> value, ContextValue<?> other, PermissionsEx<?> pex) {
-        return value.getKey().equals(other.getKey()) && value.tryResolve(pex)
-                && value.getDefinition().matches(value, ((ContextValue<T>) other).getParsedValue(value.getDefinition()));
+    private void updateValidity(ContextValue<?> value, BakeState state) {
+        ContextDefinition<?> def = state.pex.getContextDefinition(value.getKey());
+        if (def instanceof TimeContextDefinition) {
+            TimeContextDefinition timeDef = (TimeContextDefinition) def;
+            try {
+                long transition = timeDef.nextTransition(((ContextValue<ZonedDateTime>) value).getParsedValue(timeDef), state.bakeTime);
+                if (transition < state.validUntil) {
+                    state.validUntil = transition;
+                }
+            } catch (IllegalArgumentException ex) {
+                // Value can't be parsed, so it will never match
+            }
+        }
     }
 
-
-
     private CompletableFuture<Void> visitSubjectSingle(BakeState state, ImmutableSubjectData data, CompletableFuture<Void> initial, Set<ContextValue<?>> activeCombo, Multiset<Entry<String, String>> visitedSubjects, int inheritanceLevel) {
         initial = initial.thenRun(() -> visitSingle(state, data, activeCombo, inheritanceLevel));
         for (Entry<String, String> parent : data.getParents(activeCombo)) {
@@ -185,7 +412,10 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
 
     private void putPermIfNecessary(BakeState state, String perm, int val) {
         Integer existing = state.combinedPermissions.get(perm);
-        if (existing == null || Math.abs(val) > Math.abs(existing)) {
+        if (existing == null) {
+            state.combinedPermissions.put(perm, val);
+        } else if (Math.abs(val) > Math.abs(existing)) {
+            state.combinedPermissions.remove(perm); // move to the end, so the value set first still wins any ties
             state.combinedPermissions.put(perm, val);
         }
     }
@@ -200,13 +430,7 @@ class InheritanceSubjectDataBaker implements SubjectDataBaker {
                 perm = perm.substring(1);
             }
 
-            try {
-                for (String matched : Globs.parse(perm)) {
-                    putPermIfNecessary(state, matched, ent.getValue());
-                }
-            } catch (GlobParseException e) { // If the permission is not a valid glob, assume it's a literal
-                putPermIfNecessary(state, perm, ent.getValue());
-            }
+            putPermIfNecessary(state, perm, ent.getValue()); // globs are matched by the node tree, not expanded here
         }
 
         state.parents.addAll(data.getParents(specificCombination).stream()
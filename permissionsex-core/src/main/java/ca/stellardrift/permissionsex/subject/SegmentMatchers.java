@@ -0,0 +1,186 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.subject;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.context.ContextDefinition;
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Precompiled matchers deciding which segments of a subject's data apply in a set of active contexts.
+ *
+ * Each segment's contexts are resolved against their definitions once per data object rather than once per bake.
+ * Contexts whose definitions match on raw value alone (see {@link ContextDefinition#isExactMatch()}) are assigned
+ * a bit, so most segments can be accepted or rejected with a single mask test. Matchers are held weakly by the
+ * data object they were compiled from, and discarded whenever context definitions change.
+ */
+public final class SegmentMatchers {
+    private final Cache<ImmutableSubjectData, Compiled> matchers = Caffeine.newBuilder()
+            .weakKeys()
+            .build();
+
+    public SegmentMatchers() {
+    }
+
+    /**
+     * Get the matchers for a data object, compiling them if necessary
+     *
+     * @param pex The engine to resolve context definitions from
+     * @param data The subject data
+     * @return The compiled matchers
+     */
+    Compiled get(PermissionsEx<?> pex, ImmutableSubjectData data) {
+        return this.matchers.get(data, key -> new Compiled(pex, key));
+    }
+
+    /**
+     * Discard every compiled matcher, for example when the registered context definitions change
+     */
+    public void invalidateAll() {
+        this.matchers.invalidateAll();
+    }
+
+    /**
+     * The matchers for every segment of a single data object.
+     */
+    static final class Compiled {
+        private static final int MAX_EXACT_VALUES = Long.SIZE;
+
+        private final ContextSet[] segments;
+        private final long[] requiredExact;
+        /**
+         * Segment contexts that must be matched through their definition, or null if a segment can never match
+         */
+        private final ContextValue<?>[][] remaining;
+        private final ContextValue<?>[] exactValues;
+
+        Compiled(PermissionsEx<?> pex, ImmutableSubjectData data) {
+            final Set<Set<ContextValue<?>>> keys = data.getActiveContexts();
+            final List<ContextValue<?>> exact = new ArrayList<>();
+            this.segments = new ContextSet[keys.size()];
+            this.requiredExact = new long[keys.size()];
+            this.remaining = new ContextValue<?>[keys.size()][];
+
+            int i = 0;
+            for (Set<ContextValue<?>> key : keys) {
+                final ContextSet segment = ContextSet.of(key);
+                final List<ContextValue<?>> remaining = new ArrayList<>();
+                long required = 0;
+                boolean resolvable = true;
+                for (ContextValue<?> value : segment) {
+                    if (!value.tryResolve(pex)) {
+                        resolvable = false;
+                        break;
+                    }
+                    final ContextDefinition<?> definition = value.getDefinition();
+                    int bit = definition != null && definition.isExactMatch() ? exact.indexOf(value) : -1;
+                    if (bit == -1 && definition != null && definition.isExactMatch() && exact.size() < MAX_EXACT_VALUES) {
+                        bit = exact.size();
+                        exact.add(value);
+                    }
+
+                    if (bit == -1) {
+                        remaining.add(value);
+                    } else {
+                        required |= 1L << bit;
+                    }
+                }
+                this.segments[i] = segment;
+                this.requiredExact[i] = required;
+                this.remaining[i] = resolvable ? remaining.toArray(new ContextValue<?>[0]) : null;
+                ++i;
+            }
+            this.exactValues = exact.toArray(new ContextValue<?>[0]);
+        }
+
+        /**
+         * Get the number of segments in the data
+         *
+         * @return The segment count
+         */
+        int size() {
+            return this.segments.length;
+        }
+
+        /**
+         * Get the contexts of a segment
+         *
+         * @param index The segment index
+         * @return The segment contexts
+         */
+        ContextSet segment(int index) {
+            return this.segments[index];
+        }
+
+        /**
+         * Calculate which exact-match values are present in the active contexts. The result should be passed to
+         * {@link #matches(int, long, ContextSet)} for each segment.
+         *
+         * @param activeContexts The active contexts of the bake
+         * @return A mask of the present values
+         */
+        long activeExact(ContextSet activeContexts) {
+            long ret = 0;
+            for (int i = 0; i < this.exactValues.length; ++i) {
+                if (activeContexts.contains(this.exactValues[i])) {
+                    ret |= 1L << i;
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Get whether every context of a segment matches at least one active context.
+         *
+         * @param index The segment index
+         * @param activeExact The mask returned by {@link #activeExact(ContextSet)} for these active contexts
+         * @param activeContexts The active contexts
+         * @return whether the segment applies
+         */
+        boolean matches(int index, long activeExact, ContextSet activeContexts) {
+            final ContextValue<?>[] remaining = this.remaining[index];
+            if (remaining == null || (this.requiredExact[index] & ~activeExact) != 0) {
+                return false;
+            }
+            nextValue: for (ContextValue<?> value : remaining) {
+                for (ContextValue<?> possibility : activeContexts) {
+                    if (matchesSingle(value, possibility)) {
+                        continue nextValue;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> boolean matchesSingle(ContextValue<T> value, ContextValue<?> other) {
+            final ContextDefinition<T> definition = value.getDefinition();
+            return definition != null && value.getKey().equals(other.getKey())
+                    && definition.matches(value, ((ContextValue<T>) other).getParsedValue(definition));
+        }
+    }
+}
@@ -19,9 +19,12 @@ package ca.stellardrift.permissionsex.subject;
 
 import ca.stellardrift.permissionsex.PermissionsEx;
 import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.config.SubjectCacheConfiguration;
 import ca.stellardrift.permissionsex.data.SubjectCache;
+import ca.stellardrift.permissionsex.metrics.PermissionsExMetrics;
 import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.Collections;
@@ -43,7 +46,10 @@ public class SubjectType {
         this.type = SubjectTypeDefinition.defaultFor(type);
         this.persistentData = persistentData;
         this.transientData = transientData; 
-        cache = Caffeine.newBuilder().executor(pex.getAsyncExecutor()).buildAsync(((key, executor) -> {
+        cache = Caffeine.newBuilder()
+                .executor(pex.getAsyncExecutor())
+                .recordStats(() -> pex.getMetrics().getCacheCounter(PermissionsExMetrics.CACHE_SUBJECTS))
+                .buildAsync(((key, executor) -> {
             CalculatedSubject subj = new CalculatedSubject(SubjectDataBaker.inheritance(), this.pex.createSubjectIdentifier(this.type.getTypeName(), key), SubjectType.this);
             return persistentData.getReference(key, false).thenCombine(transientData.getReference(key, false), (persistentRef, transientRef) -> {
                 subj.initialize(persistentRef, transientRef);
@@ -79,6 +85,18 @@ public class SubjectType {
         return Collections.unmodifiableCollection(this.cache.synchronous().asMap().values());
     }
 
+    /**
+     * Get a calculated subject only if it is already loaded, without triggering a load.
+     *
+     * @param identifier The identifier of the subject
+     * @return The loaded subject, or null if it is not active
+     */
+    @Nullable
+    public CalculatedSubject getIfActive(String identifier) {
+        CompletableFuture<CalculatedSubject> ret = this.cache.getIfPresent(identifier);
+        return ret == null ? null : ret.getNow(null);
+    }
+
     /**
      * Request that a given identifier be removed from the cached data stores.
      *
@@ -92,6 +110,7 @@ public class SubjectType {
         persistentData.invalidate(identifier);
         transientData.invalidate(identifier);
         cache.synchronous().invalidate(identifier);
+        pex.getInheritanceGraph().clearDependencies(pex.createSubjectIdentifier(type.getTypeName(), identifier));
     }
 
     /**
@@ -145,6 +164,18 @@ public class SubjectType {
         this.persistentData.update(newDataStore);
     }
 
+    /**
+     * For internal use only. Update the data store and cache limits associated with this cache, when for example the
+     * engine is reloaded.
+     *
+     * @param newDataStore The new data store to work off of
+     * @param config The new cache limits
+     */
+    public void update(DataStore newDataStore, SubjectCacheConfiguration config) {
+        this.persistentData.update(newDataStore, config);
+        this.transientData.update(this.transientData.getDataStore(), config);
+    }
+
     /**
      * Request that a subject of a given identifier is loaded into the cache. This operation completes asynchronously.
      *
@@ -17,9 +17,18 @@
 
 package ca.stellardrift.permissionsex.util;
 
+import ca.stellardrift.permissionsex.util.glob.GlobNode;
+import ca.stellardrift.permissionsex.util.glob.Globs;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -27,21 +36,36 @@ import java.util.regex.Pattern;
  * An immutable tree structure for determining node data. Any changes will create new copies of the necessary tree objects.
  * Keys are case-insensitive.
  * Segments of nodes are split by the '.' character
+ *
+ * Keys may be glob expressions (see {@link Globs}). Rather than being expanded into every node they match, globs are
+ * attached to the tree at their longest literal prefix and matched against queried nodes at lookup time. A literal
+ * key replaces any earlier literal key for the same node, as keys are case-insensitive. Where globs overlap each
+ * other or a literal key, the value of greater magnitude wins, then the key that came first in the source map.
  */
 public class NodeTree {
     public static final int PERMISSION_UNDEFINED = 0;
 
     private static final Pattern SPLIT_REGEX = Pattern.compile("\\.");
+    /**
+     * Ordinal given to values set through {@link #withValue(String, int)}, which take priority over existing values
+     */
+    private static final int OVERRIDE_ORDINAL = Integer.MIN_VALUE;
+    /**
+     * Scratch state for lookups in trees with globs, reused so a lookup does not allocate its own
+     */
+    private static final ThreadLocal<Resolution> RESOLUTION = ThreadLocal.withInitial(Resolution::new);
     private final Node rootNode;
+    private final boolean hasGlobs;
+    private final Compiled compiled;
 
-
-    private NodeTree(int value) {
-        this.rootNode = new Node(new HashMap<>());
-        this.rootNode.value = value;
+    private NodeTree(Node rootNode, boolean hasGlobs) {
+        this(rootNode, hasGlobs, null);
     }
 
-    private NodeTree(Node rootNode) {
+    private NodeTree(Node rootNode, boolean hasGlobs, Compiled compiled) {
         this.rootNode = rootNode;
+        this.hasGlobs = hasGlobs;
+        this.compiled = compiled;
     }
 
     /**
@@ -62,22 +86,85 @@ public class NodeTree {
      * @return The newly created node tree
      */
     public static NodeTree of(Map<String, Integer> values, int defaultValue) {
-        NodeTree newTree = new NodeTree(defaultValue);
+        Node root = new Node(new HashMap<>());
+        root.value = defaultValue;
+        boolean hasGlobs = false;
+        int ordinal = 0;
         for (Map.Entry<String, Integer> value : values.entrySet()) {
-            String[] parts = SPLIT_REGEX.split(value.getKey().toLowerCase());
-            Node currentNode = newTree.rootNode;
-            for (String part : parts) {
-                if (currentNode.children.containsKey(part)) {
-                    currentNode = currentNode.children.get(part);
-                } else {
-                    Node newNode = new Node(new HashMap<>());
-                    currentNode.children.put(part, newNode);
-                    currentNode = newNode;
-                }
+            final String key = value.getKey();
+            final GlobNode glob = parseGlob(key);
+            if (glob == null) {
+                Node currentNode = findOrCreate(root, literalValue(key));
+                currentNode.value = value.getValue();
+                currentNode.ordinal = ordinal;
+            } else {
+                findOrCreate(root, globPrefix(key)).putGlob(new GlobRule(key, glob, value.getValue(), ordinal));
+                hasGlobs = true;
+            }
+            ordinal++;
+        }
+        return new NodeTree(root, hasGlobs);
+    }
+
+    private static Node findOrCreate(Node root, String path) {
+        Node currentNode = root;
+        if (path.isEmpty()) {
+            return currentNode;
+        }
+        for (String part : SPLIT_REGEX.split(path.toLowerCase(Locale.ROOT))) {
+            Node child = currentNode.children.get(part);
+            if (child == null) {
+                child = new Node(new HashMap<>());
+                currentNode.children.put(part, child);
             }
-            currentNode.value = value.getValue();
+            currentNode = child;
+        }
+        return currentNode;
+    }
+
+    /**
+     * Parse a key as a glob, if it matches more than one node.
+     *
+     * @param key The key to parse
+     * @return The parsed glob, or null if the key is a literal
+     */
+    private static GlobNode parseGlob(String key) {
+        if (key.indexOf('{') == -1) {
+            return null;
+        }
+        final GlobNode glob = Globs.parseOrLiteral(key);
+        final Iterator<String> it = glob.iterator();
+        it.next();
+        return it.hasNext() ? glob : null;
+    }
+
+    /**
+     * Get the single node a key that is not a glob refers to, with any escapes processed.
+     *
+     * @param key The literal key
+     * @return The node path
+     */
+    private static String literalValue(String key) {
+        if (key.indexOf('{') == -1 && key.indexOf('[') == -1) {
+            return key;
+        }
+        return Globs.parseOrLiteral(key).iterator().next();
+    }
+
+    /**
+     * Get the path of the deepest node every match of a glob must pass through.
+     *
+     * @param key The raw glob
+     * @return The path to attach the glob at, which may be empty for the root node
+     */
+    private static String globPrefix(String key) {
+        int special = key.indexOf('{');
+        final int escape = key.indexOf('\\');
+        if (escape != -1 && escape < special) {
+            special = escape;
         }
-        return newTree;
+        final int lastSeparator = key.lastIndexOf('.', special - 1);
+        return lastSeparator <= 0 ? "" : key.substring(0, lastSeparator);
     }
 
     /**
@@ -87,7 +174,12 @@ public class NodeTree {
      * @return The tristate value for the given node
      */
     public int get(String node) {
-        String[] parts = SPLIT_REGEX.split(node.toLowerCase());
+        if (this.compiled != null) {
+            return this.compiled.get(node);
+        } else if (this.hasGlobs) {
+            return getWithGlobs(node);
+        }
+        String[] parts = SPLIT_REGEX.split(node.toLowerCase(Locale.ROOT));
         Node currentNode = this.rootNode;
         int lastUndefinedVal = this.rootNode.value;
         for (String str : parts) {
@@ -103,28 +195,131 @@ public class NodeTree {
 
     }
 
+    private int getWithGlobs(String node) {
+        final Resolution resolution = RESOLUTION.get().reset(node);
+        Node currentNode = this.rootNode;
+        resolution.offerGlobs(currentNode.globs);
+        int start = 0;
+        int depth = 0;
+        for (int i = 0; i <= resolution.end; ++i) {
+            if (i == resolution.end || node.charAt(i) == '.') {
+                currentNode = currentNode.children.get(node.substring(start, i).toLowerCase(Locale.ROOT));
+                if (currentNode == null) {
+                    break;
+                }
+                resolution.offer(++depth, currentNode.value, currentNode.ordinal);
+                resolution.offerGlobs(currentNode.globs);
+                start = i + 1;
+            }
+        }
+        return resolution.result(this.rootNode.value);
+    }
+
+    /**
+     * Return a read-only form of this tree optimized for lookups.
+     *
+     * Lookups on the returned tree walk the queried node in place, without splitting or lower-casing it,
+     * and do not allocate. Modifications through {@link #withValue(String, int)} and friends are still possible,
+     * but return an uncompiled tree.
+     *
+     * @return A compiled node tree with the same contents as this tree
+     */
+    public NodeTree compile() {
+        if (this.compiled != null) {
+            return this;
+        }
+        return new NodeTree(this.rootNode, this.hasGlobs, new Compiled(this.rootNode, this.hasGlobs));
+    }
+
+    /**
+     * Get whether this tree has been compiled for lookups.
+     *
+     * @return whether this tree is compiled
+     * @see #compile()
+     */
+    public boolean isCompiled() {
+        return this.compiled != null;
+    }
+
+    /**
+     * Get the number of nodes and glob keys stored in this tree, without expanding globs.
+     *
+     * @return The node count
+     */
+    int nodeCount() {
+        return this.compiled != null ? this.compiled.values.length : countNodes(this.rootNode);
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1 + (node.globs == null ? 0 : node.globs.size());
+        for (Node child : node.children.values()) {
+            count += countNodes(child);
+        }
+        return count;
+    }
+
     /**
      * Convert this node tree into a map of the defined nodes in this tree.
      *
+     * Globs are expanded into each node they match, so this may be significantly larger than the tree itself.
+     *
      * @return An immutable map representation of the nodes defined in this tree
      */
     public Map<String, Integer> asMap() {
-        ImmutableMap.Builder<String, Integer> ret = ImmutableMap.builder();
+        final Map<String, int[]> values = new LinkedHashMap<>();
+        populateGlobs(values, this.rootNode);
         for (Map.Entry<String, Node> ent : this.rootNode.children.entrySet()) {
-            populateMap(ret, ent.getKey(), ent.getValue());
+            populateMap(values, ent.getKey(), ent.getValue());
+        }
+
+        ImmutableMap.Builder<String, Integer> ret = ImmutableMap.builder();
+        for (Map.Entry<String, int[]> ent : values.entrySet()) {
+            if (ent.getValue()[0] != 0) {
+                ret.put(ent.getKey(), ent.getValue()[0]);
+            }
         }
         return ret.build();
     }
 
-    private void populateMap(ImmutableMap.Builder<String, Integer> values, String prefix, Node currentNode) {
-        if (currentNode.value != 0) {
-            values.put(prefix, currentNode.value);
-        }
+    private void populateMap(Map<String, int[]> values, String prefix, Node currentNode) {
+        putResolved(values, prefix, currentNode.value, currentNode.ordinal);
+        populateGlobs(values, currentNode);
         for (Map.Entry<String, Node> ent : currentNode.children.entrySet()) {
             populateMap(values, prefix + '.' + ent.getKey(), ent.getValue());
         }
     }
 
+    private void populateGlobs(Map<String, int[]> values, Node currentNode) {
+        if (currentNode.globs != null) {
+            for (GlobRule rule : currentNode.globs) {
+                for (String expansion : rule.glob) {
+                    final String[] parts = SPLIT_REGEX.split(expansion.toLowerCase(Locale.ROOT));
+                    if (parts.length > 0) {
+                        putResolved(values, String.join(".", parts), rule.value, rule.ordinal);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void putResolved(Map<String, int[]> values, String key, int value, int ordinal) {
+        final int[] existing = values.get(key);
+        if (existing == null) {
+            values.put(key, new int[] {value, ordinal});
+        } else if (value != 0 && supersedes(value, ordinal, existing[0], existing[1])) {
+            existing[0] = value;
+            existing[1] = ordinal;
+        }
+    }
+
+    /**
+     * Determine which of two values defined for the same node takes effect
+     */
+    private static boolean supersedes(int value, int ordinal, int existingValue, int existingOrdinal) {
+        return Math.abs(value) > Math.abs(existingValue)
+                || (Math.abs(value) == Math.abs(existingValue) && ordinal < existingOrdinal);
+    }
+
     /**
      * Return a new NodeTree instance with a single changed value.
      *
@@ -133,21 +328,29 @@ public class NodeTree {
      * @return The new, modified node tree
      */
     public NodeTree withValue(String node, int value) {
-        String[] parts = SPLIT_REGEX.split(node.toLowerCase());
-        Node newRoot = new Node(new HashMap<>(this.rootNode.children));
+        final GlobNode glob = parseGlob(node);
+        final String path = glob == null ? literalValue(node) : globPrefix(node);
+        Node newRoot = this.rootNode.copyStructure();
         Node newPtr = newRoot;
         Node currentPtr = this.rootNode;
 
-        newPtr.value = currentPtr == null ? 0 : currentPtr.value;
-        for (String part : parts) {
-            Node oldChild = currentPtr == null ? null : currentPtr.children.get(part);
-            Node newChild = new Node(oldChild != null ? new HashMap<>(oldChild.children) : new HashMap<String, Node>());
-            newPtr.children.put(part, newChild);
-            currentPtr = oldChild;
-            newPtr = newChild;
+        newPtr.value = currentPtr.value;
+        if (!path.isEmpty()) {
+            for (String part : SPLIT_REGEX.split(path.toLowerCase(Locale.ROOT))) {
+                Node oldChild = currentPtr == null ? null : currentPtr.children.get(part);
+                Node newChild = oldChild != null ? oldChild.copyStructure() : new Node(new HashMap<>());
+                newPtr.children.put(part, newChild);
+                currentPtr = oldChild;
+                newPtr = newChild;
+            }
         }
-        newPtr.value = value;
-        return new NodeTree(newRoot);
+        if (glob == null) {
+            newPtr.value = value;
+            newPtr.ordinal = OVERRIDE_ORDINAL;
+        } else {
+            newPtr.putGlob(new GlobRule(node, glob, value, OVERRIDE_ORDINAL));
+        }
+        return new NodeTree(newRoot, this.hasGlobs || glob != null);
     }
 
     /**
@@ -164,13 +367,395 @@ public class NodeTree {
         return ret;
     }
 
+    /**
+     * A flattened representation of a node tree.
+     *
+     * Every node is assigned an index, and edges between nodes are stored in a single open-addressed hash table
+     * keyed on the parent index and the hash of the (lower-cased) segment, so a lookup only needs to hash each
+     * segment of the queried node once and compare characters on a hit.
+     */
+    private static final class Compiled {
+        private static final int EMPTY = -1;
+
+        private final boolean hasGlobs;
+        private final int[] values;
+        private final int[] ordinals;
+        private final GlobRule[][] globs;
+        private final int[] parents;
+        private final int[] segmentHashes;
+        private final int[] segmentStarts;
+        private final int[] segmentLengths;
+        private final char[] segmentChars;
+        private final int[] edges;
+        private final int edgeMask;
+
+        Compiled(Node root, boolean hasGlobs) {
+            final List<Node> nodes = new ArrayList<>();
+            final List<String> segments = new ArrayList<>();
+            final List<Integer> parentIndices = new ArrayList<>();
+            nodes.add(root);
+            segments.add("");
+            parentIndices.add(EMPTY);
+            int charCount = 0;
+            for (int i = 0; i < nodes.size(); ++i) {
+                for (Map.Entry<String, Node> child : nodes.get(i).children.entrySet()) {
+                    nodes.add(child.getValue());
+                    segments.add(child.getKey());
+                    parentIndices.add(i);
+                    charCount += child.getKey().length();
+                }
+            }
+
+            final int count = nodes.size();
+            this.hasGlobs = hasGlobs;
+            this.values = new int[count];
+            this.ordinals = new int[count];
+            this.globs = hasGlobs ? new GlobRule[count][] : null;
+            this.parents = new int[count];
+            this.segmentHashes = new int[count];
+            this.segmentStarts = new int[count];
+            this.segmentLengths = new int[count];
+            this.segmentChars = new char[charCount];
+
+            int tableSize = Integer.highestOneBit(Math.max(count * 2 - 1, 1)) << 1;
+            this.edges = new int[tableSize];
+            this.edgeMask = tableSize - 1;
+            Arrays.fill(this.edges, EMPTY);
+
+            int charPtr = 0;
+            for (int i = 0; i < count; ++i) {
+                final String segment = segments.get(i);
+                final Node node = nodes.get(i);
+                this.values[i] = node.value;
+                this.ordinals[i] = node.ordinal;
+                if (hasGlobs && node.globs != null) {
+                    this.globs[i] = node.globs.toArray(new GlobRule[0]);
+                }
+                this.parents[i] = parentIndices.get(i);
+                this.segmentHashes[i] = segment.hashCode();
+                this.segmentStarts[i] = charPtr;
+                this.segmentLengths[i] = segment.length();
+                segment.getChars(0, segment.length(), this.segmentChars, charPtr);
+                charPtr += segment.length();
+
+                if (i != 0) { // root has no incoming edge
+                    int slot = slot(this.parents[i], this.segmentHashes[i]);
+                    while (this.edges[slot] != EMPTY) {
+                        slot = (slot + 1) & this.edgeMask;
+                    }
+                    this.edges[slot] = i;
+                }
+            }
+        }
+
+        private int slot(int parent, int segmentHash) {
+            int h = parent * 0x9E3779B9 + segmentHash;
+            return (h ^ (h >>> 16)) & this.edgeMask;
+        }
+
+        private int child(int parent, String node, int start, int end, int segmentHash) {
+            int slot = slot(parent, segmentHash);
+            int candidate;
+            while ((candidate = this.edges[slot]) != EMPTY) {
+                if (this.parents[candidate] == parent
+                        && this.segmentHashes[candidate] == segmentHash
+                        && segmentEquals(candidate, node, start, end)) {
+                    return candidate;
+                }
+                slot = (slot + 1) & this.edgeMask;
+            }
+            return EMPTY;
+        }
+
+        private boolean segmentEquals(int index, String node, int start, int end) {
+            final int length = end - start;
+            if (this.segmentLengths[index] != length) {
+                return false;
+            }
+            final int offset = this.segmentStarts[index];
+            for (int i = 0; i < length; ++i) {
+                if (this.segmentChars[offset + i] != Character.toLowerCase(node.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int get(String node) {
+            if (this.hasGlobs) {
+                return getWithGlobs(node);
+            }
+            int current = 0;
+            int lastUndefinedVal = this.values[0];
+            int end = node.length();
+            if (end != 0) { // match String.split, which drops trailing empty segments
+                while (end > 0 && node.charAt(end - 1) == '.') {
+                    --end;
+                }
+                if (end == 0) {
+                    return lastUndefinedVal;
+                }
+            }
+
+            int start = 0;
+            int hash = 0;
+            for (int i = 0; i <= end; ++i) {
+                if (i == end || node.charAt(i) == '.') {
+                    current = child(current, node, start, i, hash);
+                    if (current == EMPTY) {
+                        break;
+                    }
+                    if (Math.abs(this.values[current]) >= Math.abs(lastUndefinedVal)) {
+                        lastUndefinedVal = this.values[current];
+                    }
+                    start = i + 1;
+                    hash = 0;
+                } else {
+                    hash = 31 * hash + Character.toLowerCase(node.charAt(i));
+                }
+            }
+            return lastUndefinedVal;
+        }
+
+        private int getWithGlobs(String node) {
+            final Resolution resolution = RESOLUTION.get().reset(node);
+            int current = 0;
+            resolution.offerGlobs(this.globs[current]);
+            int start = 0;
+            int hash = 0;
+            int depth = 0;
+            for (int i = 0; i <= resolution.end; ++i) {
+                if (i == resolution.end || node.charAt(i) == '.') {
+                    current = child(current, node, start, i, hash);
+                    if (current == EMPTY) {
+                        break;
+                    }
+                    resolution.offer(++depth, this.values[current], this.ordinals[current]);
+                    resolution.offerGlobs(this.globs[current]);
+                    start = i + 1;
+                    hash = 0;
+                } else {
+                    hash = 31 * hash + Character.toLowerCase(node.charAt(i));
+                }
+            }
+            return resolution.result(this.values[0]);
+        }
+    }
+
+    /**
+     * The values defined at each depth of a single queried node, for trees containing globs.
+     *
+     * A value is offered for every tree node and glob match along the queried path, and the winning value at each
+     * depth is then folded from the root down exactly as a walk of a tree with all globs expanded would.
+     *
+     * One instance is kept per thread and reset for each query, growing as deeper nodes are queried.
+     */
+    private static final class Resolution {
+        private final PaddedPrefix candidate = new PaddedPrefix();
+        private String node;
+        private int end;
+        private int length;
+        private int[] values = new int[8];
+        private int[] ordinals = new int[8];
+
+        Resolution reset(String node) {
+            this.node = node;
+            int end = node.length();
+            while (end > 0 && node.charAt(end - 1) == '.') { // match String.split, which drops trailing empty segments
+                --end;
+            }
+            this.end = end;
+            this.length = (node.isEmpty() ? 1 : depthAt(end)) + 1;
+            if (this.values.length < this.length) {
+                this.values = new int[this.length];
+                this.ordinals = new int[this.length];
+            }
+            Arrays.fill(this.values, 0, this.length, 0);
+            Arrays.fill(this.ordinals, 0, this.length, Integer.MAX_VALUE);
+            return this;
+        }
+
+        private int depthAt(int position) {
+            int depth = position == 0 ? 0 : 1;
+            for (int i = 0; i < position; ++i) {
+                if (this.node.charAt(i) == '.') {
+                    ++depth;
+                }
+            }
+            return depth;
+        }
+
+        void offer(int depth, int value, int ordinal) {
+            if (value != 0 && depth < this.length && supersedes(value, ordinal, this.values[depth], this.ordinals[depth])) {
+                this.values[depth] = value;
+                this.ordinals[depth] = ordinal;
+            }
+        }
+
+        void offerGlobs(Iterable<GlobRule> rules) {
+            if (rules != null) {
+                for (GlobRule rule : rules) {
+                    offerGlob(rule);
+                }
+            }
+        }
+
+        void offerGlobs(GlobRule[] rules) {
+            if (rules != null) {
+                for (GlobRule rule : rules) {
+                    offerGlob(rule);
+                }
+            }
+        }
+
+        private void offerGlob(GlobRule rule) {
+            if (rule.trailingSeparators) {
+                offerGlobWithTrailingSeparators(rule);
+                return;
+            }
+            final BitSet matches = rule.glob.matchPrefixesIgnoreCase(this.node, 0);
+            for (int i = matches.nextSetBit(0); i > 0 && i <= this.end; i = matches.nextSetBit(i + 1)) {
+                if (i == this.end || this.node.charAt(i) == '.') {
+                    offer(depthAt(i), rule.value, rule.ordinal);
+                }
+            }
+        }
+
+        /**
+         * Separators at the end of a match do not add a segment, so a match of {@code a.} defines the node {@code a}
+         * and applies to a query of {@code a.b}. For globs that can end with a separator, try each segment boundary
+         * of the query followed by enough separators to complete the match.
+         */
+        private void offerGlobWithTrailingSeparators(GlobRule rule) {
+            int depth = 0;
+            for (int i = 0; i <= this.end; ++i) {
+                if (i == this.end || this.node.charAt(i) == '.') {
+                    ++depth;
+                    if (i == 0 || this.node.charAt(i - 1) == '.') { // an empty segment would be stripped from the match too
+                        continue;
+                    }
+                    this.candidate.set(this.node, i, rule.separators);
+                    final BitSet matches = rule.glob.matchPrefixesIgnoreCase(this.candidate, 0);
+                    final int next = matches.nextSetBit(i);
+                    if (next != -1) {
+                        offer(depth, rule.value, rule.ordinal);
+                    }
+                }
+            }
+        }
+
+        int result(int rootValue) {
+            int lastUndefinedVal = rootValue;
+            for (int i = 1; i < this.length; ++i) {
+                if (Math.abs(this.values[i]) >= Math.abs(lastUndefinedVal)) {
+                    lastUndefinedVal = this.values[i];
+                }
+            }
+            return lastUndefinedVal;
+        }
+    }
+
+    /**
+     * A prefix of a queried node followed by a number of separators, viewed without copying the node
+     */
+    private static final class PaddedPrefix implements CharSequence {
+        private String node;
+        private int prefixLength;
+        private int length;
+
+        void set(String node, int prefixLength, int separators) {
+            this.node = node;
+            this.prefixLength = prefixLength;
+            this.length = prefixLength + separators;
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return index < this.prefixLength ? this.node.charAt(index) : '.';
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder ret = new StringBuilder(this.length).append(this.node, 0, this.prefixLength);
+            for (int i = this.prefixLength; i < this.length; ++i) {
+                ret.append('.');
+            }
+            return ret.toString();
+        }
+    }
+
+    /**
+     * A glob key, attached to the node all of its matches share as a prefix
+     */
+    private static final class GlobRule {
+        private final String pattern;
+        private final GlobNode glob;
+        private final int value;
+        private final int ordinal;
+        /**
+         * The number of separators in the pattern, an upper bound on how many one match can contain
+         */
+        private final int separators;
+        /**
+         * Whether any match of the pattern could end with a separator
+         */
+        private final boolean trailingSeparators;
+
+        GlobRule(String pattern, GlobNode glob, int value, int ordinal) {
+            this.pattern = pattern;
+            this.glob = glob;
+            this.value = value;
+            this.ordinal = ordinal;
+            int separators = 0;
+            for (int i = 0; i < pattern.length(); ++i) {
+                if (pattern.charAt(i) == '.') {
+                    ++separators;
+                }
+            }
+            this.separators = separators;
+            this.trailingSeparators = pattern.endsWith(".") || pattern.contains(".,") || pattern.contains(".}");
+        }
+    }
+
     private static class Node {
 
         private final Map<String, Node> children;
         private int value = 0;
+        private int ordinal = Integer.MAX_VALUE;
+        private List<GlobRule> globs;
 
         private Node(Map<String, Node> children) {
             this.children = children;
         }
+
+        /**
+         * Copy the children and globs of this node, but not its own value
+         */
+        private Node copyStructure() {
+            final Node ret = new Node(new HashMap<>(this.children));
+            ret.globs = this.globs == null ? null : new ArrayList<>(this.globs);
+            return ret;
+        }
+
+        private void putGlob(GlobRule rule) {
+            if (this.globs == null) {
+                this.globs = new ArrayList<>();
+            }
+            this.globs.removeIf(existing -> existing.pattern.equals(rule.pattern));
+            this.globs.add(rule);
+        }
     }
 }
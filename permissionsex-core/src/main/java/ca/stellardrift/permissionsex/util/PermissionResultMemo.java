@@ -0,0 +1,174 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free memo of permission results for a single immutable {@link NodeTree}.
+ *
+ * The memo is an open-addressed table of permission strings to their resolved value. Slots are claimed once and
+ * never evicted, so once the table (or a probe sequence) is full, further permissions are simply resolved against
+ * the tree directly. Because the backing tree never changes, racing writers always store the same value for a key.
+ * The table is sized to the number of nodes in the tree, up to {@link #CAPACITY} slots.
+ */
+public final class PermissionResultMemo {
+    /**
+     * Maximum number of slots in a memo table. Must be a power of two.
+     */
+    public static final int CAPACITY = 256;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_PROBES = 8;
+    /**
+     * Marks a value slot as published, so an unwritten slot (0) can be told apart from a stored result of 0
+     */
+    private static final long PUBLISHED = 1L << 32;
+
+    private final NodeTree tree;
+    private final Statistics statistics;
+    private final int mask;
+    private final AtomicReferenceArray<String> keys;
+    private final AtomicLongArray values;
+
+    public PermissionResultMemo(NodeTree tree, Statistics statistics) {
+        this.tree = Preconditions.checkNotNull(tree, "tree");
+        this.statistics = Preconditions.checkNotNull(statistics, "statistics");
+        final int capacity = capacityFor(tree.nodeCount());
+        this.mask = capacity - 1;
+        this.keys = new AtomicReferenceArray<>(capacity);
+        this.values = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Size a table to leave room for each node of a tree and as many queries of undefined permissions.
+     */
+    private static int capacityFor(int nodeCount) {
+        if (nodeCount >= CAPACITY / 2) {
+            return CAPACITY;
+        }
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(nodeCount * 2 - 1, 1)) << 1);
+    }
+
+    /**
+     * Get the number of slots in this memo's table
+     *
+     * @return The table capacity
+     */
+    int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * Get the tree backing this memo
+     *
+     * @return The node tree results are calculated from
+     */
+    public NodeTree getTree() {
+        return this.tree;
+    }
+
+    /**
+     * Get the value of a permission, from the memo if present or otherwise from the backing tree.
+     *
+     * @param permission The permission to query
+     * @return The permission value
+     */
+    public int get(String permission) {
+        int hash = permission.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & this.mask;
+        for (int probe = 0; probe < MAX_PROBES; ++probe) {
+            String key = this.keys.get(slot);
+            if (key == null) {
+                int result = this.tree.get(permission);
+                this.statistics.misses.increment();
+                if (this.keys.compareAndSet(slot, null, permission)) {
+                    this.values.set(slot, PUBLISHED | (result & 0xFFFFFFFFL));
+                }
+                return result;
+            } else if (key.equals(permission)) {
+                long result = this.values.get(slot);
+                if (result == 0) { // claimed, but the value is not yet published
+                    this.statistics.misses.increment();
+                    return this.tree.get(permission);
+                }
+                this.statistics.hits.increment();
+                return (int) result;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.statistics.misses.increment();
+        return this.tree.get(permission);
+    }
+
+    /**
+     * Hit and miss counters shared between many memo tables.
+     */
+    public static final class Statistics {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        /**
+         * Get the number of lookups answered from a memo table
+         *
+         * @return The hit count
+         */
+        public long getHits() {
+            return this.hits.sum();
+        }
+
+        /**
+         * Get the number of lookups that had to be resolved against the tree
+         *
+         * @return The miss count
+         */
+        public long getMisses() {
+            return this.misses.sum();
+        }
+
+        /**
+         * Get the fraction of lookups that were answered from a memo table
+         *
+         * @return The hit rate, or 0 if no lookups have been made
+         */
+        public double getHitRate() {
+            long hits = getHits();
+            long total = hits + getMisses();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        /**
+         * Reset both counters to zero
+         */
+        public void reset() {
+            this.hits.reset();
+            this.misses.reset();
+        }
+
+        @Override
+        public String toString() {
+            return "PermissionResultMemo.Statistics{" +
+                    "hits=" + getHits() +
+                    ", misses=" + getMisses() +
+                    '}';
+        }
+    }
+}
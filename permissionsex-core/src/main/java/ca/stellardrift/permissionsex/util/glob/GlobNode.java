@@ -17,6 +17,7 @@
 
 package ca.stellardrift.permissionsex.util.glob;
 
+import java.util.BitSet;
 import java.util.Objects;
 
 /**
@@ -58,4 +59,28 @@ public abstract class GlobNode implements Iterable<String> {
         }
         return false;
     }
+
+    /**
+     * Find every position in the input where a case-insensitive match of this glob, beginning at
+     * {@code start}, can end. The glob is matched in place, without expanding every alternative.
+     *
+     * @param input text to match against
+     * @param start position in the input to begin matching at
+     * @return the exclusive end position of every possible match
+     */
+    public BitSet matchPrefixesIgnoreCase(CharSequence input, int start) {
+        Objects.requireNonNull(input, "input");
+        final BitSet starts = new BitSet(input.length() + 1);
+        starts.set(start);
+        return advanceIgnoreCase(input, starts);
+    }
+
+    /**
+     * Match this glob from each of a set of start positions
+     *
+     * @param input text to match against
+     * @param starts positions to begin matching at
+     * @return the exclusive end position of every match
+     */
+    abstract BitSet advanceIgnoreCase(CharSequence input, BitSet starts);
 }
@@ -17,6 +17,9 @@
 
 package ca.stellardrift.permissionsex.util.glob;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.collect.ImmutableList;
 import ca.stellardrift.permissionsex.util.glob.parser.GlobLexer;
 import ca.stellardrift.permissionsex.util.glob.parser.GlobParser;
@@ -27,6 +30,12 @@ import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import java.util.List;
 
 public class Globs {
+    private static final int PARSE_CACHE_SIZE = 8192;
+    private static final LoadingCache<String, GlobNode> PARSE_CACHE = Caffeine.newBuilder()
+            .maximumSize(PARSE_CACHE_SIZE)
+            .recordStats()
+            .build(Globs::parseOrLiteralUncached);
+
     private Globs() {}
 
     public static GlobNode or(Object... ors) {
@@ -48,6 +57,50 @@ public class Globs {
         return parse(CharStreams.fromString(input));
     }
 
+    /**
+     * Parse a glob expression, treating input that is not a valid glob as a literal.
+     *
+     * Parsed globs are kept in a size-bounded cache shared across the whole server, so repeatedly parsing
+     * the same expression only runs the parser once.
+     *
+     * @param input The glob expression
+     * @return The parsed glob
+     */
+    public static GlobNode parseOrLiteral(String input) {
+        if (!(input.contains("{") || input.contains("["))) { // If no special characters, there's nothing to parse or cache
+            return new UnitNode(input);
+        }
+        return PARSE_CACHE.get(input);
+    }
+
+    /**
+     * Get every string matched by a glob expression. If the input is not a valid glob, it is treated as a literal.
+     *
+     * @param input The glob expression
+     * @return An immutable list of every matched string
+     * @see #parseOrLiteral(String) for details on caching
+     */
+    public static List<String> expand(String input) {
+        return ImmutableList.copyOf(parseOrLiteral(input));
+    }
+
+    /**
+     * Get statistics for the shared cache used by {@link #parseOrLiteral(String)}
+     *
+     * @return A snapshot of the parse cache statistics
+     */
+    public static CacheStats parseCacheStats() {
+        return PARSE_CACHE.stats();
+    }
+
+    private static GlobNode parseOrLiteralUncached(String input) {
+        try {
+            return parse(input);
+        } catch (GlobParseException e) {
+            return new UnitNode(input);
+        }
+    }
+
     private static GlobNode parse(CharStream input) throws GlobParseException {
         GlobLexer lexer = new GlobLexer(input);
         CommonTokenStream tokenStream = new CommonTokenStream(lexer);
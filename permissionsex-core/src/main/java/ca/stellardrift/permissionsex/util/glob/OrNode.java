@@ -19,6 +19,7 @@ package ca.stellardrift.permissionsex.util.glob;
 
 import com.google.common.collect.Iterators;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
@@ -30,6 +31,15 @@ class OrNode extends GlobNode {
         this.children = children;
     }
 
+    @Override
+    BitSet advanceIgnoreCase(CharSequence input, BitSet starts) {
+        final BitSet ends = new BitSet(input.length() + 1);
+        for (GlobNode child : children) {
+            ends.or(child.advanceIgnoreCase(input, starts));
+        }
+        return ends;
+    }
+
     @Override
     public Iterator<String> iterator() {
         return Iterators.concat(Iterators.transform(children.iterator(), GlobNode::iterator));
@@ -21,6 +21,7 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
@@ -34,6 +35,18 @@ class SequenceNode extends GlobNode {
         this.children = ImmutableList.copyOf(children);
     }
 
+    @Override
+    BitSet advanceIgnoreCase(CharSequence input, BitSet starts) {
+        BitSet positions = starts;
+        for (GlobNode child : children) {
+            positions = child.advanceIgnoreCase(input, positions);
+            if (positions.isEmpty()) {
+                break;
+            }
+        }
+        return positions;
+    }
+
     @Override
     public Iterator<String> iterator() {
         return new SeqIterator();
@@ -19,6 +19,7 @@ package ca.stellardrift.permissionsex.util.glob;
 
 import com.google.common.collect.Iterators;
 
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Spliterator;
@@ -47,6 +48,38 @@ class UnitNode extends GlobNode {
         return value.equalsIgnoreCase(input);
     }
 
+    @Override
+    BitSet advanceIgnoreCase(CharSequence input, BitSet starts) {
+        final BitSet ends = new BitSet(input.length() + 1);
+        for (int i = starts.nextSetBit(0); i >= 0; i = starts.nextSetBit(i + 1)) {
+            if (regionMatchesIgnoreCase(input, i)) {
+                ends.set(i + value.length());
+            }
+        }
+        return ends;
+    }
+
+    /**
+     * Compare the same way as {@link String#regionMatches(boolean, int, String, int, int)}, for any character sequence
+     */
+    private boolean regionMatchesIgnoreCase(CharSequence input, int start) {
+        if (start + value.length() > input.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); ++i) {
+            final char a = input.charAt(start + i);
+            final char b = value.charAt(i);
+            if (a != b) {
+                final char upperA = Character.toUpperCase(a);
+                final char upperB = Character.toUpperCase(b);
+                if (upperA != upperB && Character.toLowerCase(upperA) != Character.toLowerCase(upperB)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public Iterator<String> iterator() {
         return Iterators.singletonIterator(value);
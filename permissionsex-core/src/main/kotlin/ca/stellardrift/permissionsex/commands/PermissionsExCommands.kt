@@ -46,6 +46,15 @@ import ca.stellardrift.permissionsex.commands.Messages.RELOAD_ACTION_ERROR
 import ca.stellardrift.permissionsex.commands.Messages.RELOAD_ACTION_ERROR_CONSOLE
 import ca.stellardrift.permissionsex.commands.Messages.RELOAD_ACTION_SUCCESS
 import ca.stellardrift.permissionsex.commands.Messages.RELOAD_DESCRIPTION
+import ca.stellardrift.permissionsex.commands.Messages.STATS_BAKES
+import ca.stellardrift.permissionsex.commands.Messages.STATS_CACHE
+import ca.stellardrift.permissionsex.commands.Messages.STATS_CACHES_HEADER
+import ca.stellardrift.permissionsex.commands.Messages.STATS_CHECKS
+import ca.stellardrift.permissionsex.commands.Messages.STATS_DATA_STORE_HEADER
+import ca.stellardrift.permissionsex.commands.Messages.STATS_DATA_STORE_OPERATION
+import ca.stellardrift.permissionsex.commands.Messages.STATS_DESCRIPTION
+import ca.stellardrift.permissionsex.commands.Messages.STATS_HEADER
+import ca.stellardrift.permissionsex.commands.Messages.STATS_MEMO
 import ca.stellardrift.permissionsex.commands.Messages.VERSION_BASEDIRS_CONFIG
 import ca.stellardrift.permissionsex.commands.Messages.VERSION_BASEDIRS_HEADER
 import ca.stellardrift.permissionsex.commands.Messages.VERSION_BASEDIRS_JAR
@@ -84,6 +93,7 @@ fun createRootCommand(pex: PermissionsEx<*>): CommandSpec {
             getRankingCommand(pex),
             getImportCommand(pex),
             getReloadCommand(pex),
+            getStatsCommand(pex),
             getVersionCommand(pex),
             pex.callbackController.createCommand()
         ) + pex.implementationCommands
@@ -261,6 +271,45 @@ fun createRootCommand(pex: PermissionsEx<*>): CommandSpec {
                 .build()
     }
 
+    private fun getStatsCommand(pex: PermissionsEx<*>): CommandSpec {
+        return CommandSpec.builder()
+            .setAliases("stats")
+            .setDescription(STATS_DESCRIPTION())
+            .setPermission("permissionsex.stats")
+            .setExecutor { src, _ ->
+                val metrics = pex.metrics
+                val checks = metrics.permissionChecks
+                val bakes = metrics.bakes
+                val memo = pex.permissionMemoStatistics
+                src.msg { send ->
+                    send(STATS_HEADER.get().header().build())
+                    send(STATS_CHECKS((-checks.count.toString()).hl(), -"%.1f".format(checks.rate), -"%.1f".format(checks.meanRate)))
+                    send(STATS_BAKES((-bakes.count.toString()).hl(), -bakes.meanNanos.toMillisString(),
+                        -bakes.getPercentileNanos(0.99).toDouble().toMillisString(), -bakes.maxNanos.toDouble().toMillisString()))
+                    send(STATS_MEMO(-memo.hits.toString(), -memo.misses.toString(), -memo.hitRate.toPercentString()))
+                    send(+"")
+                    send(STATS_CACHES_HEADER.get().header().build())
+                    metrics.cacheStats.forEach { (name, stats) ->
+                        send(STATS_CACHE((-name).hl(), -stats.hitCount().toString(), -stats.missCount().toString(),
+                            -stats.hitRate().toPercentString(), -stats.evictionCount().toString()))
+                    }
+                    val operations = metrics.dataStoreOperations
+                    if (operations.isNotEmpty()) {
+                        send(+"")
+                        send(STATS_DATA_STORE_HEADER.get().header().build())
+                        operations.forEach { (name, latency) ->
+                            send(STATS_DATA_STORE_OPERATION((-name).hl(), -latency.count.toString(), -latency.meanNanos.toMillisString(),
+                                -latency.getPercentileNanos(0.99).toDouble().toMillisString(), -latency.maxNanos.toDouble().toMillisString()))
+                        }
+                    }
+                }
+            }
+            .build()
+    }
+
+    private fun Double.toMillisString() = "%.2f".format(this / 1_000_000.0)
+    private fun Double.toPercentString() = "%.1f%%".format(this * 100)
+
     private fun getVersionCommand(pex: PermissionsEx<*>): CommandSpec {
         return CommandSpec.builder()
             .setAliases("version")
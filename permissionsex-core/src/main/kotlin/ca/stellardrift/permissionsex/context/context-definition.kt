@@ -20,10 +20,11 @@ package ca.stellardrift.permissionsex.context
 import ca.stellardrift.permissionsex.PermissionsEx
 import ca.stellardrift.permissionsex.config.PermissionsExConfiguration
 import ca.stellardrift.permissionsex.subject.CalculatedSubject
-import com.google.common.collect.ImmutableSet
+import com.google.common.collect.Interner
+import com.google.common.collect.Interners
 
 fun cSet(vararg contexts: ContextValue<*>): Set<ContextValue<*>> {
-    return ImmutableSet.copyOf(contexts)
+    return ContextSet.of(*contexts)
 }
 
 
@@ -53,6 +54,25 @@ abstract class ContextDefinition<T>(val name: String) {
 
     abstract fun matches(ownVal: T, testVal: T): Boolean
 
+    /**
+     * Whether values of this context only match active values with exactly the same raw value.
+     *
+     * When true, matching can skip parsing and compare context values directly. Definitions that override
+     * [matches] with anything other than an equality check must leave this false.
+     */
+    open val isExactMatch: Boolean
+        get() = false
+
+    /**
+     * Whether current values of this context may change without subjects being notified through
+     * [CalculatedSubject.invalidateActiveContexts], for example because they depend on a player's position.
+     *
+     * Active contexts are normally calculated once and reused until invalidated. While any volatile definition is
+     * registered, they are instead recalculated at most every few milliseconds.
+     */
+    open val isVolatile: Boolean
+        get() = false
+
     /**
      * Given a player, calculate active context types
      *
@@ -112,6 +132,13 @@ open class SimpleContextDefinition(name: String) : ContextDefinition<String>(nam
         return ownVal == testVal
     }
 
+    /**
+     * Only exact for this class itself, since subclasses may override [matches] or [deserialize].
+     * Subclasses that keep plain equality can opt in again.
+     */
+    override val isExactMatch: Boolean
+        get() = javaClass == SimpleContextDefinition::class.java
+
     override fun serialize(userValue: String): String {
         return userValue
     }
@@ -138,65 +165,59 @@ abstract class PEXContextDefinition<T> internal constructor(name: String) : Cont
 }
 
 open class ContextValue<Type>(val key: String, val rawValue: String) {
-    var definition: ContextDefinition<Type>? protected set
-    var parsedValue: Type? protected set
-
-    init {
-        definition = null
-        parsedValue = null
-    }
+    /**
+     * The definition this value was last resolved with, and what the raw value parsed to under it. Both are replaced
+     * together, since values shared through [intern] may be resolved again once their definition is re-registered.
+     */
+    @Volatile
+    private var binding: Binding<Type>? = null
+    val definition: ContextDefinition<Type>? get() = binding?.definition
+    val parsedValue: Type? get() = binding?.parsedValue
+    private val hash: Int = 31 * key.hashCode() + rawValue.hashCode()
 
     internal constructor(definition: ContextDefinition<Type>, value: Type) : this(
         definition.name,
         definition.serialize(value)
     ) {
-        this.definition = definition
-        this.parsedValue = value
+        this.binding = Binding(definition, value)
     }
 
     fun tryResolve(engine: PermissionsEx<*>): Boolean {
-        if (this.definition != null && this.definition !is FallbackContextDefinition) {
-            return this.parsedValue != null
-        }
         @Suppress("UNCHECKED_CAST")
         val definition = engine.getContextDefinition(this.key) as ContextDefinition<Type>?
-        if (definition != null) {
-            this.definition = definition
-            this.parsedValue = definition.deserialize(this.rawValue)
-            return this.parsedValue != null
+        if (definition == null) {
+            val binding = this.binding
+            return binding != null && binding.definition !is FallbackContextDefinition && binding.parsedValue != null
         }
-        return false
+        return bind(definition).parsedValue != null
     }
 
     fun getParsedValue(definition: ContextDefinition<Type>): Type {
-        require(!(this.definition != null && this.definition != definition)) { "The provided context definition does not match the one this context object currently knows about" }
-
-        this.definition = definition
-        var parsedValue = this.parsedValue
-        if (parsedValue == null) {
-            parsedValue = definition.deserialize(this.rawValue)
-            this.parsedValue = parsedValue
-        }
-        if (parsedValue == null) {
-            throw IllegalArgumentException("Invalid value provided for context ${definition.name}")
-        }
-        return parsedValue
+        return bind(definition).parsedValue ?: throw IllegalArgumentException("Invalid value provided for context ${definition.name}")
     }
 
     fun getParsedValue(engine: PermissionsEx<*>): Type {
-        var tempParsed = parsedValue
-        if (tempParsed != null) {
-            return tempParsed
-        }
         @Suppress("UNCHECKED_CAST")
-        tempParsed = engine.getContextDefinition(this.key)?.deserialize(this.rawValue) as Type?
-        if (tempParsed == null) {
-            throw RuntimeException("No definition for context $key")
+        val definition = engine.getContextDefinition(this.key) as ContextDefinition<Type>?
+        return definition?.let { bind(it).parsedValue } ?: throw RuntimeException("No definition for context $key")
+    }
+
+    /**
+     * Get the result of parsing this value with a definition, parsing it again if it was last resolved with any other
+     * instance (such as a fallback, or an earlier registration of the same context).
+     */
+    private fun bind(definition: ContextDefinition<Type>): Binding<Type> {
+        val current = this.binding
+        if (current != null && current.definition === definition) {
+            return current
         }
-        parsedValue = tempParsed
-        return tempParsed
+        val updated = Binding(definition, definition.deserialize(this.rawValue))
+        this.binding = updated
+        return updated
     }
 
+    private class Binding<T>(val definition: ContextDefinition<T>, val parsedValue: T?)
+
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
         if (other !is ContextValue<*>) return false
@@ -208,13 +229,25 @@ open class ContextValue<Type>(val key: String, val rawValue: String) {
     }
 
     override fun hashCode(): Int {
-        var result = key.hashCode()
-        result = 31 * result + rawValue.hashCode()
-        return result
+        return hash
     }
 
     override fun toString(): String {
         return "$key:$parsedValue (raw: $rawValue)"
     }
+
+    companion object {
+        private val INTERNER: Interner<ContextValue<*>> = Interners.newWeakInterner()
+
+        /**
+         * Get the canonical instance of a context value. Interned values share their resolved definition
+         * and parsed value, and are held weakly so unused values can still be collected.
+         */
+        @JvmStatic
+        fun <T> intern(value: ContextValue<T>): ContextValue<T> {
+            @Suppress("UNCHECKED_CAST")
+            return INTERNER.intern(value) as ContextValue<T>
+        }
+    }
 }
 
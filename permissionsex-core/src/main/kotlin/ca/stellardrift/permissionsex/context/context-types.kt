@@ -29,7 +29,10 @@ import java.time.temporal.ChronoUnit
 /**
  * A placeholder context definition for implementations to use when a context query comes in for an unknown context
  */
-class FallbackContextDefinition(name: String) : SimpleContextDefinition(name)
+class FallbackContextDefinition(name: String) : SimpleContextDefinition(name) {
+    override val isExactMatch: Boolean
+        get() = true
+}
 
 object ServerTagContextDefinition : PEXContextDefinition<String>("server-tag") {
     private var activeTags: List<String> = listOf()
@@ -38,6 +41,8 @@ object ServerTagContextDefinition : PEXContextDefinition<String>("server-tag") {
     override fun deserialize(canonicalValue: String): String = canonicalValue
     override fun matches(ownVal: String, testVal: String): Boolean =
         ownVal == testVal
+    override val isExactMatch: Boolean
+        get() = true
 
     override fun update(config: PermissionsExConfiguration<*>) {
         activeTags = config.serverTags
@@ -146,10 +151,36 @@ open class TimeContextDefinition internal constructor(name: String) : PEXContext
         // TODO: implement timezone configuration option
     }
 
+    /**
+     * A value standing in for the current time in the keys of baked data caches.
+     * Baked data is only re-calculated when a time window opens or closes, rather than every time the current time changes.
+     */
+    val currentTimePlaceholder: ContextValue<ZonedDateTime> = ContextValue(name, CURRENT_TIME_PLACEHOLDER)
+
     override fun accumulateCurrentValues(subject: CalculatedSubject, consumer: (value: ZonedDateTime) -> Unit) {
         consumer(ZonedDateTime.now(currentTimeZone).truncatedTo(ChronoUnit.SECONDS))
     }
 
+    /**
+     * Create a context value for the time at [epochMillis], truncated the same way current values are.
+     */
+    fun valueAt(epochMillis: Long): ContextValue<ZonedDateTime> {
+        return createValue(Instant.ofEpochMilli(epochMillis).atZone(currentTimeZone).truncatedTo(ChronoUnit.SECONDS))
+    }
+
+    /**
+     * Get the first instant after [epochMillis] at which the match result for a segment defined at [value] may change,
+     * or [Long.MAX_VALUE] if it will not change again.
+     */
+    fun nextTransition(value: ZonedDateTime, epochMillis: Long): Long {
+        val boundary = value.toEpochSecond() * 1000
+        return when {
+            boundary > epochMillis -> boundary
+            boundary + 1000 > epochMillis -> boundary + 1000
+            else -> Long.MAX_VALUE
+        }
+    }
+
     override fun serialize(userValue: ZonedDateTime): String {
         return userValue.format(DateTimeFormatter.ISO_DATE_TIME)
     }
@@ -166,6 +197,10 @@ open class TimeContextDefinition internal constructor(name: String) : PEXContext
         return testVal.truncatedTo(ChronoUnit.SECONDS)
             .isEqual(ownVal.truncatedTo(ChronoUnit.SECONDS))
     }
+
+    companion object {
+        const val CURRENT_TIME_PLACEHOLDER = "\$current"
+    }
 }
 
 object BeforeTimeContextDefinition : TimeContextDefinition("before-time") {
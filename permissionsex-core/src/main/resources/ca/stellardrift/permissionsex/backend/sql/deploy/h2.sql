@@ -1,4 +1,4 @@
--- PermissionsEx Schema v3, H2 Edition
+-- PermissionsEx Schema v4, H2 Edition
 
 -- Data Types Used
 -- ---------------
@@ -87,3 +87,12 @@ CREATE TABLE `{}context_inheritance` (
 
 CREATE INDEX ON `{}context_inheritance` (`child_key`, `child_value`);
 CREATE INDEX ON `{}context_inheritance` (`parent_key`, `parent_value`);
+
+CREATE TABLE `{}changes` (
+  `id` bigint NOT NULL IDENTITY,
+  `kind` varchar(32) NOT NULL,
+  `type` varchar(255) NOT NULL,
+  `identifier` varchar(255) NOT NULL,
+  `origin` varchar(36) NOT NULL,
+  `changed` bigint NOT NULL
+);
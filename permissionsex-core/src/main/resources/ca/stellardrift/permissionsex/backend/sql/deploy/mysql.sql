@@ -1,4 +1,4 @@
--- PermissionsEx Schema v3, MySQL/MariaDB Edition
+-- PermissionsEx Schema v4, MySQL/MariaDB Edition
 -- Requires InnoDB engine for foreign keys
 
 -- Data Types Used
@@ -83,3 +83,12 @@ CREATE TABLE `{}inheritance` (
   KEY `child_key` (`child_key`,`child_value`),
   KEY `parent_key` (`parent_key`,`parent_value`)
 ) DEFAULT CHARSET=utf8;
+
+CREATE TABLE `{}changes` (
+  `id` bigint NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  `kind` varchar(32) NOT NULL,
+  `type` varchar(255) NOT NULL,
+  `identifier` varchar(255) NOT NULL,
+  `origin` varchar(36) NOT NULL,
+  `changed` bigint NOT NULL
+) DEFAULT CHARSET=utf8;
@@ -1,4 +1,4 @@
--- PermissionsEx Schema v3, PostgreSQL Edition
+-- PermissionsEx Schema v4, PostgreSQL Edition
 
 -- Data Types Used
 -- ---------------
@@ -85,3 +85,12 @@ UNIQUE ("child_key","child_value","parent_key","parent_value"),
 KEY "child_key" ("child_key","child_value"),
 KEY "parent_key" ("parent_key","parent_value")
 ) DEFAULT CHARSET=utf8;
+
+CREATE TABLE "{}changes" (
+"id" bigserial PRIMARY KEY,
+"kind" varchar(32) NOT NULL,
+"type" varchar(255) NOT NULL,
+"identifier" varchar(255) NOT NULL,
+"origin" varchar(36) NOT NULL,
+"changed" bigint NOT NULL
+);
@@ -0,0 +1,61 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.memory;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class CompactMapTest {
+
+    @Test
+    public void testEquivalentToSource() {
+        for (int size : new int[] {0, 1, 8, 9, 500}) {
+            final Map<String, Integer> source = new LinkedHashMap<>();
+            for (int i = 0; i < size; ++i) {
+                source.put("test.perm" + (i * 31 % 1009), i % 3 - 1);
+            }
+            final Map<String, Integer> compact = CompactMap.permissions(source);
+            assertEquals(source, compact);
+            assertEquals(source.hashCode(), compact.hashCode());
+            assertEquals(ImmutableList.copyOf(source.keySet()), ImmutableList.copyOf(compact.keySet()));
+            assertNull(compact.get("test.missing"));
+            assertFalse(compact.containsKey(5));
+        }
+    }
+
+    @Test
+    public void testKeysInterned() {
+        final Map<String, String> first = new LinkedHashMap<>();
+        first.put(new String("prefix"), new String("[Admin]"));
+        final Map<String, String> second = new LinkedHashMap<>();
+        second.put(new String("prefix"), new String("[Admin]"));
+
+        final Map.Entry<String, String> a = CompactMap.options(first).entrySet().iterator().next();
+        final Map.Entry<String, String> b = CompactMap.options(second).entrySet().iterator().next();
+        assertSame(a.getKey(), b.getKey());
+        assertSame(a.getValue(), b.getValue());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.sql;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.PermissionsExTest;
+import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import ca.stellardrift.permissionsex.data.ContextInheritance;
+import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.data.SubjectCache;
+import ca.stellardrift.permissionsex.exception.PEBKACException;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import ca.stellardrift.permissionsex.rank.RankLadder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test of change tracking between two data stores sharing a database
+ */
+public class SqlChangeTrackerTest extends PermissionsExTest {
+    private SqlDataStore sqlStore;
+    private SqlDataStore otherStore;
+    private String jdbcUrl;
+
+    @BeforeEach
+    public void setUp(TestInfo info, @TempDir Path tempDir) throws IOException, PEBKACException, PermissionsLoadingException, ObjectMappingException {
+        this.jdbcUrl = "jdbc:h2:file:" + tempDir.resolve("change-tracker").toAbsolutePath().toString().replace('\\', '/') + "/test.db";
+        this.sqlStore = new SqlDataStore("change-tracker");
+        this.sqlStore.setConnectionUrl(this.jdbcUrl);
+        this.sqlStore.setChangePollInterval(60_000); // only poll explicitly
+        super.setUp(info, tempDir);
+
+        this.otherStore = new SqlDataStore("change-tracker-other");
+        this.otherStore.setConnectionUrl(this.jdbcUrl);
+        this.otherStore.setChangePollInterval(60_000);
+        this.otherStore.initialize(getManager());
+    }
+
+    @AfterEach
+    @Override
+    public void tearDown() {
+        this.otherStore.close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testChangesSeenByOtherStore() {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        final AtomicReference<ImmutableSubjectData> received = new AtomicReference<>();
+        final Consumer<ImmutableSubjectData> listener = received::set;
+        this.otherStore.getData(PermissionsEx.SUBJECTS_GROUP, "shared", listener).join();
+
+        cache.update("shared", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.shared", 1)).join();
+        assertNull(received.get());
+
+        this.otherStore.pollChanges().join();
+        assertNotNull(received.get());
+        assertEquals(ImmutableMap.of("test.shared", 1), received.get().getPermissions(PermissionsEx.GLOBAL_CONTEXT));
+    }
+
+    @Test
+    public void testRemovalSeenByOtherStore() {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        cache.update("removed", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.removed", 1)).join();
+        final AtomicReference<ImmutableSubjectData> received = new AtomicReference<>();
+        final Consumer<ImmutableSubjectData> listener = received::set;
+        assertFalse(this.otherStore.getData(PermissionsEx.SUBJECTS_GROUP, "removed", listener).join().getPermissions(PermissionsEx.GLOBAL_CONTEXT).isEmpty());
+
+        cache.remove("removed").join();
+        this.otherStore.pollChanges().join();
+        assertNotNull(received.get());
+        assertTrue(received.get().getPermissions(PermissionsEx.GLOBAL_CONTEXT).isEmpty());
+    }
+
+    @Test
+    public void testRankLadderChangesSeenByOtherStore() {
+        final AtomicReference<RankLadder> received = new AtomicReference<>();
+        final Consumer<RankLadder> listener = received::set;
+        this.otherStore.getRankLadder("shared", listener).join();
+
+        final RankLadder ladder = this.sqlStore.getRankLadder("shared", null).join();
+        this.sqlStore.setRankLadder("shared", ladder.addRank(Maps.immutableEntry(PermissionsEx.SUBJECTS_GROUP, "member"))).join();
+        this.otherStore.pollChanges().join();
+
+        assertNotNull(received.get());
+        assertEquals(1, received.get().getRanks().size());
+    }
+
+    @Test
+    public void testContextInheritanceChangesSeenByOtherStore() {
+        final AtomicReference<ContextInheritance> received = new AtomicReference<>();
+        final Consumer<ContextInheritance> listener = received::set;
+        this.otherStore.getContextInheritance(listener).join();
+
+        final ContextValue<String> child = new ContextValue<>("world", "nether");
+        final ContextInheritance inheritance = this.sqlStore.getContextInheritance(null).join();
+        this.sqlStore.setContextInheritance(inheritance.setParents(child, ImmutableList.of(new ContextValue<>("world", "overworld")))).join();
+        this.otherStore.pollChanges().join();
+
+        assertNotNull(received.get());
+        assertEquals(1, received.get().getParents(child).size());
+    }
+
+    @Test
+    public void testExistingChangesNotReloaded() {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        cache.update("existing", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.existing", 1)).join();
+
+        final SqlDataStore lateStore = new SqlDataStore("change-tracker-late");
+        lateStore.setConnectionUrl(this.jdbcUrl);
+        lateStore.setChangePollInterval(60_000);
+        try {
+            lateStore.initialize(getManager());
+            final AtomicReference<ImmutableSubjectData> received = new AtomicReference<>();
+            final Consumer<ImmutableSubjectData> listener = received::set;
+            lateStore.getData(PermissionsEx.SUBJECTS_GROUP, "existing", listener).join();
+
+            lateStore.pollChanges().join();
+            assertNull(received.get()); // recorded before the store started, so already loaded
+        } catch (PermissionsLoadingException e) {
+            fail(e);
+        } finally {
+            lateStore.close();
+        }
+    }
+
+    @Test
+    public void testOwnChangesIgnored() {
+        final AtomicReference<ImmutableSubjectData> received = new AtomicReference<>();
+        final Consumer<ImmutableSubjectData> listener = received::set;
+        final ImmutableSubjectData data = this.otherStore.getData(PermissionsEx.SUBJECTS_GROUP, "local", listener).join();
+
+        this.otherStore.setData(PermissionsEx.SUBJECTS_GROUP, "local", data.setOption(PermissionsEx.GLOBAL_CONTEXT, "prefix", "local")).join();
+        received.set(null);
+
+        this.otherStore.pollChanges().join();
+        assertNull(received.get());
+    }
+
+    @Override
+    protected PermissionsExConfiguration<?> populate() {
+        return new SqlTestConfiguration(this.sqlStore);
+    }
+}
@@ -17,6 +17,7 @@
 
 package ca.stellardrift.permissionsex.backend.sql;
 
+import ca.stellardrift.permissionsex.PermissionsEx;
 import ca.stellardrift.permissionsex.PermissionsExTest;
 import ca.stellardrift.permissionsex.backend.DataStore;
 import ca.stellardrift.permissionsex.config.EmptyPlatformConfiguration;
@@ -38,10 +39,12 @@ import org.junit.jupiter.api.io.TempDir;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -228,6 +231,171 @@ public class SqlDaoTest extends PermissionsExTest {
         }
     }
 
+    @Test
+    public void testMultipleSegments() throws SQLException {
+        try (SqlDao dao = sqlStore.getDao()) {
+            final SubjectRef subject = dao.getOrCreateSubjectRef("group", "segmented"),
+                    parent = dao.getOrCreateSubjectRef("group", "parent"),
+                    other = dao.getOrCreateSubjectRef("group", "other");
+
+            Segment global = dao.addSegment(subject);
+            dao.setPermission(global, "test.global", 1);
+            dao.setOption(global, "prefix", "[G]");
+            dao.addParent(global, parent);
+
+            Segment nether = dao.addSegment(subject);
+            final Set<ContextValue<?>> netherContexts = ImmutableSet.of(new ContextValue<String>("world", "DIM-1"));
+            dao.setContexts(nether, netherContexts);
+            dao.setPermission(nether, "test.nether", -1);
+
+            dao.setPermission(dao.addSegment(other), "test.other", 1);
+
+            final List<Segment> segments = dao.getSegments(subject);
+            assertEquals(2, segments.size());
+            global = segments.get(0).getId() == global.getId() ? segments.get(0) : segments.get(1);
+            nether = segments.get(0).getId() == nether.getId() ? segments.get(0) : segments.get(1);
+
+            assertTrue(global.getContexts().isEmpty());
+            assertEquals(ImmutableMap.of("test.global", 1), global.getPermissions());
+            assertEquals(ImmutableMap.of("prefix", "[G]"), global.getOptions());
+            assertEquals(ImmutableList.of(parent), global.getParents());
+
+            assertEquals(netherContexts, nether.getContexts());
+            assertEquals(ImmutableMap.of("test.nether", -1), nether.getPermissions());
+            assertTrue(nether.getOptions().isEmpty());
+            assertTrue(nether.getParents().isEmpty());
+        }
+    }
+
+    @Test
+    public void testBatchLoad() throws SQLException {
+        try (SqlDao dao = sqlStore.getDao()) {
+            final ImmutableList.Builder<String> names = ImmutableList.builder();
+            for (int i = 0; i < SqlDao.MAX_IN_LIST_SIZE + 10; ++i) {
+                final String name = "batch" + i;
+                names.add(name);
+                if (i % 2 == 0) {
+                    final Segment seg = dao.addSegment(dao.getOrCreateSubjectRef("group", name));
+                    dao.setPermission(seg, "test." + name, 1);
+                }
+            }
+
+            final Map<String, SubjectRef> refs = dao.getSubjectRefs("group", names.build());
+            assertEquals((SqlDao.MAX_IN_LIST_SIZE + 10) / 2, refs.size());
+            assertFalse(refs.containsKey("batch1"));
+
+            final Map<SubjectRef, List<Segment>> segments = dao.getSegments(refs.values());
+            assertEquals(refs.size(), segments.size());
+            for (Map.Entry<String, SubjectRef> ref : refs.entrySet()) {
+                final List<Segment> subjectSegments = segments.get(ref.getValue());
+                assertEquals(1, subjectSegments.size());
+                assertEquals(ImmutableMap.of("test." + ref.getKey(), 1), subjectSegments.get(0).getPermissions());
+            }
+        }
+    }
+
+    @Test
+    public void testBatchLoadIgnoringCase(@TempDir Path tempDir) throws SQLException, PermissionsLoadingException {
+        // Behave like MySQL's case-insensitive utf8 collation
+        final SqlDataStore caseInsensitive = new SqlDataStore("sql-dao-ignorecase");
+        caseInsensitive.setConnectionUrl("jdbc:h2:file:" + tempDir.toAbsolutePath().toString().replace('\\', '/') + "/ignorecase.db;IGNORECASE=TRUE");
+        caseInsensitive.initialize(getManager());
+        try (SqlDao dao = caseInsensitive.getDao()) {
+            final Segment seg = dao.addSegment(dao.getOrCreateSubjectRef("group", "admin"));
+            dao.setPermission(seg, "test.admin", 1);
+
+            final Map<String, SubjectRef> refs = dao.getSubjectRefs("group", ImmutableList.of("Admin", "ADMIN", "missing"));
+            assertEquals(ImmutableSet.of("Admin", "ADMIN"), refs.keySet());
+            assertEquals("Admin", refs.get("Admin").getIdentifier());
+            assertEquals(seg.getId(), dao.getSegments(refs.values()).get(refs.get("Admin")).get(0).getId());
+            assertEquals(ImmutableMap.of("test.admin", 1), dao.getSegments(refs.values()).get(refs.get("ADMIN")).get(0).getPermissions());
+        } finally {
+            caseInsensitive.close();
+        }
+    }
+
+    @Test
+    public void testSegmentUpdatesOnlyChangedRows() throws SQLException {
+        try (SqlDao dao = sqlStore.getDao()) {
+            final SubjectRef subject = dao.getOrCreateSubjectRef("group", "diffed");
+            Segment seg = dao.addSegment(subject);
+            dao.setPermissions(seg, ImmutableMap.of("test.kept", 1, "test.changed", 1, "test.removed", 1));
+            seg = dao.getSegments(subject).get(0);
+
+            // Change a row behind the segment's back, so rewriting it would be noticed
+            try (PreparedStatement stmt = dao.prepareStatement("UPDATE {}permissions SET `value`=? WHERE segment=? AND `key`=?")) {
+                stmt.setInt(1, 3);
+                stmt.setInt(2, seg.getId());
+                stmt.setString(3, "test.kept");
+                stmt.executeUpdate();
+            }
+
+            seg = seg.withPermission("test.changed", -1)
+                    .withoutPermission("test.removed")
+                    .withPermission("test.added", 2);
+            seg.doUpdates(dao);
+
+            assertEquals(ImmutableMap.of("test.kept", 3, "test.changed", -1, "test.added", 2), dao.getSegments(subject).get(0).getPermissions());
+        }
+    }
+
+    private static SqlSubjectData loadSubjectData(SqlDao dao, SubjectRef ref) throws SQLException {
+        final ImmutableMap.Builder<Set<ContextValue<?>>, Segment> segments = ImmutableMap.builder();
+        for (Segment seg : dao.getSegments(ref)) {
+            segments.put(seg.getContexts(), seg);
+        }
+        return new SqlSubjectData(ref, segments.build(), null);
+    }
+
+    @Test
+    public void testChainedSegmentChanges() throws SQLException {
+        try (SqlDao dao = sqlStore.getDao()) {
+            final SubjectRef subject = dao.getOrCreateSubjectRef("group", "chained");
+            dao.setPermissions(dao.addSegment(subject), ImmutableMap.of("test.kept", 1, "test.revoked", 1));
+            final Set<ContextValue<?>> global = PermissionsEx.GLOBAL_CONTEXT;
+
+            // Each change is made before the previous one was written, so the database has to end up where it started
+            SqlSubjectData data = loadSubjectData(dao, subject);
+            data = (SqlSubjectData) data.setPermission(global, "test.granted", 1)
+                    .setPermission(global, "test.granted", 0)
+                    .setPermission(global, "test.revoked", 0)
+                    .setPermission(global, "test.revoked", 1);
+            data.doUpdates(dao);
+            assertEquals(ImmutableMap.of("test.kept", 1, "test.revoked", 1), dao.getSegments(subject).get(0).getPermissions());
+
+            // Bulk changes are applied as their own step too
+            data = (SqlSubjectData) data.clearPermissions()
+                    .setPermission(global, "test.kept", 2);
+            data.doUpdates(dao);
+            assertEquals(ImmutableMap.of("test.kept", 2), dao.getSegments(subject).get(0).getPermissions());
+        }
+    }
+
+    @Test
+    public void testSegmentParentReorder() throws SQLException {
+        try (SqlDao dao = sqlStore.getDao()) {
+            final SubjectRef subject = dao.getOrCreateSubjectRef("group", "reordered");
+            final SubjectRef first = dao.getOrCreateSubjectRef("group", "first");
+            final SubjectRef second = dao.getOrCreateSubjectRef("group", "second");
+            final SubjectRef third = dao.getOrCreateSubjectRef("group", "third");
+            final SubjectRef stray = dao.getOrCreateSubjectRef("group", "stray");
+            Segment seg = dao.addSegment(subject);
+            dao.setParents(seg, ImmutableList.of(first, second));
+            seg = dao.getSegments(subject).get(0);
+
+            // Add a row behind the segment's back, so it only goes away when the parents are rewritten
+            dao.addParent(seg, stray);
+
+            seg = seg.withParents(ImmutableList.of(first, second, third));
+            seg.doUpdates(dao);
+            assertEquals(ImmutableSet.of(first, second, third, stray), ImmutableSet.copyOf(dao.getSegments(subject).get(0).getParents()));
+
+            seg = seg.withParents(ImmutableList.of(second, first, third));
+            seg.doUpdates(dao);
+            assertEquals(ImmutableSet.of(first, second, third), ImmutableSet.copyOf(dao.getSegments(subject).get(0).getParents()));
+        }
+    }
+
     @Test
     public void testContexts() throws SQLException {
         try (SqlDao dao = sqlStore.getDao()) {
@@ -0,0 +1,70 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.sql;
+
+import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Configuration for tests running against a single SQL data store
+ */
+final class SqlTestConfiguration implements PermissionsExConfiguration<EmptyPlatformConfiguration> {
+    private final DataStore store;
+
+    SqlTestConfiguration(DataStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public DataStore getDataStore(String name) {
+        return null;
+    }
+
+    @Override
+    public DataStore getDefaultDataStore() {
+        return this.store;
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
+    @Override
+    public List<String> getServerTags() {
+        return ImmutableList.of();
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public EmptyPlatformConfiguration getPlatformConfig() {
+        return new EmptyPlatformConfiguration();
+    }
+
+    @Override
+    public PermissionsExConfiguration<EmptyPlatformConfiguration> reload() {
+        return this;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.backend.sql;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.PermissionsExTest;
+import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.data.ImmutableSubjectData;
+import ca.stellardrift.permissionsex.data.SubjectCache;
+import ca.stellardrift.permissionsex.exception.PEBKACException;
+import ca.stellardrift.permissionsex.exception.PermissionsLoadingException;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SqlWriteBehindTest extends PermissionsExTest {
+    private SqlDataStore sqlStore;
+
+    @BeforeEach
+    public void setUp(TestInfo info, @TempDir Path tempDir) throws IOException, PEBKACException, PermissionsLoadingException, ObjectMappingException {
+        this.sqlStore = new SqlDataStore("write-behind");
+        this.sqlStore.setConnectionUrl("jdbc:h2:file:" + tempDir.resolve("write-behind").toAbsolutePath().toString().replace('\\', '/') + "/test.db");
+        this.sqlStore.setWriteBehind(60_000, 16); // only flush explicitly
+        super.setUp(info, tempDir);
+    }
+
+    @Test
+    public void testCoalescedWrites() throws SQLException {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        cache.getData("queued", null).join();
+
+        final CompletableFuture<ImmutableSubjectData> first = cache.update("queued", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.one", 1));
+        final CompletableFuture<ImmutableSubjectData> second = cache.update("queued", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.two", 1));
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(ImmutableMap.of("test.one", 1, "test.two", 1), cache.getDataIfPresent("queued").getPermissions(PermissionsEx.GLOBAL_CONTEXT));
+
+        this.sqlStore.flush().join();
+        assertTrue(first.isDone());
+        assertSame(second.join(), first.join());
+
+        try (SqlDao dao = this.sqlStore.getDao()) {
+            final SubjectRef ref = dao.getSubjectRef(PermissionsEx.SUBJECTS_GROUP, "queued").get();
+            final List<Segment> segments = dao.getSegments(ref);
+            assertEquals(1, segments.size());
+            assertEquals(ImmutableMap.of("test.one", 1, "test.two", 1), segments.get(0).getPermissions());
+        }
+    }
+
+    @Test
+    public void testCoalescedGrantAndRevoke() throws SQLException {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        cache.getData("stored", null).join();
+        cache.update("stored", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.kept", 1)
+                .setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.revoked", 1));
+        this.sqlStore.flush().join();
+
+        // Both changes to the stored segment are coalesced into one queued write
+        cache.update("stored", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.granted", 1));
+        cache.update("stored", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.granted", 0));
+        cache.update("stored", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.revoked", 0));
+        final CompletableFuture<ImmutableSubjectData> last = cache.update("stored", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.revoked", 1));
+        this.sqlStore.flush().join();
+        last.join();
+
+        try (SqlDao dao = this.sqlStore.getDao()) {
+            final List<Segment> segments = dao.getSegments(dao.getSubjectRef(PermissionsEx.SUBJECTS_GROUP, "stored").get());
+            assertEquals(1, segments.size());
+            assertEquals(ImmutableMap.of("test.kept", 1, "test.revoked", 1), segments.get(0).getPermissions());
+        }
+    }
+
+    @Test
+    public void testFailedWriteReloadsSubjects() throws SQLException {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        cache.getData("good", null).join();
+        cache.getData("bad", null).join();
+        try (SqlDao dao = this.sqlStore.getDao();
+             PreparedStatement stmt = dao.prepareStatement("ALTER TABLE {}permissions RENAME TO {}permissions_hidden")) {
+            stmt.executeUpdate();
+        }
+
+        // Both subjects are written in one transaction, which fails on the missing permissions table
+        final CompletableFuture<ImmutableSubjectData> good = cache.update("good", data -> data.setOption(PermissionsEx.GLOBAL_CONTEXT, "prefix", "good"));
+        final CompletableFuture<ImmutableSubjectData> bad = cache.update("bad", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.bad", 1));
+        assertEquals("good", cache.getDataIfPresent("good").getOptions(PermissionsEx.GLOBAL_CONTEXT).get("prefix"));
+
+        this.sqlStore.flush().join();
+        assertThrows(CompletionException.class, good::join);
+        assertThrows(CompletionException.class, bad::join);
+        assertTrue(cache.getDataIfPresent("good").getOptions(PermissionsEx.GLOBAL_CONTEXT).isEmpty());
+        assertTrue(cache.getDataIfPresent("bad").getPermissions(PermissionsEx.GLOBAL_CONTEXT).isEmpty());
+
+        try (SqlDao dao = this.sqlStore.getDao();
+             PreparedStatement stmt = dao.prepareStatement("ALTER TABLE {}permissions_hidden RENAME TO {}permissions")) {
+            stmt.executeUpdate();
+            assertFalse(dao.getSubjectRef(PermissionsEx.SUBJECTS_GROUP, "good").isPresent());
+        }
+
+        // Changes made after the failure are written in full
+        final CompletableFuture<ImmutableSubjectData> retry = cache.update("good", data -> data.setOption(PermissionsEx.GLOBAL_CONTEXT, "prefix", "good"));
+        this.sqlStore.flush().join();
+        retry.join();
+        try (SqlDao dao = this.sqlStore.getDao()) {
+            final List<Segment> segments = dao.getSegments(dao.getSubjectRef(PermissionsEx.SUBJECTS_GROUP, "good").get());
+            assertEquals(1, segments.size());
+            assertEquals(ImmutableMap.of("prefix", "good"), segments.get(0).getOptions());
+        }
+    }
+
+    @Test
+    public void testEnqueueAfterClose() {
+        final SqlWriteQueue queue = new SqlWriteQueue(this.sqlStore, 60_000, 16);
+        queue.close();
+        final CompletableFuture<ImmutableSubjectData> write = queue.enqueue(PermissionsEx.SUBJECTS_GROUP, "closed", null);
+        assertTrue(write.isCompletedExceptionally());
+    }
+
+    @Override
+    protected PermissionsExConfiguration<?> populate() {
+        return new SqlTestConfiguration(this.sqlStore);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.config;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMapper;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SubjectCacheConfigurationTest {
+    private static SubjectCacheConfiguration load(ConfigurationNode node, String type) throws ObjectMappingException {
+        return ObjectMapper.forClass(SubjectCacheConfiguration.class).bindToNew().populate(node)
+                .withDefaults(SubjectCacheConfiguration.defaultFor(type));
+    }
+
+    @Test
+    public void testMissingSettingsUseTypeDefaults() throws ObjectMappingException {
+        final ConfigurationNode groups = SimpleConfigurationNode.root();
+        groups.getNode("expire-after-access").setValue(60);
+        final SubjectCacheConfiguration groupConfig = load(groups, PermissionsEx.SUBJECTS_GROUP);
+        assertTrue(groupConfig.isPinned());
+        assertEquals(60, groupConfig.getExpireAfterAccess());
+
+        final ConfigurationNode users = SimpleConfigurationNode.root();
+        users.getNode("maximum-weight").setValue(1024);
+        final SubjectCacheConfiguration userConfig = load(users, PermissionsEx.SUBJECTS_USER);
+        assertFalse(userConfig.isPinned());
+        assertEquals(1024, userConfig.getMaximumWeight());
+        assertEquals(SubjectCacheConfiguration.defaultFor(PermissionsEx.SUBJECTS_USER).getExpireAfterAccess(), userConfig.getExpireAfterAccess());
+    }
+
+    @Test
+    public void testUnpinnedGroupsStayBounded() throws ObjectMappingException {
+        final ConfigurationNode groups = SimpleConfigurationNode.root();
+        groups.getNode("pinned").setValue(false);
+        final SubjectCacheConfiguration config = load(groups, PermissionsEx.SUBJECTS_GROUP);
+        assertFalse(config.isPinned());
+        assertTrue(config.getMaximumWeight() > 0);
+    }
+}
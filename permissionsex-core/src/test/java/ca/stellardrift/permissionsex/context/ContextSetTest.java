@@ -0,0 +1,94 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.context;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContextSetTest {
+    @Test
+    public void testInterning() {
+        final ContextSet first = ContextSet.of(new ContextValue<>("world", "nether"), new ContextValue<>("server-tag", "lobby"));
+        final ContextSet second = ContextSet.of(new ContextValue<>("server-tag", "lobby"), new ContextValue<>("world", "nether"));
+        assertSame(first, second);
+        assertSame(first, ContextSet.of(first));
+        assertSame(ContextSet.empty(), ContextSet.of(ImmutableSet.of()));
+
+        final ContextValue<?> value = new ContextValue<>("world", "nether");
+        assertSame(ContextValue.intern(value), ContextValue.intern(new ContextValue<>("world", "nether")));
+    }
+
+    @Test
+    public void testSetContract() {
+        final Set<ContextValue<?>> plain = new HashSet<>();
+        plain.add(new ContextValue<>("world", "nether"));
+        plain.add(new ContextValue<>("world", "nether"));
+        plain.add(new ContextValue<>("server-tag", "lobby"));
+        final ContextSet set = ContextSet.of(plain);
+
+        assertEquals(2, set.size());
+        assertEquals(plain, set);
+        assertEquals(set, plain);
+        assertEquals(plain.hashCode(), set.hashCode());
+        assertTrue(set.contains(new ContextValue<>("world", "nether")));
+        assertFalse(set.contains(new ContextValue<>("world", "end")));
+
+        final Map<Set<ContextValue<?>>, String> segments = ImmutableMap.of(set, "segment");
+        assertEquals("segment", segments.get(plain));
+    }
+
+    @Test
+    public void testRebindInterned() {
+        final ContextValue<String> value = ContextValue.intern(new ContextValue<>("rebind-test", "value"));
+        final SimpleContextDefinition original = new SimpleContextDefinition("rebind-test");
+        final SimpleContextDefinition replacement = new SimpleContextDefinition("rebind-test") {
+            @Override
+            public String deserialize(String canonicalValue) {
+                return canonicalValue.toUpperCase(Locale.ROOT);
+            }
+        };
+
+        assertEquals("value", value.getParsedValue(original));
+        // a definition registered again under the same name is used for the shared instance, not rejected
+        assertEquals("VALUE", ContextValue.intern(new ContextValue<String>("rebind-test", "value")).getParsedValue(replacement));
+        assertSame(replacement, value.getDefinition());
+    }
+
+    @Test
+    public void testExactMatchNotInherited() {
+        assertTrue(new SimpleContextDefinition("exact-test").isExactMatch());
+        assertTrue(new FallbackContextDefinition("exact-test").isExactMatch());
+        assertFalse(new SimpleContextDefinition("exact-test") {
+            @Override
+            public boolean matches(String ownVal, String testVal) {
+                return ownVal.equalsIgnoreCase(testVal);
+            }
+        }.isExactMatch());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.data;
+
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ContextInheritanceClosureTest {
+    private static final ContextValue<?> NETHER = new ContextValue<>("world", "nether");
+    private static final ContextValue<?> OVERWORLD = new ContextValue<>("world", "world");
+    private static final ContextValue<?> LOBBY = new ContextValue<>("server-tag", "lobby");
+    private static final ContextValue<?> NETWORK = new ContextValue<>("server-tag", "network");
+
+    private static ContextInheritance inheritance(Map<ContextValue<?>, List<ContextValue<?>>> parents) {
+        return new ContextInheritance() {
+            @Override
+            public List<ContextValue<?>> getParents(ContextValue<?> context) {
+                final List<ContextValue<?>> ret = parents.get(context);
+                return ret == null ? ImmutableList.of() : ret;
+            }
+
+            @Override
+            public ContextInheritance setParents(ContextValue<?> context, List<ContextValue<?>> newParents) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Map<ContextValue<?>, List<ContextValue<?>>> getAllParents() {
+                return parents;
+            }
+        };
+    }
+
+    @Test
+    public void testTransitiveExpansion() {
+        final ContextInheritanceClosure closure = new ContextInheritanceClosure(inheritance(ImmutableMap.of(
+                NETHER, ImmutableList.of(OVERWORLD),
+                OVERWORLD, ImmutableList.of(LOBBY),
+                LOBBY, ImmutableList.of(NETWORK))));
+
+        assertEquals(ContextSet.of(OVERWORLD, LOBBY, NETWORK), closure.getInherited(NETHER));
+        assertEquals(ContextSet.of(NETHER, OVERWORLD, LOBBY, NETWORK), closure.expand(ContextSet.of(NETHER)));
+        assertTrue(closure.getInherited(NETWORK).isEmpty());
+    }
+
+    @Test
+    public void testCycles() {
+        final ContextInheritanceClosure closure = new ContextInheritanceClosure(inheritance(ImmutableMap.of(
+                NETHER, ImmutableList.of(OVERWORLD),
+                OVERWORLD, ImmutableList.of(NETHER))));
+
+        assertEquals(ContextSet.of(OVERWORLD), closure.getInherited(NETHER));
+        assertEquals(ContextSet.of(NETHER, OVERWORLD), closure.expand(ContextSet.of(OVERWORLD)));
+    }
+
+    @Test
+    public void testUninheritedContextsUnchanged() {
+        final ContextInheritanceClosure closure = new ContextInheritanceClosure(inheritance(ImmutableMap.of(
+                NETHER, ImmutableList.of(OVERWORLD))));
+        final ContextSet contexts = ContextSet.of(LOBBY, NETWORK);
+        assertSame(contexts, closure.expand(contexts));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.data;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.PermissionsExTest;
+import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.backend.memory.MemoryDataStore;
+import ca.stellardrift.permissionsex.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SubjectCacheTest extends PermissionsExTest {
+
+    @Test
+    public void testWeigh() {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_USER).transientData();
+        ImmutableSubjectData data = cache.getData("weighed", null).join();
+        assertEquals(1, SubjectCache.weigh("weighed", data));
+
+        data = data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.one", 1)
+                .setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.two", -1)
+                .setOption(PermissionsEx.GLOBAL_CONTEXT, "prefix", "[Test]");
+        // base weight, one segment, two permissions and an option
+        assertEquals(5, SubjectCache.weigh("weighed", data));
+
+        data = data.addParent(ImmutableSet.of(new ContextValue<>("world", "nether")), PermissionsEx.SUBJECTS_GROUP, "member");
+        // another segment and its parent
+        assertEquals(7, SubjectCache.weigh("weighed", data));
+    }
+
+    @Test
+    public void testGetDataBatch() {
+        final SubjectCache cache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).persistentData();
+        cache.update("first", data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.first", 1)).join();
+        cache.update("second", data -> data.setOption(PermissionsEx.GLOBAL_CONTEXT, "prefix", "[Second]")).join();
+        cache.invalidate("first");
+        cache.invalidate("second");
+
+        final Map<String, ImmutableSubjectData> batch = cache.getDataBatch(ImmutableList.of("first", "second", "third")).join();
+        assertEquals(3, batch.size());
+        assertEquals(ImmutableMap.of("test.first", 1), batch.get("first").getPermissions(PermissionsEx.GLOBAL_CONTEXT));
+        assertEquals("[Second]", batch.get("second").getOptions(PermissionsEx.GLOBAL_CONTEXT).get("prefix"));
+        assertTrue(batch.get("third").getAllPermissions().isEmpty());
+        assertSame(batch.get("first"), cache.getDataIfPresent("first"));
+    }
+
+    @Override
+    protected PermissionsExConfiguration<?> populate() {
+        return new PermissionsExConfiguration<EmptyPlatformConfiguration>() {
+            @Override
+            public DataStore getDataStore(String name) {
+                return null;
+            }
+
+            @Override
+            public DataStore getDefaultDataStore() {
+                return new MemoryDataStore("subject-cache");
+            }
+
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public List<String> getServerTags() {
+                return ImmutableList.of();
+            }
+
+            @Override
+            public void validate() {
+            }
+
+            @Override
+            public EmptyPlatformConfiguration getPlatformConfig() {
+                return new EmptyPlatformConfiguration();
+            }
+
+            @Override
+            public PermissionsExConfiguration<EmptyPlatformConfiguration> reload() {
+                return this;
+            }
+        };
+    }
+}
@@ -31,6 +31,8 @@ import ca.stellardrift.permissionsex.subject.SubjectType;
 import ca.stellardrift.permissionsex.util.NodeTree;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
@@ -40,6 +42,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static ca.stellardrift.permissionsex.context.Context_definitionKt.cSet;
 import static org.junit.jupiter.api.Assertions.*;
@@ -70,6 +73,51 @@ public class SubjectDataBakerTest extends PermissionsExTest {
         assertEquals(1, subjectS.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.permission.child"));
     }
 
+    /**
+     * Arrangement:
+     * grandparent
+     *    parent
+     *       child
+     *
+     * A change to grandparent must be visible in child without child's own data changing
+     */
+    @Test
+    public void testAncestorChangeInvalidatesDescendants() {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        CalculatedSubject grandparent = groupCache.get("grandparent").join();
+        CalculatedSubject parent = groupCache.get("parent").join();
+        CalculatedSubject child = groupCache.get("child").join();
+        parent.data().update(old -> old.addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "grandparent")).join();
+        child.data().update(old -> old.addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "parent")).join();
+
+        assertEquals(0, child.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.ancestor"));
+        assertTrue(getManager().getInheritanceGraph().getDependents(grandparent.getIdentifier()).contains(child.getIdentifier()));
+
+        grandparent.data().update(old -> old.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.ancestor", 1)).join();
+
+        assertEquals(1, child.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.ancestor"));
+    }
+
+    @Test
+    public void testSharedGroupContributions() {
+        SubjectType groupCache = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP);
+        SubjectType userCache = getManager().getSubjects(PermissionsEx.SUBJECTS_USER);
+        groupCache.persistentData().update("member", old -> old.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.shared", 1)).join();
+        CalculatedSubject first = userCache.get("first").join();
+        CalculatedSubject second = userCache.get("second").join();
+        first.data().update(old -> old.addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "member")).join();
+        second.data().update(old -> old.addParent(PermissionsEx.GLOBAL_CONTEXT, PermissionsEx.SUBJECTS_GROUP, "member")).join();
+
+        final long initialHits = getManager().getBakeContributions().stats().hitCount();
+        assertEquals(1, first.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.shared"));
+        assertEquals(1, second.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.shared"));
+        assertTrue(getManager().getBakeContributions().stats().hitCount() > initialHits);
+
+        groupCache.persistentData().update("member", old -> old.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.shared", -1)).join();
+        assertEquals(-1, first.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.shared"));
+        assertEquals(-1, second.getPermissions(PermissionsEx.GLOBAL_CONTEXT).get("test.shared"));
+    }
+
     @Test
     public void testFallbackSubject() {
         getManager().getSubjects(PermissionsEx.SUBJECTS_FALLBACK).transientData().update(PermissionsEx.SUBJECTS_USER, old -> old.setPermission(PermissionsEx.GLOBAL_CONTEXT, "messages.welcome", 1)).join();
@@ -167,6 +215,64 @@ public class SubjectDataBakerTest extends PermissionsExTest {
 
     }
 
+    /**
+     * Active contexts are kept until invalidated, rather than being recalculated on every query
+     */
+    @Test
+    public void testActiveContextsInvalidation() throws ExecutionException, InterruptedException {
+        final AtomicReference<String> currentWorld = new AtomicReference<>("nether");
+        getManager().registerContextDefinition(new SimpleContextDefinition("current-world") {
+            @Override
+            public void accumulateCurrentValues(CalculatedSubject subject, Function1<? super String, Unit> consumer) {
+                consumer.invoke(currentWorld.get());
+            }
+        });
+        final ContextValue<String> nether = new ContextValue<>("current-world", "nether");
+        final ContextValue<String> end = new ContextValue<>("current-world", "end");
+
+        CalculatedSubject subject = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).get("active").get();
+        assertTrue(subject.getActiveContexts().contains(nether));
+
+        currentWorld.set("end");
+        assertTrue(subject.getActiveContexts().contains(nether));
+
+        subject.invalidateActiveContexts();
+        assertTrue(subject.getActiveContexts().contains(end));
+        assertFalse(subject.getActiveContexts().contains(nether));
+    }
+
+    /**
+     * Time contexts are kept as a placeholder in the snapshot, but shown to callers as the current time
+     */
+    @Test
+    public void testActiveContextsResolveCurrentTime() throws ExecutionException, InterruptedException {
+        CalculatedSubject subject = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).get("timed").get();
+        final ContextValue<ZonedDateTime> placeholder = BeforeTimeContextDefinition.INSTANCE.getCurrentTimePlaceholder();
+
+        assertTrue(subject.getActiveContextSnapshot().contains(placeholder));
+        final Set<ContextValue<?>> active = subject.getActiveContexts();
+        assertFalse(active.contains(placeholder));
+        assertTrue(active.stream().anyMatch(value -> value.getKey().equals(BeforeTimeContextDefinition.INSTANCE.getName())
+                && !value.getRawValue().equals(TimeContextDefinition.CURRENT_TIME_PLACEHOLDER)));
+    }
+
+    /**
+     * Queries in the active contexts reuse the previous baked data until something changes
+     */
+    @Test
+    public void testActiveContextsReuseBakedData() throws ExecutionException, InterruptedException {
+        CalculatedSubject subject = getManager().getSubjects(PermissionsEx.SUBJECTS_GROUP).get("reused").get();
+        subject.data().update(data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "some.perm", 1)).join();
+
+        assertSame(subject.getActiveContextSnapshot(), subject.getActiveContextSnapshot());
+        final NodeTree first = subject.getPermissions();
+        assertSame(first, subject.getPermissions());
+        assertEquals(1, first.get("some.perm"));
+
+        subject.data().update(data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "some.perm", -1)).join();
+        assertEquals(-1, subject.getPermissions().get("some.perm"));
+    }
+
     @Override
     protected PermissionsExConfiguration<?> populate() {
         return new PermissionsExConfiguration<EmptyPlatformConfiguration>() {
@@ -0,0 +1,157 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.logging;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.context.ContextSet;
+import ca.stellardrift.permissionsex.context.ContextValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AsyncPermissionCheckNotifierTest {
+    private static final Map.Entry<String, String> SUBJECT = Maps.immutableEntry("user", "test");
+    private static final FormattedLogger LOGGER = FormattedLogger.forLogger(LoggerFactory.getLogger(AsyncPermissionCheckNotifierTest.class), false);
+
+    @Test
+    public void testDeliversFromManyThreads() throws InterruptedException {
+        final RecordingPermissionCheckNotifier recorder = new RecordingPermissionCheckNotifier();
+        try (AsyncPermissionCheckNotifier notifier = new AsyncPermissionCheckNotifier("test notifier", recorder, LOGGER)) {
+            final List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                final int thread = i;
+                threads.add(new Thread(() -> {
+                    for (int j = 0; j < 100; ++j) {
+                        notifier.onPermissionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "test.perm." + thread + "." + j, 1);
+                    }
+                    notifier.onOptionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "option-" + thread, "value");
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            notifier.flush();
+
+            assertEquals(0, notifier.getDroppedEvents());
+            assertEquals(400, recorder.getKnownPermissions().size());
+            assertEquals(4, recorder.getKnownOptions().size());
+            assertTrue(recorder.getKnownPermissions().contains("test.perm.3.99"));
+        }
+    }
+
+    @Test
+    public void testSinkChange() {
+        final RecordingPermissionCheckNotifier first = new RecordingPermissionCheckNotifier();
+        final RecordingPermissionCheckNotifier second = new RecordingPermissionCheckNotifier();
+        try (AsyncPermissionCheckNotifier notifier = new AsyncPermissionCheckNotifier("test notifier", first, LOGGER)) {
+            notifier.onPermissionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "first.perm", 1);
+            notifier.flush();
+            notifier.setSink(second);
+            notifier.onPermissionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "second.perm", 1);
+            notifier.flush();
+
+            assertTrue(first.getKnownPermissions().contains("first.perm"));
+            assertEquals(1, first.getKnownPermissions().size());
+            assertTrue(second.getKnownPermissions().contains("second.perm"));
+            assertEquals(1, second.getKnownPermissions().size());
+        }
+    }
+
+    @Test
+    public void testContextsPassedToSink() {
+        final List<Set<ContextValue<?>>> seen = new ArrayList<>();
+        final List<List<Map.Entry<String, String>>> parents = new ArrayList<>();
+        final PermissionCheckNotifier sink = new PermissionCheckNotifier() {
+            @Override
+            public void onPermissionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String permission, int value) {
+                seen.add(contexts);
+            }
+
+            @Override
+            public void onOptionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String option, String value) {
+            }
+
+            @Override
+            public void onParentCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, List<Map.Entry<String, String>> parentList) {
+                parents.add(parentList);
+            }
+        };
+        final ContextSet snapshot = ContextSet.of(new ContextValue<>("world", "nether"));
+        final Set<ContextValue<?>> mutable = new HashSet<>(snapshot);
+
+        try (AsyncPermissionCheckNotifier notifier = new AsyncPermissionCheckNotifier("test notifier", sink, LOGGER)) {
+            notifier.onPermissionCheck(SUBJECT, snapshot, "test.snapshot", 1);
+            notifier.onPermissionCheck(SUBJECT, mutable, "test.mutable", 1);
+            mutable.clear();
+            notifier.onParentCheck(SUBJECT, snapshot, ImmutableList.of(Maps.immutableEntry("group", "parent")));
+            notifier.flush();
+
+            assertSame(snapshot, seen.get(0));
+            assertNotSame(mutable, seen.get(1));
+            assertEquals(snapshot, seen.get(1));
+            assertEquals(1, parents.size());
+        }
+    }
+
+    @Test
+    public void testDeliveryContinuesAfterSinkFailure() {
+        final RecordingPermissionCheckNotifier recorder = new RecordingPermissionCheckNotifier();
+        final PermissionCheckNotifier sink = new PermissionCheckNotifier() {
+            @Override
+            public void onPermissionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String permission, int value) {
+                if (permission.startsWith("broken.")) {
+                    throw new IllegalStateException("Failing on " + permission);
+                }
+                recorder.onPermissionCheck(subject, contexts, permission, value);
+            }
+
+            @Override
+            public void onOptionCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, String option, String value) {
+            }
+
+            @Override
+            public void onParentCheck(Map.Entry<String, String> subject, Set<ContextValue<?>> contexts, List<Map.Entry<String, String>> parentList) {
+            }
+        };
+
+        try (AsyncPermissionCheckNotifier notifier = new AsyncPermissionCheckNotifier("test notifier", sink, LOGGER)) {
+            notifier.onPermissionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "broken.first", 1);
+            notifier.onPermissionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "broken.second", 1);
+            notifier.onPermissionCheck(SUBJECT, PermissionsEx.GLOBAL_CONTEXT, "test.after", 1);
+            notifier.flush();
+
+            assertEquals(1, recorder.getKnownPermissions().size());
+            assertTrue(recorder.getKnownPermissions().contains("test.after"));
+        }
+    }
+}
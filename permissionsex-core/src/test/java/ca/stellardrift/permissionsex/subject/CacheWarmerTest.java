@@ -0,0 +1,119 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.subject;
+
+import ca.stellardrift.permissionsex.PermissionsEx;
+import ca.stellardrift.permissionsex.PermissionsExTest;
+import ca.stellardrift.permissionsex.backend.DataStore;
+import ca.stellardrift.permissionsex.backend.memory.MemoryDataStore;
+import ca.stellardrift.permissionsex.config.EmptyPlatformConfiguration;
+import ca.stellardrift.permissionsex.config.PermissionsExConfiguration;
+import ca.stellardrift.permissionsex.config.WarmUpConfiguration;
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+public class CacheWarmerTest extends PermissionsExTest {
+
+    private SubjectType populateUsers(int count) {
+        final SubjectType users = getManager().getSubjects(PermissionsEx.SUBJECTS_USER);
+        for (int i = 0; i < count; ++i) {
+            users.persistentData().update(new UUID(0, i).toString(), data -> data.setPermission(PermissionsEx.GLOBAL_CONTEXT, "test.warm", 1)).join();
+        }
+        return users;
+    }
+
+    @Test
+    public void testWarmAll() {
+        final SubjectType users = populateUsers(10);
+        assertEquals(0, users.getActiveSubjects().size());
+
+        final int warmed = new CacheWarmer(getManager(), new WarmUpConfiguration()).warm(users, WarmUpConfiguration.UNLIMITED).join();
+
+        assertEquals(10, warmed);
+        assertEquals(10, users.getActiveSubjects().size());
+        final CalculatedSubject subject = users.getIfActive(new UUID(0, 3).toString());
+        assertNotNull(subject);
+        assertEquals(1, subject.getPermission("test.warm"));
+    }
+
+    @Test
+    public void testWarmSeveralBatches() {
+        final SubjectType users = populateUsers(300);
+
+        final int warmed = new CacheWarmer(getManager(), new WarmUpConfiguration()).warm(users, WarmUpConfiguration.UNLIMITED).join();
+
+        assertEquals(300, warmed);
+        assertEquals(300, users.getActiveSubjects().size());
+        assertNotNull(users.persistentData().getDataIfPresent(new UUID(0, 299).toString()));
+    }
+
+    @Test
+    public void testWarmLimit() {
+        final SubjectType users = populateUsers(10);
+
+        final int warmed = new CacheWarmer(getManager(), new WarmUpConfiguration()).warm(users, 4).join();
+
+        assertEquals(4, warmed);
+        assertEquals(4, users.getActiveSubjects().size());
+    }
+
+    @Override
+    protected PermissionsExConfiguration<?> populate() {
+        return new PermissionsExConfiguration<EmptyPlatformConfiguration>() {
+            @Override
+            public DataStore getDataStore(String name) {
+                return null;
+            }
+
+            @Override
+            public DataStore getDefaultDataStore() {
+                return new MemoryDataStore("cache-warmer");
+            }
+
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public List<String> getServerTags() {
+                return ImmutableList.of();
+            }
+
+            @Override
+            public void validate() {
+            }
+
+            @Override
+            public EmptyPlatformConfiguration getPlatformConfig() {
+                return new EmptyPlatformConfiguration();
+            }
+
+            @Override
+            public PermissionsExConfiguration<EmptyPlatformConfiguration> reload() {
+                return this;
+            }
+        };
+    }
+}
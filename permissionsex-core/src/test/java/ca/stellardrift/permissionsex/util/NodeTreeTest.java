@@ -20,9 +20,13 @@ package ca.stellardrift.permissionsex.util;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class NodeTreeTest {
 
@@ -99,4 +103,89 @@ public class NodeTreeTest {
         assertEquals(-1, nodes.get("generate.thunderstorm.explosive"));
         assertEquals(0, nodes.get("random.perm"));
     }
+
+    @Test
+    public void testCompiled() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+        testPermissions.put("generate", 1);
+        testPermissions.put("generate.thunderstorm.explosive", -1);
+        testPermissions.put("Generate.Hail", 2);
+
+        NodeTree nodes = NodeTree.of(testPermissions, 0);
+        NodeTree compiled = nodes.compile();
+
+        assertTrue(compiled.isCompiled());
+        assertSame(compiled, compiled.compile());
+        for (String node : new String[] {"generate", "generate.rainbow", "generate.rainbow.double", "GENERATE.SUNSET",
+                "generate.sunset.east", "generate.thunderstorm", "generate.thunderstorm.explosive", "generate.hail",
+                "generate.hail.", "generate..rainbow", "random.perm", ""}) {
+            assertEquals(nodes.get(node), compiled.get(node), node);
+        }
+        assertEquals(nodes.asMap(), compiled.asMap());
+        assertEquals(-1, compiled.withValue("generate.rainbow", -1).get("generate.rainbow"));
+    }
+
+    @Test
+    public void testGlobs() {
+        final Map<String, Integer> testPermissions = new LinkedHashMap<>();
+        testPermissions.put("generate.{rainbow,sunset}.{red,blue}", 1);
+        testPermissions.put("generate.sunset.red", -1);
+        testPermissions.put("{weather,time}", 2);
+
+        NodeTree nodes = NodeTree.of(testPermissions, 0);
+        NodeTree compiled = nodes.compile();
+        for (NodeTree tree : new NodeTree[] {nodes, compiled}) {
+            assertEquals(1, tree.get("generate.rainbow.red"));
+            assertEquals(1, tree.get("Generate.Rainbow.Blue.Bright"));
+            assertEquals(1, tree.get("generate.sunset.red")); // the glob was defined first
+            assertEquals(0, tree.get("generate.sunset.green"));
+            assertEquals(0, tree.get("generate.rainbow"));
+            assertEquals(2, tree.get("weather.rain"));
+            assertEquals(0, tree.get("weathers"));
+        }
+        assertEquals(6, nodes.asMap().size());
+        assertEquals(1, nodes.asMap().get("generate.sunset.red").intValue());
+        assertEquals(-1, compiled.withValue("generate.sunset.red", -1).get("generate.sunset.red"));
+        assertEquals(-1, nodes.withValue("generate.{sunset,rainbow}.red", -1).get("generate.rainbow.red"));
+    }
+
+    @Test
+    public void testLiteralCaseCollision() {
+        final Map<String, Integer> testPermissions = new LinkedHashMap<>();
+        testPermissions.put("Generate.Rainbow", 2);
+        testPermissions.put("generate.rainbow", -1);
+        testPermissions.put("generate.{sunset,dawn}.", 1);
+
+        NodeTree nodes = NodeTree.of(testPermissions, 0);
+        NodeTree compiled = nodes.compile();
+        for (NodeTree tree : new NodeTree[] {nodes, compiled}) {
+            assertEquals(-1, tree.get("generate.rainbow")); // the last literal key wins, whatever its magnitude
+            assertEquals(1, tree.get("generate.sunset.red"));
+            assertEquals(1, tree.get("generate.Dawn"));
+            assertEquals(0, tree.get("generate.dusk"));
+        }
+    }
+
+    @Test
+    public void testTurkishDefaultLocale() {
+        final Locale original = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            final Map<String, Integer> testPermissions = new LinkedHashMap<>();
+            testPermissions.put("VIP.kit", 1);
+            testPermissions.put("{ITEMS,blocks}.give", 2);
+
+            NodeTree nodes = NodeTree.of(testPermissions, 0);
+            NodeTree compiled = nodes.compile();
+            for (NodeTree tree : new NodeTree[] {nodes, compiled}) {
+                assertEquals(1, tree.get("vip.kit"));
+                assertEquals(1, tree.get("VIP.KIT"));
+                assertEquals(2, tree.get("items.give"));
+            }
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.util;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PermissionResultMemoTest {
+
+    @Test
+    public void testHitsAndMisses() {
+        NodeTree tree = NodeTree.of(ImmutableMap.of("generate.rainbow", 1, "generate.sunset", -1)).compile();
+        PermissionResultMemo.Statistics stats = new PermissionResultMemo.Statistics();
+        PermissionResultMemo memo = new PermissionResultMemo(tree, stats);
+
+        assertEquals(1, memo.get("generate.rainbow"));
+        assertEquals(1, memo.get("generate.rainbow"));
+        assertEquals(-1, memo.get("generate.sunset.east"));
+        assertEquals(0, memo.get("random.perm"));
+        assertEquals(-1, memo.get("generate.sunset.east"));
+
+        assertEquals(2, stats.getHits());
+        assertEquals(3, stats.getMisses());
+    }
+
+    @Test
+    public void testOverflowFallsBackToTree() {
+        NodeTree tree = NodeTree.of(ImmutableMap.of("perm", 1)).compile();
+        PermissionResultMemo memo = new PermissionResultMemo(tree, new PermissionResultMemo.Statistics());
+
+        for (int i = 0; i < PermissionResultMemo.CAPACITY * 2; ++i) {
+            assertEquals(1, memo.get("perm.child" + i));
+            assertEquals(0, memo.get("other.child" + i));
+        }
+        for (int i = 0; i < PermissionResultMemo.CAPACITY * 2; ++i) {
+            assertEquals(1, memo.get("perm.child" + i));
+        }
+    }
+
+    @Test
+    public void testSizedToTree() {
+        final Map<String, Integer> permissions = new HashMap<>();
+        PermissionResultMemo.Statistics stats = new PermissionResultMemo.Statistics();
+        PermissionResultMemo small = new PermissionResultMemo(NodeTree.of(ImmutableMap.of("perm", 1)).compile(), stats);
+        for (int i = 0; i < PermissionResultMemo.CAPACITY; ++i) {
+            permissions.put("perm.child" + i, 1);
+        }
+        PermissionResultMemo large = new PermissionResultMemo(NodeTree.of(permissions).compile(), new PermissionResultMemo.Statistics());
+
+        assertTrue(small.capacity() < PermissionResultMemo.CAPACITY);
+        assertEquals(PermissionResultMemo.CAPACITY, large.capacity());
+        assertEquals(0, small.get("random.perm"));
+        assertEquals(0, small.get("random.perm"));
+        assertEquals(1, stats.getHits()); // a stored 0 is a hit, not an unpublished slot
+    }
+}
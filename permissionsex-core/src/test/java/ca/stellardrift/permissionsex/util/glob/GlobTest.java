@@ -21,6 +21,8 @@ import com.google.common.collect.ImmutableList;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import java.util.BitSet;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class GlobTest {
@@ -51,6 +53,25 @@ public class GlobTest {
         assertThrows(GlobParseException.class, () -> Globs.parse("aoeu{xy,b"));
     }
 
+    @Test
+    public void testExpand() {
+        assertIterableEquals(ImmutableList.of("a.b", "a.c"), Globs.expand("a.{b,c}"));
+        assertIterableEquals(ImmutableList.of("a.b", "a.c"), Globs.expand("a.{b,c}"));
+        assertIterableEquals(ImmutableList.of("some.node.here"), Globs.expand("some.node.here"));
+        assertIterableEquals(ImmutableList.of("aoeu{xy,b"), Globs.expand("aoeu{xy,b"));
+        assertTrue(Globs.parseCacheStats().hitCount() > 0);
+    }
+
+    @Test
+    public void testMatchPrefixes() throws GlobParseException {
+        final GlobNode glob = Globs.parse("a.{b,c}.{d,e}");
+        final BitSet ends = glob.matchPrefixesIgnoreCase("A.C.E.f", 0);
+        assertEquals(1, ends.cardinality());
+        assertTrue(ends.get(5));
+        assertTrue(glob.matchPrefixesIgnoreCase("a.c.f", 0).isEmpty());
+        assertTrue(Globs.parse("x.{y,zz}").matchPrefixesIgnoreCase("x.ZZ.y", 0).get(4));
+    }
+
     @Disabled("Escape parsing is currently broken, but the rest works fine")
     @Test
     public void testEscapes() throws GlobParseException {
@@ -25,6 +25,7 @@ import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
 
 @Mixin(PlayerManager.class)
 public class MixinPlayerManager {
@@ -33,4 +34,14 @@ public class MixinPlayerManager {
     public void handlePlayerConnect(ClientConnection clientConnection, ServerPlayerEntity player, CallbackInfo ci) {
         PermissionsExMod.INSTANCE.handlePlayerJoin(player);
     }
+
+    @Inject(method = "onPlayerConnect", at = @At("RETURN"))
+    public void handlePlayerConnected(ClientConnection clientConnection, ServerPlayerEntity player, CallbackInfo ci) {
+        PermissionsExMod.INSTANCE.handlePlayerContextsChanged(player);
+    }
+
+    @Inject(method = "respawnPlayer", at = @At("RETURN"))
+    public void handlePlayerRespawn(CallbackInfoReturnable<ServerPlayerEntity> ci) {
+        PermissionsExMod.INSTANCE.handlePlayerContextsChanged(ci.getReturnValue());
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ca.stellardrift.permissionsex.fabric.mixin.lifecycle;
+
+import ca.stellardrift.permissionsex.fabric.PermissionsExMod;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Let PEX know when a player's world context may have changed
+ */
+@Mixin(ServerPlayerEntity.class)
+public class MixinServerPlayerEntity {
+
+    @Inject(method = "changeDimension", at = @At("RETURN"))
+    public void handleDimensionChange(CallbackInfoReturnable<?> ci) {
+        PermissionsExMod.INSTANCE.handlePlayerContextsChanged((ServerPlayerEntity) (Object) this);
+    }
+
+    @Inject(method = "teleport", at = @At("RETURN"))
+    public void handleTeleport(CallbackInfo ci) {
+        PermissionsExMod.INSTANCE.handlePlayerContextsChanged((ServerPlayerEntity) (Object) this);
+    }
+}
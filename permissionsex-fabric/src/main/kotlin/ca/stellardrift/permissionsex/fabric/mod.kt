@@ -159,6 +159,13 @@ object PermissionsExMod : ImplementationInterface, ModInitializer {
         }
     }
 
+    /**
+     * Recalculate a player's active contexts the next time they are queried, after their world or connection changes.
+     */
+    fun handlePlayerContextsChanged(player: ServerPlayerEntity) {
+        _manager?.getSubjects(SUBJECTS_USER)?.getIfActive(player.uuidAsString)?.invalidateActiveContexts()
+    }
+
     fun handlePlayerQuit(player: ServerPlayerEntity) {
         _manager?.callbackController?.clearOwnedBy(player.uuidAsString)
         _manager?.getSubjects(SUBJECTS_USER)?.uncache(player.uuidAsString)
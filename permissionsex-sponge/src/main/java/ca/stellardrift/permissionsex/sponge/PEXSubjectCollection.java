@@ -108,9 +108,14 @@ class PEXSubjectCollection implements SubjectCollection {
 
     @Override
     public CompletableFuture<Map<String, Subject>> loadSubjects(Set<String> identifiers) {
-        Map<String, CompletableFuture<Subject>> subjs =  Maps.asMap(identifiers, ident -> loadSubject(Objects.requireNonNull(ident)));
-        return CompletableFuture.allOf(subjs.values().toArray(new CompletableFuture[0]))
-                .thenApply(none -> Maps.transformValues(subjs, CompletableFuture::join));
+        // Fetch the raw data of every subject together, so the subjects below load from cache
+        return this.collection.persistentData().getDataBatch(identifiers)
+                .thenCombine(this.collection.transientData().getDataBatch(identifiers), (persistent, transientData) -> identifiers)
+                .thenCompose(ids -> {
+                    Map<String, CompletableFuture<Subject>> subjs = Maps.asMap(ids, ident -> loadSubject(Objects.requireNonNull(ident)));
+                    return CompletableFuture.allOf(subjs.values().toArray(new CompletableFuture[0]))
+                            .thenApply(none -> Maps.transformValues(subjs, CompletableFuture::join));
+                });
     }
 
     @Override
@@ -32,6 +32,7 @@ import ca.stellardrift.permissionsex.util.MinecraftProfile
 import ca.stellardrift.permissionsex.util.command.CommandSpec
 import com.velocitypowered.api.event.Subscribe
 import com.velocitypowered.api.event.connection.DisconnectEvent
+import com.velocitypowered.api.event.connection.PostLoginEvent
 import com.velocitypowered.api.event.permission.PermissionsSetupEvent
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent
 import com.velocitypowered.api.event.proxy.ProxyReloadEvent
@@ -182,6 +183,12 @@ class PermissionsExPlugin @Inject constructor(rawLogger: Logger, internal val se
         }
     }
 
+    @Subscribe
+    fun refreshContexts(event: PostLoginEvent) {
+        // The subject was loaded before a player existed to provide connection contexts
+        manager.getSubjects(SUBJECTS_USER).getIfActive(event.player.uniqueId.toString())?.invalidateActiveContexts()
+    }
+
     @Subscribe
     fun uncachePlayer(event: DisconnectEvent) {
         manager.callbackController.clearOwnedBy(event.player.uniqueId)
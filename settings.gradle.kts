@@ -21,7 +21,7 @@ pluginManagement {
 
 rootProject.name = "PermissionsEx"
 
-include("permissionsex-core",
+include("permissionsex-core", "permissionsex-benchmarks",
     "permissionsex-sponge", "permissionsex-bukkit", "permissionsex-fabric",
     "permissionsex-bungee", "permissionsex-velocity")
 